@@ -35,11 +35,16 @@ let currentCustomers = [];
 // Global variable to store current orders
 let currentOrders = [];
 
+// Cursor of the next orders page, null once the last page is loaded
+let ordersNextCursor = null;
+
 // Global variable to store current bills
 let currentBills = [];
 
 // Stores the most recently generated bill for preview/print/download actions
 let lastGeneratedBill = null;
+// Idempotency-Key of a bill that was sent but never answered, reused if the same bill is sent again
+let unansweredBill = null;
 
 // Initialize dashboard
 document.addEventListener('DOMContentLoaded', function() {
@@ -899,29 +904,48 @@ function loadDemoCustomers() {
     displayCustomers(demoCustomers);
 }
 
-// Load orders with enhanced functionality
-async function loadOrders() {
+// Load orders with enhanced functionality: one page at a time from the server-side grid,
+// with the status and date filters applied there. Pass true to append the next page.
+async function loadOrders(loadMore = false) {
     const token = localStorage.getItem('adminToken');
+    const params = new URLSearchParams({ size: 50, cursor: loadMore ? (ordersNextCursor || '') : '' });
+    const status = document.getElementById('orders-status-filter')?.value || '';
+    const date = document.getElementById('date-filter')?.value || '';
+    if (status) {
+        params.set('status', status);
+    }
+    if (date) {
+        const to = new Date(date);
+        to.setDate(to.getDate() + 1);
+        params.set('from', `${date}T00:00:00`);
+        params.set('to', `${to.toISOString().slice(0, 10)}T00:00:00`);
+    }
     try {
-        const response = await fetch('http://localhost:8080/api/admin/orders', {
+        const response = await fetch(`http://localhost:8080/api/admin/orders/grid?${params}`, {
             headers: {
                 'Authorization': `Bearer ${token}`
             }
         });
         if (response.ok) {
             const data = await response.json();
-            // Handle both array format and object with orders property
-            const orders = Array.isArray(data) ? data : (data.orders || data.data || []);
-            currentOrders = orders; // Store current orders
-            displayOrders(orders);
+            const orders = data.orders || [];
+            currentOrders = loadMore ? currentOrders.concat(orders) : orders; // Store current orders
+            ordersNextCursor = data.nextCursor;
+            displayOrders(currentOrders);
         } else {
             console.error('Failed to load orders:', response.status);
+            ordersNextCursor = null;
             displayOrders([]);
         }
     } catch (error) {
         console.error('Error loading orders:', error);
+        ordersNextCursor = null;
         displayOrders([]);
     }
+    const loadMoreButton = document.getElementById('orders-load-more');
+    if (loadMoreButton) {
+        loadMoreButton.style.display = ordersNextCursor ? '' : 'none';
+    }
 }
 
 // Display orders with enhanced action buttons
@@ -1350,6 +1374,7 @@ function editOrder(orderId) {
                                     <div class="detail-value">
                                         <select id="edit-order-status" required>
                                             <option value="PENDING" ${order.status === 'PENDING' ? 'selected' : ''}>Pending</option>
+                                            <option value="PROCESSING" ${order.status === 'PROCESSING' ? 'selected' : ''}>Processing</option>
                                             <option value="COMPLETED" ${order.status === 'COMPLETED' ? 'selected' : ''}>Completed</option>
                                             <option value="CANCELLED" ${order.status === 'CANCELLED' ? 'selected' : ''}>Cancelled</option>
                                         </select>
@@ -1431,6 +1456,10 @@ function saveOrderChanges(orderId) {
     .then(response => {
         console.log('Response status:', response.status);
         console.log('Response headers:', response.headers);
+        if (response.status === 409) {
+            // Someone else changed the order's status first, or the change is not allowed from its status
+            return response.json().then(data => { throw new Error(data.message); });
+        }
         if (!response.ok) {
             throw new Error(`HTTP ${response.status}: ${response.statusText}`);
         }
@@ -2045,20 +2074,9 @@ function loadDemoBooks() {
     updateDemoBookStats(demoBooks);
 }
 
-// Filter orders
+// Filter orders (on the server, from the first page)
 function filterOrders() {
-    const status = document.getElementById('orders-status-filter')?.value || '';
-    const date = document.getElementById('date-filter')?.value || '';
-    const tbody = document.getElementById('orders-table-body');
-    if (!tbody) return;
-    const rows = tbody.querySelectorAll('tr');
-    rows.forEach(row => {
-        const statusCell = row.querySelector('td:nth-child(6)');
-        const dateCell = row.querySelector('td:nth-child(7)');
-        const matchesStatus = !status || (statusCell && statusCell.textContent.trim().toUpperCase() === status);
-        const matchesDate = !date || (dateCell && new Date(dateCell.textContent).toDateString() === new Date(date).toDateString());
-        row.style.display = matchesStatus && matchesDate ? '' : 'none';
-    });
+    loadOrders();
 }
 
 // Logout function
@@ -4361,13 +4379,19 @@ async function handleBillingSubmit(e) {
     
     try {
         // Save to real database
+        const billBody = JSON.stringify(billData);
+        if (!unansweredBill || unansweredBill.body !== billBody) {
+            unansweredBill = { body: billBody, key: crypto.randomUUID ? crypto.randomUUID() : Date.now() + '-' + Math.random().toString(36).slice(2) };
+        }
         const response = await fetch('http://localhost:8080/api/billing/generate', {
             method: 'POST',
             headers: {
-                'Content-Type': 'application/json'
+                'Content-Type': 'application/json',
+                'Idempotency-Key': unansweredBill.key
             },
-            body: JSON.stringify(billData)
+            body: billBody
         });
+        unansweredBill = null;
         
         console.log('Response status:', response.status);
         
@@ -5017,9 +5041,31 @@ async function saveBookChanges(bookId) {
                 body: JSON.stringify(formData)
             });
             
+            if (response.status === 409) {
+                // e.g. the book is on flash sale; nothing was saved
+                const result = await response.json();
+                showToast(result.message || 'This book cannot be edited right now', 'error');
+                saveBtn.innerHTML = originalText;
+                saveBtn.disabled = false;
+                return;
+            }
             if (response.ok) {
                 const result = await response.json();
                 if (result.success) {
+                    // The book update leaves stock alone, so a changed stock count is saved separately
+                    if (result.book && result.book.stockQuantity !== formData.stockQuantity) {
+                        const stockResponse = await fetch(`http://localhost:8080/api/books/${bookId}/stock`, {
+                            method: 'PUT',
+                            headers: {
+                                'Content-Type': 'application/json',
+                            },
+                            body: JSON.stringify({ stockQuantity: formData.stockQuantity })
+                        });
+                        if (!stockResponse.ok) {
+                            showToast('Book details saved, but the stock could not be updated', 'error');
+                        }
+                    }
+                    
                     // Update the book in current books array
                     const bookIndex = currentBooks.findIndex(b => b.id === bookId);
                     if (bookIndex !== -1) {
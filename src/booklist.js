@@ -90,6 +90,33 @@ document.addEventListener("DOMContentLoaded", async () => {
         performSearch();
       }
     });
+    searchInput.addEventListener("input", () => {
+      // Debounce so fast typing only asks the server once per pause
+      clearTimeout(window.__suggestTimer);
+      window.__suggestTimer = setTimeout(loadSuggestions, 150);
+    });
+  }
+  
+  async function loadSuggestions() {
+    const datalist = document.getElementById("searchSuggestions");
+    const query = searchInput.value.trim();
+    if (!datalist || query.length < 2) {
+      return;
+    }
+    try {
+      const res = await fetch(`http://localhost:8080/api/books/suggest?q=${encodeURIComponent(query)}&limit=8`);
+      if (!res.ok) return;
+      const data = await res.json();
+      datalist.innerHTML = "";
+      (data.suggestions || []).forEach(suggestion => {
+        const option = document.createElement("option");
+        option.value = suggestion.text;
+        option.label = suggestion.type;
+        datalist.appendChild(option);
+      });
+    } catch (e) {
+      console.warn("Could not load search suggestions:", e.message);
+    }
   }
   
   function performSearch() {
@@ -278,6 +305,9 @@ window.scrollCarousel = function(carouselId, direction) {
   }
 };
 
+// Books fetched for the category carousels; the summary still counts the whole catalog
+const CATALOG_PAGE_SIZE = 120;
+
 // Load books for different categories
 async function loadBooksForCategories() {
   try {
@@ -287,7 +317,8 @@ async function loadBooksForCategories() {
     const controller = new AbortController();
     const timeoutId = setTimeout(() => controller.abort(), 5000); // 5 second timeout
     
-    const res = await fetch("http://localhost:8080/api/books/all", {
+    // One request for the page of books, the total and the category/status counts
+    const res = await fetch(`http://localhost:8080/api/books?facets=true&page=0&size=${CATALOG_PAGE_SIZE}`, {
       method: 'GET',
       headers: {
         'Content-Type': 'application/json',
@@ -318,7 +349,8 @@ async function loadBooksForCategories() {
       return;
     }
     
-    console.log(`Total books loaded: ${allBooks.length}`);
+    console.log(`Total books loaded: ${allBooks.length} of ${response.totalBooks}`);
+    showCatalogSummary(response.totalBooks, response.facets);
     
     // Categorize books (you can modify this logic based on your book data structure)
     const categorizedBooks = categorizeBooks(allBooks);
@@ -355,6 +387,15 @@ async function loadBooksForCategories() {
   }
 }
 
+// "120 books · 8 categories · 95 in stock" under the All Books heading, from the facet counts
+function showCatalogSummary(totalBooks, facets) {
+  const summary = document.getElementById('allBooksSummary');
+  if (!summary || !facets) return;
+  const categories = Object.keys(facets.categories || {}).length;
+  const inStock = (facets.statuses || {}).IN_STOCK || 0;
+  summary.textContent = `${totalBooks} books · ${categories} categories · ${inStock} in stock`;
+}
+
 // Categorize books based on title, author, or description
 function categorizeBooks(books) {
   const categories = {
@@ -668,8 +709,7 @@ async function loadRecommendedBooks() {
   // Prefer server-side sorted lists to differ from All Books
   const endpoints = [
     "http://localhost:8080/api/books?status=IN_STOCK&sortBy=rating&sortOrder=desc&page=0&size=24",
-    "http://localhost:8080/api/books?sortBy=createdAt&sortOrder=desc&page=0&size=24",
-    "http://localhost:8080/api/books/all"
+    "http://localhost:8080/api/books?sortBy=createdAt&sortOrder=desc&page=0&size=24"
   ];
 
   let books = [];
@@ -689,6 +729,11 @@ async function loadRecommendedBooks() {
     }
   }
 
+  // Fall back to the page the category carousels already loaded
+  if ((!Array.isArray(books) || books.length === 0) && Array.isArray(window.__allBooksCache)) {
+    books = window.__allBooksCache;
+  }
+
   if (!Array.isArray(books) || books.length === 0) {
     recommendedContainer.innerHTML = '<div class="no-books">No recommendations available.</div>';
     return;
@@ -50,6 +50,7 @@ public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Excepti
                         .requestMatchers("/api/analytics/**").permitAll() // Allow analytics endpoints for dashboard
                         .requestMatchers(HttpMethod.POST, "/api/orders").permitAll() // Allow guest orders
                         .requestMatchers(HttpMethod.GET, "/api/orders/email/*").permitAll() // Allow users to fetch their orders
+                        .requestMatchers(HttpMethod.GET, "/api/orders/*/status").permitAll() // Allow guests to follow an accepted order
                         .requestMatchers("/api/billing/**").permitAll() // Allow billing endpoints
                         // Require authentication for other admin APIs
                         .anyRequest().authenticated()
@@ -3,15 +3,25 @@ package com.example.demo.controller;
 import com.example.demo.model.Admin;
 import com.example.demo.model.Customer;
 import com.example.demo.model.Order;
-import com.example.demo.model.Book;
 import com.example.demo.model.Bill;
 import com.example.demo.service.AdminService;
+import com.example.demo.service.BookCache;
 import com.example.demo.service.CustomerService;
 import com.example.demo.service.OrderService;
+import com.example.demo.service.OrderTotals;
 import com.example.demo.service.BookService;
 import com.example.demo.service.BillingService;
+import com.example.demo.service.FlashSaleInventory;
+import com.example.demo.service.OrderIngestion;
+import com.example.demo.service.OutOfStockException;
+import com.example.demo.service.StatusConflictException;
 import com.example.demo.util.JwtUtil;
+import com.example.demo.util.FieldSelection;
+import com.example.demo.util.NdjsonWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -20,6 +30,8 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -45,12 +57,32 @@ public class AdminController {
     @Autowired
     private BillingService billingService;
 
+    @Autowired
+    private FlashSaleInventory flashSaleInventory;
+
+    @Autowired
+    private BookCache bookCache;
+
+    @Autowired
+    private OrderTotals orderTotals;
+
+    @Autowired
+    private OrderIngestion orderIngestion;
+
     @Autowired
     private AuthenticationManager authenticationManager;
 
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private NdjsonWriter ndjsonWriter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private static final int MAX_GRID_PAGE_SIZE = 200;
+
     @PostMapping("/login")
     public ResponseEntity<Map<String, Object>> login(@RequestBody Map<String, String> loginData) {
         Map<String, Object> response = new HashMap<>();
@@ -96,27 +128,16 @@ public class AdminController {
         Map<String, Object> dashboardData = new HashMap<>();
         
         try {
-            // Get counts
-            List<Customer> customers = customerService.getAllCustomers();
-            List<Order> orders = orderService.getAllOrders();
-            List<Book> books = bookService.findAll();
-            
-            // Calculate statistics
-            long totalCustomers = customers.size();
-            long totalOrders = orders.size();
-            long totalBooks = books.size();
-            
-            // Calculate revenue
-            double totalRevenue = orders.stream()
-                .filter(order -> "COMPLETED".equals(order.getStatus()))
-                .mapToDouble(Order::getTotalPrice)
-                .sum();
+            // Counts from collection metadata and running totals, so this costs the same at any data size
+            long totalCustomers = customerService.countCustomers();
+            long totalOrders = orderService.countOrders();
+            Object totalBooks = bookService.getBookStatistics(false).get("totalBooks");
+            
+            // Revenue of completed orders
+            double totalRevenue = orderTotals.getRevenue();
             
             // Recent orders (last 10)
-            List<Order> recentOrders = orders.stream()
-                .sorted((o1, o2) -> o2.getOrderDate().compareTo(o1.getOrderDate()))
-                .limit(10)
-                .toList();
+            List<Order> recentOrders = orderService.getRecentOrders(10);
             
             dashboardData.put("totalCustomers", totalCustomers);
             dashboardData.put("totalOrders", totalOrders);
@@ -134,22 +155,37 @@ public class AdminController {
     }
 
     @GetMapping("/customers")
-    public ResponseEntity<List<Customer>> getAllCustomers() {
+    public ResponseEntity<List<?>> getAllCustomers(@RequestParam(required = false) String fields) {
         try {
-            List<Customer> customers = customerService.getAllCustomers();
+            FieldSelection selection = FieldSelection.parse(fields, Customer.class);
+            List<Customer> customers = customerService.getAllCustomers(selection);
             // Ensure all customers have account numbers
-            customers.forEach(customer -> {
-                if (customer.getAccountNumber() == null || customer.getAccountNumber().isEmpty()) {
-                    customer.setAccountNumber("ACC" + System.currentTimeMillis() % 100000);
-                    customerService.updateCustomer(customer);
-                }
-            });
-            return ResponseEntity.ok(customers);
+            customers.forEach(this::ensureAccountNumber);
+            return ResponseEntity.ok(selection.select(customers, objectMapper));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
+    // Accept: application/x-ndjson streams the customers one per line, backfilling account numbers as above
+    @GetMapping(value = "/customers", produces = NdjsonWriter.MEDIA_TYPE)
+    public void streamAllCustomers(@RequestParam(required = false) String fields,
+                                   HttpServletResponse response) throws IOException {
+        FieldSelection selection = FieldSelection.parse(fields, Customer.class);
+        ndjsonWriter.write(customerService.streamAllCustomers(selection).map(customer -> {
+            ensureAccountNumber(customer);
+            return selection.selectOne(customer, objectMapper);
+        }), response);
+    }
+
+    private void ensureAccountNumber(Customer customer) {
+        if (customer.getAccountNumber() == null || customer.getAccountNumber().isEmpty()) {
+            customerService.assignAccountNumber(customer, "ACC" + System.currentTimeMillis() % 100000);
+        }
+    }
+
     @PostMapping("/customers")
     public ResponseEntity<Map<String, Object>> addCustomer(@RequestBody Customer customer) {
         Map<String, Object> response = new HashMap<>();
@@ -242,29 +278,88 @@ public class AdminController {
         }
     }
 
+    // ?fields= keeps the admin orders table to the columns it shows
     @GetMapping("/orders")
-    public ResponseEntity<List<Order>> getAllOrders() {
+    public ResponseEntity<List<?>> getAllOrders(@RequestParam(required = false) String fields) {
         try {
-            List<Order> orders = orderService.getAllOrders();
-            return ResponseEntity.ok(orders);
+            FieldSelection selection = FieldSelection.parse(fields, Order.class);
+            List<Order> orders = orderService.getAllOrders(selection);
+            return ResponseEntity.ok(selection.select(orders, objectMapper));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
+    // Orders table filtered, sorted and paged in Mongo; pass cursor= empty first, then each nextCursor
+    @GetMapping("/orders/grid")
+    public ResponseEntity<Map<String, Object>> getOrderGrid(
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String paymentMethod,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String search,
+            @RequestParam(required = false) String sortBy,
+            @RequestParam(required = false) String sortOrder,
+            @RequestParam(defaultValue = "") String cursor,
+            @RequestParam(defaultValue = "50") int size,
+            @RequestParam(defaultValue = "false") boolean includeTotal,
+            @RequestParam(required = false) String fields) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            FieldSelection selection = FieldSelection.parse(fields, Order.class);
+            int pageSize = Math.max(1, Math.min(size, MAX_GRID_PAGE_SIZE));
+            Map<String, Object> result = orderService.getOrderGridPage(status, paymentMethod, from, to, search,
+                sortBy, sortOrder, cursor, pageSize, includeTotal, selection);
+            
+            response.putAll(result);
+            response.put("orders", selection.select((List<?>) result.get("orders"), objectMapper));
+            response.put("success", true);
+            response.put("pageSize", pageSize);
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "Error retrieving orders: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    // Accept: application/x-ndjson streams the orders one per line instead of building the list
+    @GetMapping(value = "/orders", produces = NdjsonWriter.MEDIA_TYPE)
+    public void streamAllOrders(@RequestParam(required = false) String fields,
+                                HttpServletResponse response) throws IOException {
+        FieldSelection selection = FieldSelection.parse(fields, Order.class);
+        ndjsonWriter.write(orderService.streamAllOrders(selection).map(order -> selection.selectOne(order, objectMapper)), response);
+    }
+
     @PutMapping("/orders/{id}/status")
     public ResponseEntity<Map<String, Object>> updateOrderStatus(@PathVariable String id, @RequestBody Map<String, String> request) {
         Map<String, Object> response = new HashMap<>();
         
         try {
+            // expectedStatus (optional) is the status the admin saw; the update fails with 409 if it has changed
             String status = request.get("status");
-            Order updatedOrder = orderService.updateOrderStatus(id, status);
+            Order updatedOrder = orderService.updateOrderStatus(id, status, request.get("expectedStatus"));
             
             response.put("success", true);
             response.put("message", "Order status updated successfully");
             response.put("order", updatedOrder);
             
             return ResponseEntity.ok(response);
+        } catch (StatusConflictException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            response.put("currentStatus", e.getCurrentStatus());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", "Failed to update order status: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Failed to update order status: " + e.getMessage());
@@ -341,6 +436,20 @@ public class AdminController {
             response.put("success", false);
             response.put("message", "Invalid number format: " + e.getMessage());
             return ResponseEntity.badRequest().body(response);
+        } catch (StatusConflictException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            response.put("currentStatus", e.getCurrentStatus());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (OutOfStockException e) {
+            response.put("success", false);
+            response.put("message", "Out of stock: " + e.getMessage());
+            response.put("available", e.getAvailable());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", "Failed to update order: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             System.out.println("ERROR in updateOrder: " + e.getMessage());
             e.printStackTrace();
@@ -444,18 +553,112 @@ public class AdminController {
     }
 
     @GetMapping("/bills")
-    public ResponseEntity<Map<String, Object>> getAllBills() {
+    public ResponseEntity<Map<String, Object>> getAllBills(@RequestParam(required = false) String fields) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            List<Bill> bills = billingService.getAllBills();
+            FieldSelection selection = FieldSelection.parse(fields, Bill.class);
+            List<Bill> bills = billingService.getAllBills(selection);
             response.put("success", true);
-            response.put("bills", bills);
+            response.put("bills", selection.select(bills, objectMapper));
             return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Error retrieving bills: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
         }
     }
-} 
\ No newline at end of file
+
+    // Accept: application/x-ndjson streams the bills one per line instead of building the list
+    @GetMapping(value = "/bills", produces = NdjsonWriter.MEDIA_TYPE)
+    public void streamAllBills(@RequestParam(required = false) String fields,
+                               HttpServletResponse response) throws IOException {
+        FieldSelection selection = FieldSelection.parse(fields, Bill.class);
+        ndjsonWriter.write(billingService.streamAllBills(selection).map(bill -> selection.selectOne(bill, objectMapper)), response);
+    }
+
+    // Hit, miss and eviction counts of the book-by-id cache
+    @GetMapping("/book-cache")
+    public ResponseEntity<Map<String, Object>> getBookCacheStatistics() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", bookCache.getStatistics());
+        return ResponseEntity.ok(response);
+    }
+
+    // Drop every cached book, e.g. after editing books directly in the database
+    @DeleteMapping("/book-cache")
+    public ResponseEntity<Map<String, Object>> clearBookCache() {
+        bookCache.invalidateAll();
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", "Book cache cleared");
+        return ResponseEntity.ok(response);
+    }
+
+    // Write-behind order queue: how many are waiting and how many have been inserted
+    @GetMapping("/order-ingestion")
+    public ResponseEntity<Map<String, Object>> getOrderIngestion() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("ingestion", orderIngestion.getStatistics());
+        return ResponseEntity.ok(response);
+    }
+
+    // Books currently on flash sale with the copies left
+    @GetMapping("/flash-sales")
+    public ResponseEntity<Map<String, Object>> getFlashSales() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("sales", flashSaleInventory.getSales());
+        return ResponseEntity.ok(response);
+    }
+
+    @PostMapping("/flash-sales/{bookId}")
+    public ResponseEntity<Map<String, Object>> startFlashSale(@PathVariable String bookId) {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            long available = flashSaleInventory.startSale(bookId);
+            response.put("success", true);
+            response.put("message", "Flash sale started");
+            response.put("bookId", bookId);
+            response.put("available", available);
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "Failed to start flash sale: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    @DeleteMapping("/flash-sales/{bookId}")
+    public ResponseEntity<Map<String, Object>> endFlashSale(@PathVariable String bookId) {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            long available = flashSaleInventory.endSale(bookId);
+            response.put("success", true);
+            response.put("message", "Flash sale ended");
+            response.put("bookId", bookId);
+            response.put("available", available);
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "Failed to end flash sale: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+}
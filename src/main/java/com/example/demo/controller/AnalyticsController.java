@@ -167,10 +167,11 @@ public class AnalyticsController {
                 }
             });
 
-            // Stock status counts
-            long inStock = books.stream().filter(book -> book.getStockQuantity() > 10).count();
-            long lowStock = books.stream().filter(book -> book.getStockQuantity() > 0 && book.getStockQuantity() <= 10).count();
-            long outOfStock = books.stream().filter(book -> book.getStockQuantity() <= 0).count();
+            // Stock status counts from the running inventory totals
+            Map<String, Object> stockStats = bookService.getBookStatistics(false);
+            long inStock = (Long) stockStats.get("inStockBooks");
+            long lowStock = (Long) stockStats.get("lowStockBooks");
+            long outOfStock = (Long) stockStats.get("outOfStockBooks");
 
             // Build response
             Map<String, Object> analytics = new HashMap<>();
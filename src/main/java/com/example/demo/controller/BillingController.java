@@ -4,10 +4,18 @@ import com.example.demo.model.Customer;
 import com.example.demo.model.Bill;
 import com.example.demo.service.CustomerService;
 import com.example.demo.service.BillingService;
+import com.example.demo.service.StatusConflictException;
+import com.example.demo.util.FieldSelection;
+import com.example.demo.util.IdempotentRequests;
+import com.example.demo.util.NdjsonWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -24,6 +32,15 @@ public class BillingController {
     @Autowired
     private BillingService billingService;
 
+    @Autowired
+    private IdempotentRequests idempotentRequests;
+
+    @Autowired
+    private NdjsonWriter ndjsonWriter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @GetMapping("/customer/{accountNumber}")
     public ResponseEntity<Map<String, Object>> getCustomerByAccountNumber(@PathVariable String accountNumber) {
         Map<String, Object> response = new HashMap<>();
@@ -46,9 +63,14 @@ public class BillingController {
         }
     }
 
-    // Enhanced bill generation with items, discounts, taxes
+    // Enhanced bill generation with items, discounts, taxes; retries with the same Idempotency-Key get the first bill
     @PostMapping("/generate")
-    public ResponseEntity<Map<String, Object>> generateBill(@RequestBody Map<String, Object> request) {
+    public ResponseEntity<Map<String, Object>> generateBill(@RequestBody Map<String, Object> request,
+            @RequestHeader(value = IdempotentRequests.HEADER, required = false) String idempotencyKey) {
+        return idempotentRequests.execute("bills", idempotencyKey, request, () -> createBill(request));
+    }
+
+    private ResponseEntity<Map<String, Object>> createBill(Map<String, Object> request) {
         Map<String, Object> response = new HashMap<>();
         
         try {
@@ -117,14 +139,20 @@ public class BillingController {
     }
 
     @GetMapping("/history/{accountNumber}")
-    public ResponseEntity<Map<String, Object>> getBillingHistory(@PathVariable String accountNumber) {
+    public ResponseEntity<Map<String, Object>> getBillingHistory(@PathVariable String accountNumber,
+                                                                 @RequestParam(required = false) String fields) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            List<Bill> bills = billingService.getBillingHistory(accountNumber);
+            FieldSelection selection = FieldSelection.parse(fields, Bill.class);
+            List<Bill> bills = billingService.getBillingHistory(accountNumber, selection);
             response.put("success", true);
-            response.put("bills", bills);
+            response.put("bills", selection.select(bills, objectMapper));
             return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Error retrieving billing history: " + e.getMessage());
@@ -133,14 +161,19 @@ public class BillingController {
     }
 
     @GetMapping("/all")
-    public ResponseEntity<Map<String, Object>> getAllBills() {
+    public ResponseEntity<Map<String, Object>> getAllBills(@RequestParam(required = false) String fields) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            List<Bill> bills = billingService.getAllBills();
+            FieldSelection selection = FieldSelection.parse(fields, Bill.class);
+            List<Bill> bills = billingService.getAllBills(selection);
             response.put("success", true);
-            response.put("bills", bills);
+            response.put("bills", selection.select(bills, objectMapper));
             return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Error retrieving all bills: " + e.getMessage());
@@ -148,6 +181,14 @@ public class BillingController {
         }
     }
 
+    // Accept: application/x-ndjson streams the bills one per line instead of building the list
+    @GetMapping(value = "/all", produces = NdjsonWriter.MEDIA_TYPE)
+    public void streamAllBills(@RequestParam(required = false) String fields,
+                               HttpServletResponse response) throws IOException {
+        FieldSelection selection = FieldSelection.parse(fields, Bill.class);
+        ndjsonWriter.write(billingService.streamAllBills(selection).map(bill -> selection.selectOne(bill, objectMapper)), response);
+    }
+
     @GetMapping("/bill/{billNumber}")
     public ResponseEntity<Map<String, Object>> getBillByBillNumber(@PathVariable String billNumber) {
         Map<String, Object> response = new HashMap<>();
@@ -190,6 +231,15 @@ public class BillingController {
             response.put("message", "Bill status updated successfully");
             
             return ResponseEntity.ok(response);
+        } catch (StatusConflictException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            response.put("currentStatus", e.getCurrentStatus());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", "Error updating bill status: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Error updating bill status: " + e.getMessage());
@@ -230,14 +280,20 @@ public class BillingController {
     }
 
     @GetMapping("/status/{status}")
-    public ResponseEntity<Map<String, Object>> getBillsByStatus(@PathVariable String status) {
+    public ResponseEntity<Map<String, Object>> getBillsByStatus(@PathVariable String status,
+                                                                @RequestParam(required = false) String fields) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            List<Bill> bills = billingService.getBillsByStatus(status);
+            FieldSelection selection = FieldSelection.parse(fields, Bill.class);
+            List<Bill> bills = billingService.getBillsByStatus(status, selection);
             response.put("success", true);
-            response.put("bills", bills);
+            response.put("bills", selection.select(bills, objectMapper));
             return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Error retrieving bills by status: " + e.getMessage());
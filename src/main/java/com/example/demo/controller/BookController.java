@@ -1,9 +1,27 @@
 package com.example.demo.controller;
 import com.example.demo.model.Book;
+import com.example.demo.service.BookImportService;
 import com.example.demo.service.BookService;
+import com.example.demo.service.CatalogVersion;
+import com.example.demo.util.FieldSelection;
+import com.example.demo.util.NdjsonWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -13,9 +31,27 @@ import java.util.HashMap;
 @CrossOrigin(origins = "*")
 public class BookController {
 
+    private static final int MAX_BULK_ITEMS = 50_000;
+
     @Autowired
     private BookService bookService;
 
+    @Autowired
+    private BookImportService bookImportService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private NdjsonWriter ndjsonWriter;
+
+    @Autowired
+    private CatalogVersion catalogVersion;
+
+    // How long browsers and proxies may reuse a catalog response before revalidating it with its ETag
+    @Value("${catalog.cache-max-age-seconds:30}")
+    private long cacheMaxAgeSeconds;
+
     // Get all books with advanced filtering
     @GetMapping
     public ResponseEntity<Map<String, Object>> getAllBooks(
@@ -27,25 +63,67 @@ public class BookController {
             @RequestParam(required = false) String sortBy,
             @RequestParam(required = false) String sortOrder,
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "12") int size) {
+            @RequestParam(defaultValue = "12") int size,
+            @RequestParam(defaultValue = "false") boolean facets,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String fields,
+            ServletWebRequest webRequest) {
         
         Map<String, Object> response = new HashMap<>();
         
+        if (notModified(webRequest, catalogVersion.etag())) {
+            return null;
+        }
+        
         try {
+            // e.g. fields=title,author,price,imageUrl for a grid that never shows the description
+            FieldSelection selection = FieldSelection.parse(fields, Book.class);
+            
+            if (cursor != null) {
+                // Keyset mode: pass an empty cursor for the first page, then each response's nextCursor
+                Map<String, Object> result = bookService.findBooksAfterCursor(
+                    search, category, status, minPrice, maxPrice, sortBy, sortOrder, cursor, size, selection);
+                
+                response.putAll(result);
+                response.put("books", selection.select((List<?>) result.get("books"), objectMapper));
+                response.put("success", true);
+                response.put("pageSize", size);
+                return ResponseEntity.ok().cacheControl(catalogCacheControl()).body(response);
+            }
+            
+            if (facets) {
+                // One $facet aggregation instead of separate page, count, categories and stats calls
+                Map<String, Object> result = bookService.findBooksWithFacets(
+                    search, category, status, minPrice, maxPrice, sortBy, sortOrder, page, size, selection);
+                long totalBooks = (Long) result.get("totalBooks");
+                
+                response.putAll(result);
+                response.put("books", selection.select((List<?>) result.get("books"), objectMapper));
+                response.put("success", true);
+                response.put("currentPage", page);
+                response.put("pageSize", size);
+                response.put("totalPages", (int) Math.ceil((double) totalBooks / size));
+                return ResponseEntity.ok().cacheControl(catalogCacheControl()).body(response);
+            }
+            
             List<Book> books = bookService.findBooksWithFilters(
-                search, category, status, minPrice, maxPrice, sortBy, sortOrder, page, size);
+                search, category, status, minPrice, maxPrice, sortBy, sortOrder, page, size, selection);
             
             long totalBooks = bookService.countBooksWithFilters(
                 search, category, status, minPrice, maxPrice);
             
             response.put("success", true);
-            response.put("books", books);
+            response.put("books", selection.select(books, objectMapper));
             response.put("totalBooks", totalBooks);
             response.put("currentPage", page);
             response.put("pageSize", size);
             response.put("totalPages", (int) Math.ceil((double) totalBooks / size));
             
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok().cacheControl(catalogCacheControl()).body(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Error retrieving books: " + e.getMessage());
@@ -55,17 +133,29 @@ public class BookController {
 
     // Get all books for customer display (no pagination)
     @GetMapping("/all")
-    public ResponseEntity<Map<String, Object>> getAllBooksForCustomer() {
+    public ResponseEntity<Map<String, Object>> getAllBooksForCustomer(@RequestParam(required = false) String fields,
+                                                                      ServletWebRequest webRequest) {
         Map<String, Object> response = new HashMap<>();
         
+        // The NDJSON variant below shares this URL
+        webRequest.getResponse().addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        if (notModified(webRequest, catalogVersion.etag())) {
+            return null;
+        }
+        
         try {
-            List<Book> books = bookService.findAll();
+            FieldSelection selection = FieldSelection.parse(fields, Book.class);
+            List<Book> books = bookService.findAll(selection);
             
             response.put("success", true);
-            response.put("books", books);
+            response.put("books", selection.select(books, objectMapper));
             response.put("totalBooks", books.size());
             
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok().cacheControl(catalogCacheControl()).body(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Error retrieving books: " + e.getMessage());
@@ -73,13 +163,22 @@ public class BookController {
         }
     }
 
+    // Same books as /all for clients sending Accept: application/x-ndjson, one per line straight from a cursor
+    @GetMapping(value = "/all", produces = NdjsonWriter.MEDIA_TYPE)
+    public void streamAllBooksForCustomer(@RequestParam(required = false) String fields,
+                                          HttpServletResponse response) throws IOException {
+        FieldSelection selection = FieldSelection.parse(fields, Book.class);
+        ndjsonWriter.write(bookService.streamAll(selection).map(book -> selection.selectOne(book, objectMapper)), response);
+    }
+
     // Get book statistics
     @GetMapping("/stats")
-    public ResponseEntity<Map<String, Object>> getBookStats() {
+    public ResponseEntity<Map<String, Object>> getBookStats(
+            @RequestParam(defaultValue = "false") boolean byCategory) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            Map<String, Object> stats = bookService.getBookStatistics();
+            Map<String, Object> stats = bookService.getBookStatistics(byCategory);
             response.put("success", true);
             response.put("stats", stats);
             return ResponseEntity.ok(response);
@@ -90,16 +189,39 @@ public class BookController {
         }
     }
 
+    // Typeahead suggestions for titles, authors and categories, most ordered first
+    @GetMapping("/suggest")
+    public ResponseEntity<Map<String, Object>> suggest(
+            @RequestParam(defaultValue = "") String q,
+            @RequestParam(defaultValue = "8") int limit) {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            response.put("success", true);
+            response.put("suggestions", bookService.suggest(q, limit));
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "Error retrieving suggestions: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
     // Get all categories
     @GetMapping("/categories")
-    public ResponseEntity<Map<String, Object>> getAllCategories() {
+    public ResponseEntity<Map<String, Object>> getAllCategories(ServletWebRequest webRequest) {
         Map<String, Object> response = new HashMap<>();
         
+        if (notModified(webRequest, catalogVersion.etag())) {
+            return null;
+        }
+        
         try {
             List<String> categories = bookService.getAllCategories();
             response.put("success", true);
             response.put("categories", categories);
-            return ResponseEntity.ok(response);
+            response.put("categoryCounts", bookService.getCategoryCounts());
+            return ResponseEntity.ok().cacheControl(catalogCacheControl()).body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Error retrieving categories: " + e.getMessage());
@@ -127,15 +249,18 @@ public class BookController {
 
     // Get book by ID
     @GetMapping("/{id}")
-    public ResponseEntity<Map<String, Object>> getBookById(@PathVariable String id) {
+    public ResponseEntity<Map<String, Object>> getBookById(@PathVariable String id, ServletWebRequest webRequest) {
         Map<String, Object> response = new HashMap<>();
         
         try {
             Book book = bookService.findById(id);
             if (book != null) {
+                if (notModified(webRequest, CatalogVersion.etag(book))) {
+                    return null;
+                }
                 response.put("success", true);
                 response.put("book", book);
-                return ResponseEntity.ok(response);
+                return ResponseEntity.ok().cacheControl(catalogCacheControl()).body(response);
             } else {
                 response.put("success", false);
                 response.put("message", "Book not found");
@@ -165,6 +290,10 @@ public class BookController {
                 response.put("message", "Book not found");
                 return ResponseEntity.notFound().build();
             }
+        } catch (IllegalStateException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Error updating book: " + e.getMessage());
@@ -200,6 +329,10 @@ public class BookController {
                 response.put("message", "Book not found");
                 return ResponseEntity.notFound().build();
             }
+        } catch (IllegalStateException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Error updating book details: " + e.getMessage());
@@ -207,6 +340,65 @@ public class BookController {
         }
     }
 
+    // Apply many stock/price changes at once, e.g. a supplier delivery
+    @PutMapping("/bulk")
+    public ResponseEntity<Map<String, Object>> bulkUpdateStock(@RequestBody List<Map<String, Object>> items) {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            if (items.isEmpty() || items.size() > MAX_BULK_ITEMS) {
+                response.put("success", false);
+                response.put("message", "Send between 1 and " + MAX_BULK_ITEMS + " items");
+                return ResponseEntity.badRequest().body(response);
+            }
+            
+            response.putAll(bookService.bulkUpdateStock(items));
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "Error applying bulk update: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
+    // Stream a CSV (with a header row) or NDJSON catalog file in, upserting books by ISBN.
+    // The response is NDJSON too: a progress line per batch, a line per rejected row, then a summary.
+    @PostMapping(value = "/import", consumes = {"text/csv", "application/x-ndjson"})
+    public void importBooks(@RequestParam(defaultValue = "1000") int batchSize,
+                            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        BookImportService.Format format = request.getContentType().startsWith("text/csv")
+            ? BookImportService.Format.CSV
+            : BookImportService.Format.NDJSON;
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+
+        try {
+            Map<String, Object> summary = bookImportService.importBooks(
+                new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8), format, batchSize,
+                line -> writeLine(out, line));
+            summary.put("success", true);
+            writeLine(out, summary);
+        } catch (Exception e) {
+            // Headers are already sent, so the failure is reported as the last line
+            Map<String, Object> failure = new HashMap<>();
+            failure.put("type", "summary");
+            failure.put("success", false);
+            failure.put("message", "Import stopped: " + e.getMessage());
+            writeLine(out, failure);
+        }
+    }
+
+    private void writeLine(PrintWriter out, Map<String, Object> line) {
+        try {
+            out.println(objectMapper.writeValueAsString(line));
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     // Update stock quantity and status
     @PutMapping("/{id}/stock")
     public ResponseEntity<Map<String, Object>> updateStock(@PathVariable String id, @RequestBody Map<String, Object> request) {
@@ -233,6 +425,10 @@ public class BookController {
                 response.put("message", "Book not found");
                 return ResponseEntity.notFound().build();
             }
+        } catch (IllegalStateException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Error updating stock: " + e.getMessage());
@@ -280,4 +476,19 @@ public class BookController {
             return ResponseEntity.internalServerError().body(response);
         }
     }
+
+    // Tags the response with its version and answers 304 when the client's If-None-Match already has it
+    private boolean notModified(ServletWebRequest webRequest, String etag) {
+        if (webRequest.checkNotModified(etag)) {
+            webRequest.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, catalogCacheControl().getHeaderValue());
+            return true;
+        }
+        return false;
+    }
+
+    // Only successful catalog reads are cacheable, errors keep Spring Security's no-store
+    private CacheControl catalogCacheControl() {
+        return CacheControl.maxAge(Duration.ofSeconds(cacheMaxAgeSeconds)).cachePublic();
+    }
+
 }
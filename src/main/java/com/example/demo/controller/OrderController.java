@@ -3,17 +3,29 @@ package com.example.demo.controller;
 import com.example.demo.model.Order;
 import com.example.demo.model.Book;
 import com.example.demo.service.OrderService;
+import com.example.demo.service.OrderBacklogException;
+import com.example.demo.service.OrderIngestion;
 import com.example.demo.service.BookService;
+import com.example.demo.service.OutOfStockException;
+import com.example.demo.service.StatusConflictException;
+import com.example.demo.util.FieldSelection;
+import com.example.demo.util.IdempotentRequests;
+import com.example.demo.util.NdjsonWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.ArrayList;
 
 @RestController
 @RequestMapping("/api/orders")
@@ -25,28 +37,32 @@ public class OrderController {
     @Autowired
     private BookService bookService;
 
+    @Autowired
+    private OrderIngestion orderIngestion;
+
+    @Autowired
+    private IdempotentRequests idempotentRequests;
+
+    @Autowired
+    private NdjsonWriter ndjsonWriter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private static final int MAX_HISTORY_PAGE_SIZE = 100;
+
+    // A retry carrying the same Idempotency-Key gets the first response back instead of a second order
     @PostMapping
-    public ResponseEntity<Map<String, Object>> placeOrder(@RequestBody Order order) {
+    public ResponseEntity<Map<String, Object>> placeOrder(@RequestBody Order order,
+            @RequestHeader(value = IdempotentRequests.HEADER, required = false) String idempotencyKey) {
+        return idempotentRequests.execute("orders", idempotencyKey, order, () -> createOrder(order));
+    }
+
+    private ResponseEntity<Map<String, Object>> createOrder(Order order) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            // Debug: Log the received order data
-            System.out.println("Received order data:");
-            System.out.println("Book ID: " + order.getBookId());
-            System.out.println("Book Title: " + order.getBookTitle());
-            System.out.println("First Name: " + order.getFirstName());
-            System.out.println("Last Name: " + order.getLastName());
-            System.out.println("Customer Name: " + order.getCustomerName());
-            System.out.println("Email: " + order.getEmail());
-            System.out.println("Phone: " + order.getPhone());
-            System.out.println("Quantity: " + order.getQuantity());
-            System.out.println("Payment Method: " + order.getPaymentMethod());
-            System.out.println("Company: " + order.getCompany());
-            System.out.println("Street Address: " + order.getStreetAddress());
-            System.out.println("City: " + order.getCity());
-            System.out.println("Postal Code: " + order.getPostalCode());
-            System.out.println("Country: " + order.getCountry());
-            System.out.println("State: " + order.getState());
+            System.out.println("Received order for book " + order.getBookId() + " from " + order.getEmail());
             
             // Set order metadata
             order.setOrderDate(LocalDateTime.now());
@@ -89,6 +105,16 @@ public class OrderController {
             if (order.getFirstName() == null) order.setFirstName("");
             if (order.getLastName() == null) order.setLastName("");
             
+            // With write-behind ingestion on, the order is accepted once journaled and saved shortly after
+            if (orderIngestion.isEnabled()) {
+                Order acceptedOrder = orderService.submitOrder(order);
+                response.put("success", true);
+                response.put("message", "Order accepted!");
+                response.put("orderId", acceptedOrder.getId());
+                response.put("status", OrderIngestion.QUEUED);
+                return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+            }
+            
             // Save the order
             Order savedOrder = orderService.placeOrder(order);
             
@@ -99,6 +125,19 @@ public class OrderController {
             
             return ResponseEntity.ok(response);
             
+        } catch (OutOfStockException e) {
+            response.put("success", false);
+            response.put("message", "Out of stock: " + e.getMessage());
+            response.put("available", e.getAvailable());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (OrderBacklogException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").body(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", "Failed to place order: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Failed to place order: " + e.getMessage());
@@ -106,63 +145,57 @@ public class OrderController {
         }
     }
 
+    // Newest first. With ?cursor= (empty for the first page) the orders come a page at a time with a nextCursor
     @GetMapping("/email/{email}")
-    public ResponseEntity<List<Map<String, Object>>> getOrdersByEmail(@PathVariable String email) {
+    public ResponseEntity<?> getOrdersByEmail(
+            @PathVariable String email,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        Map<String, Object> response = new HashMap<>();
         try {
-            List<Order> orders = orderService.getOrdersByEmail(email);
-            List<Map<String, Object>> enhancedOrders = new ArrayList<>();
-            
-            for (Order order : orders) {
-                Map<String, Object> enhancedOrder = new HashMap<>();
-                
-                // Add all order fields
-                enhancedOrder.put("id", order.getId());
-                enhancedOrder.put("bookId", order.getBookId());
-                enhancedOrder.put("bookTitle", order.getBookTitle());
-                enhancedOrder.put("firstName", order.getFirstName());
-                enhancedOrder.put("lastName", order.getLastName());
-                enhancedOrder.put("customerName", order.getCustomerName());
-                enhancedOrder.put("email", order.getEmail());
-                enhancedOrder.put("phone", order.getPhone());
-                enhancedOrder.put("quantity", order.getQuantity());
-                enhancedOrder.put("totalPrice", order.getTotalPrice());
-                enhancedOrder.put("paymentMethod", order.getPaymentMethod());
-                enhancedOrder.put("company", order.getCompany());
-                enhancedOrder.put("streetAddress", order.getStreetAddress());
-                enhancedOrder.put("city", order.getCity());
-                enhancedOrder.put("postalCode", order.getPostalCode());
-                enhancedOrder.put("country", order.getCountry());
-                enhancedOrder.put("state", order.getState());
-                enhancedOrder.put("orderDate", order.getOrderDate());
-                enhancedOrder.put("status", order.getStatus());
-                
-                // Add book image URL
-                try {
-                    Book book = bookService.findById(order.getBookId());
-                    enhancedOrder.put("bookImageUrl", book.getImageUrl());
-                } catch (Exception e) {
-                    enhancedOrder.put("bookImageUrl", null);
-                }
-                
-                enhancedOrders.add(enhancedOrder);
+            if (cursor == null) {
+                return ResponseEntity.ok(orderService.getOrderHistory(email, status, from, to));
             }
             
-            return ResponseEntity.ok(enhancedOrders);
+            int pageSize = Math.max(1, Math.min(size, MAX_HISTORY_PAGE_SIZE));
+            response.putAll(orderService.getOrderHistoryPage(email, status, from, to, cursor, pageSize));
+            response.put("success", true);
+            response.put("pageSize", pageSize);
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
     }
 
+    // ?fields=id,customerName,totalPrice,status returns just those fields of each order
     @GetMapping
-    public ResponseEntity<List<Order>> getAllOrders() {
+    public ResponseEntity<List<?>> getAllOrders(@RequestParam(required = false) String fields) {
         try {
-            List<Order> orders = orderService.getAllOrders();
-            return ResponseEntity.ok(orders);
+            FieldSelection selection = FieldSelection.parse(fields, Order.class);
+            List<Order> orders = orderService.getAllOrders(selection);
+            return ResponseEntity.ok(selection.select(orders, objectMapper));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
     }
 
+    // Accept: application/x-ndjson streams the orders one per line instead of building the list
+    @GetMapping(produces = NdjsonWriter.MEDIA_TYPE)
+    public void streamAllOrders(@RequestParam(required = false) String fields,
+                                HttpServletResponse response) throws IOException {
+        FieldSelection selection = FieldSelection.parse(fields, Order.class);
+        ndjsonWriter.write(orderService.streamAllOrders(selection).map(order -> selection.selectOne(order, objectMapper)), response);
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<Optional<Order>> getOrderById(@PathVariable String id) {
         try {
@@ -177,6 +210,26 @@ public class OrderController {
         }
     }
 
+    // QUEUED while the order waits in the write-behind queue, then its stored status
+    @GetMapping("/{id}/status")
+    public ResponseEntity<Map<String, Object>> getOrderStatus(@PathVariable String id) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            String status = orderService.getOrderStatus(id);
+            if (status == null) {
+                return ResponseEntity.notFound().build();
+            }
+            response.put("success", true);
+            response.put("orderId", id);
+            response.put("status", status);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "Failed to get order status: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
     @PutMapping("/{id}/status")
     public ResponseEntity<Map<String, Object>> updateOrderStatus(@PathVariable String id, @RequestBody Map<String, String> request) {
         Map<String, Object> response = new HashMap<>();
@@ -189,7 +242,7 @@ public class OrderController {
                 return ResponseEntity.badRequest().body(response);
             }
             
-            Order updatedOrder = orderService.updateOrderStatus(id, status);
+            Order updatedOrder = orderService.updateOrderStatus(id, status, request.get("expectedStatus"));
             
             response.put("success", true);
             response.put("message", "Order status updated successfully!");
@@ -197,6 +250,15 @@ public class OrderController {
             
             return ResponseEntity.ok(response);
             
+        } catch (StatusConflictException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            response.put("currentStatus", e.getCurrentStatus());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", "Failed to update order status: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Failed to update order status: " + e.getMessage());
@@ -1,11 +1,38 @@
 package com.example.demo.model;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.LocalDateTime;
 
 @Document(collection = "books")
+@CompoundIndexes({
+    // One set per BookSortField: equality filter first, then the sort key and _id as tie-breaker,
+    // so offset and cursor pages are both served in index order (price doubles as the range filter)
+    @CompoundIndex(name = "price_id", def = "{'price': 1, '_id': 1}"),
+    @CompoundIndex(name = "category_price_id", def = "{'category': 1, 'price': 1, '_id': 1}"),
+    @CompoundIndex(name = "status_price_id", def = "{'status': 1, 'price': 1, '_id': 1}"),
+    @CompoundIndex(name = "title_id", def = "{'title': 1, '_id': 1}"),
+    @CompoundIndex(name = "category_title_id", def = "{'category': 1, 'title': 1, '_id': 1}"),
+    @CompoundIndex(name = "status_title_id", def = "{'status': 1, 'title': 1, '_id': 1}"),
+    @CompoundIndex(name = "rating_id", def = "{'rating': 1, '_id': 1}"),
+    @CompoundIndex(name = "category_rating_id", def = "{'category': 1, 'rating': 1, '_id': 1}"),
+    @CompoundIndex(name = "status_rating_id", def = "{'status': 1, 'rating': 1, '_id': 1}"),
+    @CompoundIndex(name = "publishedYear_id", def = "{'publishedYear': 1, '_id': 1}"),
+    @CompoundIndex(name = "category_publishedYear_id", def = "{'category': 1, 'publishedYear': 1, '_id': 1}"),
+    @CompoundIndex(name = "status_publishedYear_id", def = "{'status': 1, 'publishedYear': 1, '_id': 1}"),
+    @CompoundIndex(name = "createdAt_id", def = "{'createdAt': 1, '_id': 1}"),
+    @CompoundIndex(name = "category_createdAt_id", def = "{'category': 1, 'createdAt': 1, '_id': 1}"),
+    @CompoundIndex(name = "status_createdAt_id", def = "{'status': 1, 'createdAt': 1, '_id': 1}"),
+    // Catalog imports key books by ISBN; unique among books that have one, so a raced import cannot insert it twice
+    @CompoundIndex(name = "isbn", def = "{'isbn': 1}", unique = true, sparse = true)
+})
 public class Book {
 
+    // Books with this many copies or fewer are LOW_STOCK
+    public static final int LOW_STOCK_THRESHOLD = 5;
+
     @Id
     private String id;
 
@@ -33,6 +60,12 @@ public class Book {
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
     private boolean archived;
+    // Last flash-sale journal record applied to stockQuantity, see FlashSaleInventory
+    @JsonIgnore
+    private long flashSaleSeq;
+    // Set while FlashSaleInventory holds the stock; stock writes elsewhere only match books without it
+    @JsonIgnore
+    private boolean flashSale;
 
     // Default constructor
     public Book() {
@@ -58,6 +91,32 @@ public class Book {
         this.price = price;
     }
 
+    // Copy constructor, used to snapshot a book before it is modified
+    public Book(Book other) {
+        this.id = other.id;
+        this.title = other.title;
+        this.author = other.author;
+        this.description = other.description;
+        this.imageUrl = other.imageUrl;
+        this.price = other.price;
+        this.category = other.category;
+        this.isbn = other.isbn;
+        this.language = other.language;
+        this.publishedYear = other.publishedYear;
+        this.format = other.format;
+        this.stockQuantity = other.stockQuantity;
+        this.status = other.status;
+        this.rating = other.rating;
+        this.ratingCount = other.ratingCount;
+        this.publisher = other.publisher;
+        this.pages = other.pages;
+        this.createdAt = other.createdAt;
+        this.updatedAt = other.updatedAt;
+        this.archived = other.archived;
+        this.flashSaleSeq = other.flashSaleSeq;
+        this.flashSale = other.flashSale;
+    }
+
     // Getters and setters
 
     public String getId() {
@@ -121,8 +180,9 @@ public class Book {
         return isbn;
     }
 
+    // A blank ISBN is no ISBN, so it is never stored and never clashes in the unique index
     public void setIsbn(String isbn) {
-        this.isbn = isbn;
+        this.isbn = isbn == null || isbn.isBlank() ? null : isbn.trim();
     }
 
     public String getLanguage() {
@@ -156,13 +216,17 @@ public class Book {
     public void setStockQuantity(int stockQuantity) {
         this.stockQuantity = stockQuantity;
         // Update status based on stock quantity
+        this.status = statusForStock(stockQuantity);
+    }
+
+    // Status a book gets for a given stock quantity
+    public static String statusForStock(int stockQuantity) {
         if (stockQuantity <= 0) {
-            this.status = "OUT_OF_STOCK";
-        } else if (stockQuantity <= 5) {
-            this.status = "LOW_STOCK";
-        } else {
-            this.status = "IN_STOCK";
+            return "OUT_OF_STOCK";
+        } else if (stockQuantity <= LOW_STOCK_THRESHOLD) {
+            return "LOW_STOCK";
         }
+        return "IN_STOCK";
     }
 
     public String getStatus() {
@@ -228,4 +292,20 @@ public class Book {
     public void setArchived(boolean archived) {
         this.archived = archived;
     }
-} 
\ No newline at end of file
+
+    public long getFlashSaleSeq() {
+        return flashSaleSeq;
+    }
+
+    public void setFlashSaleSeq(long flashSaleSeq) {
+        this.flashSaleSeq = flashSaleSeq;
+    }
+
+    public boolean isFlashSale() {
+        return flashSale;
+    }
+
+    public void setFlashSale(boolean flashSale) {
+        this.flashSale = flashSale;
+    }
+}
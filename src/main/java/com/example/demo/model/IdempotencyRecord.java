@@ -0,0 +1,46 @@
+package com.example.demo.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+// The response first returned for an Idempotency-Key, replayed to retries until Mongo expires it
+@Document(collection = "idempotency_keys")
+public class IdempotencyRecord {
+    public static final int TTL_SECONDS = 24 * 60 * 60;
+
+    @Id
+    private String id; // scope:key
+    private String requestHash;
+    private int status;
+    private String body;
+    @Indexed(name = "createdAt_ttl", expireAfterSeconds = TTL_SECONDS)
+    private LocalDateTime createdAt;
+
+    public IdempotencyRecord() {}
+
+    public IdempotencyRecord(String id, String requestHash, int status, String body, LocalDateTime createdAt) {
+        this.id = id;
+        this.requestHash = requestHash;
+        this.status = status;
+        this.body = body;
+        this.createdAt = createdAt;
+    }
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getRequestHash() { return requestHash; }
+    public void setRequestHash(String requestHash) { this.requestHash = requestHash; }
+
+    public int getStatus() { return status; }
+    public void setStatus(int status) { this.status = status; }
+
+    public String getBody() { return body; }
+    public void setBody(String body) { this.body = body; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -1,10 +1,24 @@
 package com.example.demo.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.LocalDateTime;
 
 @Document(collection = "orders")
+@CompoundIndexes({
+    // Order history: a customer's orders newest first, optionally of one status, paged by (orderDate, _id)
+    @CompoundIndex(name = "email_orderDate_id", def = "{'email': 1, 'orderDate': -1, '_id': -1}"),
+    @CompoundIndex(name = "email_status_orderDate_id", def = "{'email': 1, 'status': 1, 'orderDate': -1, '_id': -1}"),
+    // Admin order grid: one set per OrderSortField, status and payment method as equality prefixes
+    @CompoundIndex(name = "orderDate_id", def = "{'orderDate': 1, '_id': 1}"),
+    @CompoundIndex(name = "status_orderDate_id", def = "{'status': 1, 'orderDate': 1, '_id': 1}"),
+    @CompoundIndex(name = "paymentMethod_orderDate_id", def = "{'paymentMethod': 1, 'orderDate': 1, '_id': 1}"),
+    @CompoundIndex(name = "totalPrice_id", def = "{'totalPrice': 1, '_id': 1}"),
+    @CompoundIndex(name = "status_totalPrice_id", def = "{'status': 1, 'totalPrice': 1, '_id': 1}")
+})
 public class Order {
     @Id
     private String id;
@@ -34,6 +48,9 @@ public class Order {
     // Order Metadata
     private LocalDateTime orderDate;
     private String status; // e.g., PENDING, COMPLETED, CANCELLED
+    // Copies this order took off the shelf and still holds; orders saved before it was kept hold none
+    @JsonIgnore
+    private int reservedQuantity;
 
     public Order() {}
 
@@ -49,6 +66,30 @@ public class Order {
         this.status = status;
     }
 
+    // Copy constructor, used to snapshot an order before it is modified
+    public Order(Order other) {
+        this.id = other.id;
+        this.bookId = other.bookId;
+        this.bookTitle = other.bookTitle;
+        this.firstName = other.firstName;
+        this.lastName = other.lastName;
+        this.customerName = other.customerName;
+        this.email = other.email;
+        this.phone = other.phone;
+        this.quantity = other.quantity;
+        this.totalPrice = other.totalPrice;
+        this.paymentMethod = other.paymentMethod;
+        this.company = other.company;
+        this.streetAddress = other.streetAddress;
+        this.city = other.city;
+        this.postalCode = other.postalCode;
+        this.country = other.country;
+        this.state = other.state;
+        this.orderDate = other.orderDate;
+        this.status = other.status;
+        this.reservedQuantity = other.reservedQuantity;
+    }
+
     // Getters and Setters
     public String getId() { return id; }
     public void setId(String id) { this.id = id; }
@@ -106,4 +147,7 @@ public class Order {
     
     public String getStatus() { return status; }
     public void setStatus(String status) { this.status = status; }
+    
+    public int getReservedQuantity() { return reservedQuantity; }
+    public void setReservedQuantity(int reservedQuantity) { this.reservedQuantity = reservedQuantity; }
 } 
\ No newline at end of file
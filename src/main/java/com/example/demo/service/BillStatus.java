@@ -0,0 +1,35 @@
+package com.example.demo.service;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Bill lifecycle. A PENDING bill may be SAVED by the billing screen or settled straight away;
+// PAID and FAILED are final.
+public enum BillStatus {
+    PENDING,
+    SAVED,
+    PAID,
+    FAILED;
+
+    public boolean canBecome(BillStatus next) {
+        return switch (this) {
+            case PENDING -> next != PENDING;
+            case SAVED -> next == PAID || next == FAILED;
+            case PAID, FAILED -> false;
+        };
+    }
+
+    // The statuses a bill may be in for an update to this one to apply; setting the current status again is a no-op
+    public List<String> allowedFrom() {
+        return Arrays.stream(values()).filter(status -> status == this || status.canBecome(this)).map(Enum::name).toList();
+    }
+
+    public static BillStatus fromParam(String status) {
+        for (BillStatus billStatus : values()) {
+            if (billStatus.name().equals(status)) {
+                return billStatus;
+            }
+        }
+        throw new IllegalArgumentException("Unknown bill status '" + status + "'. Supported: " + Arrays.toString(values()));
+    }
+}
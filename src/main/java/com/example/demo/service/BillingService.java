@@ -5,13 +5,21 @@ import com.example.demo.model.BillItem;
 import com.example.demo.model.Customer;
 import com.example.demo.repository.BillRepository;
 import com.example.demo.repository.CustomerRepository;
+import com.example.demo.util.FieldSelection;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
 import java.util.Optional;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.stream.Stream;
 
 @Service
 public class BillingService {
@@ -22,6 +30,9 @@ public class BillingService {
     @Autowired
     private CustomerRepository customerRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     // Enhanced bill generation with items, discounts, taxes
     public Bill generateBill(Map<String, Object> billData) {
         try {
@@ -99,10 +110,28 @@ public class BillingService {
         return billRepository.findByAccountNumberOrderByBillDateDesc(accountNumber);
     }
 
+    public List<Bill> getBillingHistory(String accountNumber, FieldSelection fields) {
+        if (fields.isAll()) {
+            return getBillingHistory(accountNumber);
+        }
+        Query query = new Query(Criteria.where("accountNumber").is(accountNumber)).with(Sort.by(Sort.Direction.DESC, "billDate"));
+        return mongoTemplate.find(fields.applyTo(query), Bill.class);
+    }
+
     public List<Bill> getAllBills() {
         return billRepository.findAll();
     }
 
+    // Only the selected fields are read, e.g. a bills table without the items
+    public List<Bill> getAllBills(FieldSelection fields) {
+        return fields.isAll() ? getAllBills() : mongoTemplate.find(fields.applyTo(new Query()), Bill.class);
+    }
+
+    // Cursor over every bill, read in batches as the caller consumes it; close when done
+    public Stream<Bill> streamAllBills(FieldSelection fields) {
+        return mongoTemplate.stream(fields.applyTo(new Query().cursorBatchSize(500)), Bill.class);
+    }
+
     public Optional<Bill> getBillById(String id) {
         return billRepository.findById(id);
     }
@@ -112,23 +141,29 @@ public class BillingService {
     }
 
     public Bill updateBillStatus(String id, String status) {
-        Optional<Bill> billOpt = billRepository.findById(id);
-        if (billOpt.isPresent()) {
-            Bill bill = billOpt.get();
-            bill.setStatus(status);
-            return billRepository.save(bill);
-        }
-        throw new RuntimeException("Bill not found with id: " + id);
+        return transitionBill("id", id, status);
     }
 
     public Bill updateBillStatusByBillNumber(String billNumber, String status) {
-        Optional<Bill> billOpt = billRepository.findByBillNumber(billNumber);
-        if (billOpt.isPresent()) {
-            Bill bill = billOpt.get();
-            bill.setStatus(status);
-            return billRepository.save(bill);
+        return transitionBill("billNumber", billNumber, status);
+    }
+
+    // One findAndModify that only matches while the bill is in a status it may move from (see BillStatus),
+    // so a concurrent change makes this one fail with StatusConflictException rather than be overwritten
+    private Bill transitionBill(String field, String value, String status) {
+        BillStatus next = BillStatus.fromParam(status);
+        Query query = new Query(Criteria.where(field).is(value).and("status").in(next.allowedFrom()));
+        Bill bill = mongoTemplate.findAndModify(query, new Update().set("status", next.name()),
+            FindAndModifyOptions.options().returnNew(true), Bill.class);
+        if (bill == null) {
+            String label = "id".equals(field) ? "id" : "bill number";
+            Bill current = mongoTemplate.findOne(new Query(Criteria.where(field).is(value)), Bill.class);
+            if (current == null) {
+                throw new RuntimeException("Bill not found with " + label + ": " + value);
+            }
+            throw new StatusConflictException("Bill " + value, current.getStatus(), next.name());
         }
-        throw new RuntimeException("Bill not found with bill number: " + billNumber);
+        return bill;
     }
 
     public void deleteBill(String id) {
@@ -146,6 +181,13 @@ public class BillingService {
         return billRepository.findByStatus(status);
     }
 
+    public List<Bill> getBillsByStatus(String status, FieldSelection fields) {
+        if (fields.isAll()) {
+            return getBillsByStatus(status);
+        }
+        return mongoTemplate.find(fields.applyTo(new Query(Criteria.where("status").is(status))), Bill.class);
+    }
+
     public List<Bill> searchBills(String searchTerm) {
         // This would need to be implemented in BillRepository
         // For now, return all bills and filter in service
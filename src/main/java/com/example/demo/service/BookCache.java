@@ -0,0 +1,396 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded read-through cache of books by id, in front of BookService.findById.
+ *
+ * Eviction is W-TinyLFU: new books enter a small LRU window (1% of the capacity); a book pushed
+ * out of the window only gets into the main segmented LRU if a count-min sketch says it has been
+ * asked for more often than the book it would evict. One-off lookups (a crawler, an old order)
+ * therefore cannot flush the books the storefront keeps reading. Entries also expire after a TTL,
+ * and every BookChangeEvent drops its book, so a hit never returns data older than the last write
+ * made through BookService.
+ *
+ * Lookups are a ConcurrentHashMap read; the queues and sketch sit behind one lock that reads only
+ * try to take, so under contention some recency updates are skipped rather than waited for.
+ */
+@Component
+public class BookCache {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    @Value("${book-cache.maximum-size:10000}")
+    private int maximumSize;
+
+    @Value("${book-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    // Replaced in tests to move time forward
+    LongSupplier ticker = System::nanoTime;
+
+    private final Map<String, Node> data = new ConcurrentHashMap<>();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    // Guarded by policyLock
+    private final Queue[] queues = {new Queue(), new Queue(), new Queue()};
+    private FrequencySketch sketch;
+    private int windowMax;
+    private int protectedMax;
+    private int mainMax;
+    private long ttlNanos;
+    // Bumped by every invalidation, so a load that raced with a write is not cached
+    private volatile long writeStamp;
+
+    @PostConstruct
+    public void init() {
+        configure(maximumSize, TimeUnit.SECONDS.toNanos(ttlSeconds));
+    }
+
+    void configure(int maximumSize, long ttlNanos) {
+        policyLock.lock();
+        try {
+            this.maximumSize = Math.max(2, maximumSize);
+            this.ttlNanos = ttlNanos;
+            windowMax = Math.max(1, this.maximumSize / 100);
+            mainMax = this.maximumSize - windowMax;
+            protectedMax = Math.max(1, mainMax * 4 / 5);
+            sketch = new FrequencySketch(this.maximumSize);
+            clear();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * The cached book, or the loader's result (cached unless null). The caller gets its own copy
+     * and may change it freely.
+     */
+    public Book get(String id, Function<String, Book> loader) {
+        Node node = data.get(id);
+        if (node != null) {
+            if (ticker.getAsLong() - node.expiresAt < 0) {
+                hits.increment();
+                recordAccess(node);
+                return new Book(node.book);
+            }
+            expire(node);
+        }
+        misses.increment();
+        long stamp = writeStamp;
+        Book book = loader.apply(id);
+        if (book != null) {
+            put(id, book, stamp);
+        }
+        return book;
+    }
+
+    /**
+     * Like get, for many ids at once: every id that is not cached goes to the loader in one call,
+     * so a batch costs at most one query. Ids the loader finds no book for are left out.
+     */
+    public Map<String, Book> getAll(Collection<String> ids, Function<Set<String>, Map<String, Book>> loader) {
+        Map<String, Book> books = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String id : ids) {
+            if (id == null || books.containsKey(id) || missing.contains(id)) {
+                continue;
+            }
+            Node node = data.get(id);
+            if (node != null) {
+                if (ticker.getAsLong() - node.expiresAt < 0) {
+                    hits.increment();
+                    recordAccess(node);
+                    books.put(id, new Book(node.book));
+                    continue;
+                }
+                expire(node);
+            }
+            missing.add(id);
+        }
+        if (!missing.isEmpty()) {
+            misses.add(missing.size());
+            long stamp = writeStamp;
+            for (Map.Entry<String, Book> loaded : loader.apply(missing).entrySet()) {
+                put(loaded.getKey(), loaded.getValue(), stamp);
+                books.put(loaded.getKey(), loaded.getValue());
+            }
+        }
+        return books;
+    }
+
+    @EventListener
+    public void onBookChanged(BookChangeEvent event) {
+        invalidate(event.getBookId());
+    }
+
+    public void invalidate(String id) {
+        policyLock.lock();
+        try {
+            writeStamp++;
+            Node node = data.remove(id);
+            if (node != null) {
+                queues[node.queue].remove(node);
+                invalidations.increment();
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        policyLock.lock();
+        try {
+            writeStamp++;
+            invalidations.add(data.size());
+            clear();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        long hitCount = hits.sum();
+        long requests = hitCount + misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", data.size());
+        stats.put("maximumSize", maximumSize);
+        stats.put("ttlSeconds", TimeUnit.NANOSECONDS.toSeconds(ttlNanos));
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.sum());
+        stats.put("hitRate", requests == 0 ? 0.0 : (double) hitCount / requests);
+        stats.put("evictions", evictions.sum());
+        stats.put("expirations", expirations.sum());
+        stats.put("invalidations", invalidations.sum());
+        return stats;
+    }
+
+    boolean contains(String id) {
+        return data.containsKey(id);
+    }
+
+    private void put(String id, Book book, long stamp) {
+        policyLock.lock();
+        try {
+            if (writeStamp != stamp) {
+                // A write landed while this was loading; what was read may already be stale
+                return;
+            }
+            Node existing = data.get(id);
+            if (existing != null) {
+                queues[existing.queue].remove(existing);
+            }
+            Node node = new Node(id, new Book(book), ticker.getAsLong() + ttlNanos);
+            data.put(id, node);
+            sketch.increment(id);
+            queues[WINDOW].addLast(node);
+            evict();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    // Move window overflow into probation, then let the sketch pick who leaves when main is full
+    private void evict() {
+        while (queues[WINDOW].size > windowMax) {
+            Node candidate = queues[WINDOW].first();
+            queues[WINDOW].remove(candidate);
+            candidate.queue = PROBATION;
+            queues[PROBATION].addLast(candidate);
+
+            if (queues[PROBATION].size + queues[PROTECTED].size > mainMax) {
+                Node victim = queues[PROBATION].first();
+                if (victim != candidate && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                    victim = candidate;
+                }
+                queues[PROBATION].remove(victim);
+                data.remove(victim.key, victim);
+                evictions.increment();
+            }
+        }
+    }
+
+    private void recordAccess(Node node) {
+        if (!policyLock.tryLock()) {
+            return;
+        }
+        try {
+            if (data.get(node.key) != node) {
+                return;
+            }
+            sketch.increment(node.key);
+            if (node.queue == PROBATION) {
+                // A second hit promotes it; protected overflow is demoted back to probation
+                queues[PROBATION].remove(node);
+                node.queue = PROTECTED;
+                queues[PROTECTED].addLast(node);
+                while (queues[PROTECTED].size > protectedMax) {
+                    Node demoted = queues[PROTECTED].first();
+                    queues[PROTECTED].remove(demoted);
+                    demoted.queue = PROBATION;
+                    queues[PROBATION].addLast(demoted);
+                }
+            } else {
+                queues[node.queue].remove(node);
+                queues[node.queue].addLast(node);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private void expire(Node node) {
+        policyLock.lock();
+        try {
+            if (data.remove(node.key, node)) {
+                queues[node.queue].remove(node);
+                expirations.increment();
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private void clear() {
+        data.clear();
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new Queue();
+        }
+    }
+
+    private static final class Node {
+        final String key;
+        final Book book;
+        final long expiresAt;
+        int queue = WINDOW;
+        Node prev;
+        Node next;
+
+        Node(String key, Book book, long expiresAt) {
+            this.key = key;
+            this.book = book;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // Doubly linked LRU list, least recent first
+    private static final class Queue {
+        final Node head = new Node(null, null, 0);
+        int size;
+
+        Queue() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        Node first() {
+            return head.next != head ? head.next : null;
+        }
+
+        void addLast(Node node) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            size++;
+        }
+
+        void remove(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, four per key, sixteen to a long. Once it has seen ten
+     * times the cache size in increments every counter is halved, so popularity fades with time.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int size = Integer.highestOneBit(Math.max(2, maximumSize) - 1) << 1;
+            table = new long[size];
+            mask = size - 1;
+            sampleSize = 10 * maximumSize;
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                frequency = Math.min(frequency, (int) ((table[indexOf(hash, i)] >>> offsetOf(hash, i)) & 0xF));
+            }
+            return frequency;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = offsetOf(hash, i);
+                if (((table[index] >>> offset) & 0xF) != 0xF) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+
+        private static int offsetOf(int hash, int i) {
+            return ((hash >>> (i << 3)) & 0xF) << 2;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
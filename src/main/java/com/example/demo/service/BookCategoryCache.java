@@ -0,0 +1,124 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Book counts per listed (not archived) category, loaded once with a $group aggregation and then
+ * kept current from BookChangeEvents, so GET /api/books/categories is answered from memory.
+ */
+@Component
+public class BookCategoryCache {
+
+    private static final int LOAD_ATTEMPTS = 3;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final TreeMap<String, Long> counts = new TreeMap<>();
+    private boolean loaded;
+    // Bumped by every change, so a load that raced with writes is retried instead of kept
+    private long version;
+    // Immutable copy handed to readers; replaced on every change
+    private volatile Map<String, Long> snapshot;
+
+    public List<String> getCategories() {
+        return new ArrayList<>(getCategoryCounts().keySet());
+    }
+
+    public Map<String, Long> getCategoryCounts() {
+        Map<String, Long> current = snapshot;
+        if (current == null) {
+            current = load(this::aggregate);
+        }
+        return current;
+    }
+
+    public synchronized void invalidate() {
+        version++;
+        loaded = false;
+        snapshot = null;
+    }
+
+    @EventListener
+    public synchronized void onBookChanged(BookChangeEvent event) {
+        String before = listedCategory(event.getBefore());
+        String after = listedCategory(event.getAfter());
+        if (Objects.equals(before, after)) {
+            return;
+        }
+        version++;
+        if (!loaded) {
+            return;
+        }
+        if (before != null) {
+            counts.computeIfPresent(before, (category, count) -> count > 1 ? count - 1 : null);
+        }
+        if (after != null) {
+            counts.merge(after, 1L, Long::sum);
+        }
+        snapshot = Collections.unmodifiableMap(new TreeMap<>(counts));
+    }
+
+    // The category a book is listed under; null for a missing or archived book
+    private static String listedCategory(Book book) {
+        return book != null && !book.isArchived() ? book.getCategory() : null;
+    }
+
+    /**
+     * Counts with {@code aggregate}, outside the lock, and keeps the result only if no change
+     * event arrived meanwhile; such an event may or may not be in the count. If writes keep
+     * landing, the last count is answered without being kept, and the next call loads again.
+     */
+    Map<String, Long> load(Supplier<Map<String, Long>> aggregate) {
+        Map<String, Long> fresh = null;
+        for (int attempt = 0; attempt < LOAD_ATTEMPTS; attempt++) {
+            long seen;
+            synchronized (this) {
+                if (loaded) {
+                    return snapshot;
+                }
+                seen = version;
+            }
+            fresh = aggregate.get();
+            synchronized (this) {
+                if (loaded) {
+                    return snapshot;
+                }
+                if (version == seen) {
+                    counts.clear();
+                    counts.putAll(fresh);
+                    loaded = true;
+                    snapshot = Collections.unmodifiableMap(new TreeMap<>(counts));
+                    return snapshot;
+                }
+            }
+        }
+        return Collections.unmodifiableMap(new TreeMap<>(fresh));
+    }
+
+    private Map<String, Long> aggregate() {
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.match(Criteria.where("category").ne(null).and("archived").ne(true)),
+            Aggregation.group("category").count().as("count"));
+        Map<String, Long> fresh = new TreeMap<>();
+        for (Document doc : mongoTemplate.aggregate(aggregation, Book.class, Document.class)) {
+            fresh.put(doc.getString("_id"), ((Number) doc.get("count")).longValue());
+        }
+        return fresh;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+
+// Published by BookService after every write so in-memory views of the catalog stay in sync
+public class BookChangeEvent {
+
+    private final Book before; // null when the book was created
+    private final Book after;  // null when the book was deleted
+
+    public BookChangeEvent(Book before, Book after) {
+        this.before = before;
+        this.after = after;
+    }
+
+    public Book getBefore() {
+        return before;
+    }
+
+    public Book getAfter() {
+        return after;
+    }
+
+    public String getBookId() {
+        return after != null ? after.getId() : before.getId();
+    }
+
+    public boolean isDelete() {
+        return after == null;
+    }
+}
@@ -0,0 +1,483 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Streams a CSV or NDJSON catalog file into the books collection.
+ *
+ * Rows are read one line at a time and collected into batches; each batch is one read of the
+ * books already carrying its ISBNs plus one unordered bulkWrite: inserts for new ISBNs and upserts
+ * keyed by ISBN for the rest. Only a batch is ever held in memory, so a 1M row file needs no more heap than a 1k row one. Progress
+ * and row errors are handed to a listener as they happen.
+ */
+@Service
+public class BookImportService {
+
+    public enum Format { CSV, NDJSON }
+
+    static final int MAX_BATCH_SIZE = 10_000;
+    private static final int DUPLICATE_KEY = 11000;
+    private static final int MAX_REPORTED_ERRORS = 1_000;
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    // Importable columns, by lower-case name without '_' or spaces
+    private static final Map<String, String> FIELDS = new HashMap<>();
+    static {
+        for (String field : List.of("isbn", "title", "author", "description", "imageUrl", "price", "category",
+                "language", "publishedYear", "format", "stockQuantity", "status", "rating", "ratingCount",
+                "publisher", "pages")) {
+            FIELDS.put(field.toLowerCase(Locale.ROOT), field);
+        }
+    }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private FlashSaleInventory flashSaleInventory;
+
+    @Autowired
+    private InventorySummary inventorySummary;
+
+    /**
+     * Imports every row of {@code body}. The listener receives a "progress" line after every batch
+     * and an "error" line per rejected row (the first thousand); the returned summary has the totals.
+     */
+    public Map<String, Object> importBooks(Reader body, Format format, int batchSize,
+                                           Consumer<Map<String, Object>> listener) throws IOException {
+        Counters counters = new Counters(listener);
+        int size = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+        long start = System.nanoTime();
+        BufferedReader reader = new BufferedReader(body);
+        List<Row> batch = new ArrayList<>(size);
+        Set<String> batchIsbns = new HashSet<>();
+        List<String> header = null;
+
+        String line;
+        long lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            Map<String, Object> values;
+            long rowLine = lineNumber;
+            try {
+                if (format == Format.CSV) {
+                    if (header != null) {
+                        counters.processed++;
+                    }
+                    List<String> cells = parseCsv(line);
+                    // A quoted cell may span lines
+                    while (cells == null) {
+                        String next = reader.readLine();
+                        if (next == null || line.length() > MAX_RECORD_LENGTH) {
+                            throw new IllegalArgumentException("Unterminated quoted field");
+                        }
+                        lineNumber++;
+                        line = line + "\n" + next;
+                        cells = parseCsv(line);
+                    }
+                    if (header == null) {
+                        header = readHeader(cells, listener);
+                        continue;
+                    }
+                    values = new HashMap<>();
+                    for (int i = 0; i < header.size() && i < cells.size(); i++) {
+                        if (header.get(i) != null && !cells.get(i).isBlank()) {
+                            values.put(header.get(i), cells.get(i).trim());
+                        }
+                    }
+                } else {
+                    counters.processed++;
+                    values = parseJson(line);
+                }
+                Row row = Row.of(rowLine, values);
+                if (!batchIsbns.add(row.isbn)) {
+                    // The same ISBN twice in one unordered batch could insert it twice
+                    flush(batch, counters);
+                    batch.clear();
+                    batchIsbns.clear();
+                    batchIsbns.add(row.isbn);
+                }
+                batch.add(row);
+            } catch (IllegalArgumentException e) {
+                if (header == null && format == Format.CSV) {
+                    throw e;
+                }
+                counters.error(rowLine, null, e.getMessage());
+            }
+            if (batch.size() == size) {
+                flush(batch, counters);
+                batch.clear();
+                batchIsbns.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            flush(batch, counters);
+        }
+
+        Map<String, Object> summary = counters.toMap("summary");
+        summary.put("elapsedMs", (System.nanoTime() - start) / 1_000_000);
+        return summary;
+    }
+
+    private void flush(List<Row> batch, Counters counters) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<String, Book> existing = new HashMap<>();
+        List<String> isbns = batch.stream().map(row -> row.isbn).toList();
+        for (Book book : mongoTemplate.find(new Query(Criteria.where("isbn").in(isbns)), Book.class)) {
+            existing.putIfAbsent(book.getIsbn(), book);
+        }
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Book.class);
+        List<Row> queued = new ArrayList<>(batch.size());
+        List<BookChangeEvent> events = new ArrayList<>(batch.size());
+        LocalDateTime now = LocalDateTime.now();
+        for (Row row : batch) {
+            Book before = existing.get(row.isbn);
+            Book after = before != null ? new Book(before) : new Book();
+            try {
+                if (before != null && (before.isFlashSale() || flashSaleInventory.isOnSale(before.getId()))) {
+                    // Its stock is held in memory until the sale ends, where an upsert cannot reach it
+                    throw new IllegalArgumentException("Book is on flash sale; end the sale before importing it");
+                }
+                if (before == null && (row.values.get("title") == null || row.values.get("author") == null)) {
+                    throw new IllegalArgumentException("New books need a title and an author");
+                }
+                apply(after, row.values);
+            } catch (IllegalArgumentException e) {
+                counters.error(row.line, row.isbn, e.getMessage());
+                continue;
+            }
+            after.setIsbn(row.isbn);
+            after.setUpdatedAt(now);
+            if (before == null) {
+                // A plain insert, so a book another writer added since the read fails on the unique
+                // isbn index instead of being updated without anyone hearing about it
+                after.setId(new ObjectId().toHexString());
+                after.setCreatedAt(now);
+                bulk.insert(after);
+            } else {
+                // A sale that started since the read flagged the book, so the upsert cannot match it
+                // and fails on the unique isbn index instead of overwriting the stock the sale holds
+                bulk.upsert(byIsbn(row.isbn).addCriteria(Criteria.where(FlashSaleInventory.FLAG_FIELD).ne(true)),
+                    upsertOf(after, row.values.keySet()));
+            }
+            queued.add(row);
+            events.add(new BookChangeEvent(before, after));
+        }
+        if (queued.isEmpty()) {
+            counters.progress();
+            return;
+        }
+
+        inventorySummary.write(() -> {
+            Set<Integer> failed = new HashSet<>();
+            Set<Integer> raced = new HashSet<>();
+            try {
+                bulk.execute();
+            } catch (BulkOperationException e) {
+                for (BulkWriteError error : e.getErrors()) {
+                    if (error.getCode() == DUPLICATE_KEY && events.get(error.getIndex()).getBefore() == null) {
+                        raced.add(error.getIndex());
+                        continue;
+                    }
+                    failed.add(error.getIndex());
+                    counters.error(queued.get(error.getIndex()).line, queued.get(error.getIndex()).isbn, error.getMessage());
+                }
+            }
+            for (int i = 0; i < queued.size(); i++) {
+                if (failed.contains(i)) {
+                    continue;
+                }
+                if (raced.contains(i)) {
+                    applyToWinner(queued.get(i), now, counters);
+                    continue;
+                }
+                BookChangeEvent event = events.get(i);
+                if (event.getBefore() == null) {
+                    counters.inserted++;
+                } else {
+                    counters.updated++;
+                }
+                eventPublisher.publishEvent(event);
+            }
+            return null;
+        });
+        counters.progress();
+    }
+
+    // Another writer inserted the ISBN after the batch was read: update the book that won instead,
+    // reading it back with the same findAndModify so its event has the real before state
+    private void applyToWinner(Row row, LocalDateTime now, Counters counters) {
+        Book after = new Book();
+        apply(after, row.values);
+        after.setIsbn(row.isbn);
+        after.setUpdatedAt(now);
+        Book before = mongoTemplate.findAndModify(byIsbn(row.isbn), upsertOf(after, row.values.keySet()), Book.class);
+        if (before == null) {
+            counters.error(row.line, row.isbn, "Book was removed while it was being imported");
+            return;
+        }
+        after = new Book(before);
+        apply(after, row.values);
+        after.setUpdatedAt(now);
+        counters.updated++;
+        eventPublisher.publishEvent(new BookChangeEvent(before, after));
+    }
+
+    private static Query byIsbn(String isbn) {
+        return new Query(Criteria.where("isbn").is(isbn));
+    }
+
+    // $set what the row supplied and $setOnInsert the defaults of a new book for everything else
+    private Update upsertOf(Book after, Set<String> supplied) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(after, document);
+        Set<String> set = new HashSet<>(supplied);
+        set.add("updatedAt");
+        if (supplied.contains("stockQuantity")) {
+            set.add("status");
+        }
+        Update update = new Update();
+        for (Map.Entry<String, Object> field : document.entrySet()) {
+            String key = field.getKey();
+            if (key.equals("_id") || key.equals("isbn")) {
+                continue;
+            }
+            if (set.contains(key)) {
+                update.set(key, field.getValue());
+            } else {
+                update.setOnInsert(key, field.getValue());
+            }
+        }
+        return update;
+    }
+
+    // Copy the supplied columns onto the book, converting and validating each one
+    static void apply(Book book, Map<String, Object> values) {
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            switch (entry.getKey()) {
+                case "title" -> book.setTitle(text(value));
+                case "author" -> book.setAuthor(text(value));
+                case "description" -> book.setDescription(text(value));
+                case "imageUrl" -> book.setImageUrl(text(value));
+                case "category" -> book.setCategory(text(value));
+                case "language" -> book.setLanguage(text(value));
+                case "format" -> book.setFormat(text(value));
+                case "publisher" -> book.setPublisher(text(value));
+                case "price" -> book.setPrice(number(entry.getKey(), value, 0));
+                case "rating" -> book.setRating(number(entry.getKey(), value, 0));
+                case "publishedYear" -> book.setPublishedYear((int) whole(entry.getKey(), value));
+                case "ratingCount" -> book.setRatingCount((int) whole(entry.getKey(), value));
+                case "pages" -> book.setPages((int) whole(entry.getKey(), value));
+                case "stockQuantity" -> book.setStockQuantity((int) whole(entry.getKey(), value));
+                default -> {
+                }
+            }
+        }
+        // An explicit status wins over the one derived from stockQuantity
+        if (values.get("status") != null) {
+            book.setStatus(text(values.get("status")));
+        }
+    }
+
+    private static String text(Object value) {
+        return value.toString().trim();
+    }
+
+    private static double number(String field, Object value, double min) {
+        double number;
+        try {
+            number = value instanceof Number n ? n.doubleValue() : Double.parseDouble(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(field + " must be a number");
+        }
+        if (Double.isNaN(number) || number < min) {
+            throw new IllegalArgumentException(field + " cannot be negative");
+        }
+        return number;
+    }
+
+    private static long whole(String field, Object value) {
+        double number = number(field, value, 0);
+        if (number != Math.rint(number) || number > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(field + " must be a whole number");
+        }
+        return (long) number;
+    }
+
+    private Map<String, Object> parseJson(String line) {
+        Map<?, ?> json;
+        try {
+            json = objectMapper.readValue(line, Map.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getOriginalMessage());
+        }
+        Map<String, Object> values = new HashMap<>();
+        json.forEach((key, value) -> {
+            String field = FIELDS.get(normalize(String.valueOf(key)));
+            if (field != null && value != null && !(value instanceof String s && s.isBlank())) {
+                values.put(field, value);
+            }
+        });
+        return values;
+    }
+
+    private static List<String> readHeader(List<String> cells, Consumer<Map<String, Object>> listener) {
+        List<String> header = new ArrayList<>(cells.size());
+        for (String cell : cells) {
+            String field = FIELDS.get(normalize(cell));
+            if (field == null) {
+                Map<String, Object> warning = new LinkedHashMap<>();
+                warning.put("type", "warning");
+                warning.put("message", "Ignoring unknown column '" + cell.trim() + "'");
+                listener.accept(warning);
+            }
+            header.add(field);
+        }
+        if (!header.contains("isbn")) {
+            throw new IllegalArgumentException("CSV header needs an isbn column");
+        }
+        return header;
+    }
+
+    private static String normalize(String name) {
+        return name.trim().replace("_", "").replace(" ", "").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Splits one CSV record (RFC 4180: quoted cells, "" as an escaped quote).
+     * Returns null if the record ends inside a quoted cell and continues on the next line.
+     */
+    static List<String> parseCsv(String record) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    cell.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else if (c != '\r') {
+                cell.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+
+    private static final class Row {
+        final long line;
+        final String isbn;
+        final Map<String, Object> values;
+
+        private Row(long line, String isbn, Map<String, Object> values) {
+            this.line = line;
+            this.isbn = isbn;
+            this.values = values;
+        }
+
+        static Row of(long line, Map<String, Object> values) {
+            Object isbn = values.remove("isbn");
+            if (isbn == null || isbn.toString().isBlank()) {
+                throw new IllegalArgumentException("isbn is required");
+            }
+            // Catch conversion errors while the row is read rather than when its batch is written
+            apply(new Book(), values);
+            return new Row(line, isbn.toString().trim(), values);
+        }
+    }
+
+    private static final class Counters {
+        final Consumer<Map<String, Object>> listener;
+        long processed;
+        long inserted;
+        long updated;
+        long failed;
+
+        Counters(Consumer<Map<String, Object>> listener) {
+            this.listener = listener;
+        }
+
+        void error(long line, String isbn, String message) {
+            failed++;
+            if (failed <= MAX_REPORTED_ERRORS) {
+                Map<String, Object> error = new LinkedHashMap<>();
+                error.put("type", "error");
+                error.put("line", line);
+                if (isbn != null) {
+                    error.put("isbn", isbn);
+                }
+                error.put("message", message);
+                listener.accept(error);
+            }
+        }
+
+        void progress() {
+            listener.accept(toMap("progress"));
+        }
+
+        Map<String, Object> toMap(String type) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("type", type);
+            map.put("processed", processed);
+            map.put("inserted", inserted);
+            map.put("updated", updated);
+            map.put("failed", failed);
+            return map;
+        }
+    }
+}
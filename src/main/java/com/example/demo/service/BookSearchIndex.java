@@ -0,0 +1,641 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import com.example.demo.repository.BookRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * In-memory inverted index over book title, author, isbn and publisher.
+ *
+ * Every book gets an int ordinal and each token maps to a primitive posting list of
+ * (ordinal << 2 | field) entries in ascending ordinal order. Updates tombstone the old
+ * ordinal and append a new one; dead entries are compacted away once they outnumber live ones.
+ * Archived books are not indexed, so they drop out of search like a soft delete.
+ *
+ * A query walks the posting lists of each term's prefix matches merged in ordinal order, so no
+ * hit is ever sorted, and intersects the terms on the fly. Each book also keeps the fields the
+ * catalog filters and sorts on ({@link Listing}), so BookService can filter, order, page and count
+ * search results here and only read the books of the requested page from Mongo. Only the best
+ * offset + size hits are held while scanning.
+ */
+@Component
+public class BookSearchIndex {
+
+    static final int TITLE = 0;
+    static final int AUTHOR = 1;
+    static final int ISBN = 2;
+    static final int PUBLISHER = 3;
+
+    // Relevance weight per field; an exact token match scores double a prefix match
+    private static final float[] FIELD_WEIGHTS = {3f, 2f, 4f, 1f};
+    private static final float PREFIX_FACTOR = 0.5f;
+    private static final int MIN_DEAD_FOR_COMPACTION = 1024;
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, IntList> postings = new TreeMap<>();
+    private final Map<String, Integer> ordinalsById = new HashMap<>();
+    private final BitSet live = new BitSet();
+    private String[] idsByOrdinal = new String[1024];
+    private Listing[] listingsByOrdinal = new Listing[1024];
+    private int nextOrdinal;
+    private int deadOrdinals;
+    private volatile boolean ready;
+    // Events seen while a rebuild is reading the books; null when none is running. Guarded by lock.
+    private List<BookChangeEvent> pending;
+
+    /**
+     * Reloads every book. The read runs outside the lock, so changes published meanwhile are
+     * applied to the old index as usual and also queued, then replayed on top of what was read
+     * before the new index is swapped in; otherwise the reload would wipe them out.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        rebuild(bookRepository::findAll);
+    }
+
+    synchronized void rebuild(Supplier<List<Book>> loader) {
+        setPending(new ArrayList<>());
+        List<Book> books;
+        try {
+            books = loader.get();
+        } catch (RuntimeException e) {
+            setPending(null);
+            throw e;
+        }
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            ordinalsById.clear();
+            live.clear();
+            idsByOrdinal = new String[Math.max(1024, books.size())];
+            listingsByOrdinal = new Listing[idsByOrdinal.length];
+            nextOrdinal = 0;
+            deadOrdinals = 0;
+            for (Book book : books) {
+                add(book);
+            }
+            for (BookChangeEvent event : pending) {
+                apply(event);
+            }
+            pending = null;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void setPending(List<BookChangeEvent> events) {
+        lock.writeLock().lock();
+        try {
+            pending = events;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @EventListener
+    public void onBookChanged(BookChangeEvent event) {
+        lock.writeLock().lock();
+        try {
+            if (pending != null) {
+                pending.add(event);
+            }
+            apply(event);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Called holding the write lock
+    private void apply(BookChangeEvent event) {
+        if (event.isDelete()) {
+            tombstone(event.getBookId());
+        } else if (!sameIndexedFields(event.getBefore(), event.getAfter())) {
+            tombstone(event.getAfter().getId());
+            add(event.getAfter());
+        } else {
+            Integer ordinal = ordinalsById.get(event.getAfter().getId());
+            if (ordinal != null) {
+                listingsByOrdinal[ordinal] = Listing.of(event.getAfter());
+            }
+        }
+        compactIfNeeded();
+    }
+
+    // Stock and price updates leave the postings untouched and only refresh the listing
+    private static boolean sameIndexedFields(Book before, Book after) {
+        return before != null
+            && before.isArchived() == after.isArchived()
+            && Objects.equals(before.getTitle(), after.getTitle())
+            && Objects.equals(before.getAuthor(), after.getAuthor())
+            && Objects.equals(before.getIsbn(), after.getIsbn())
+            && Objects.equals(before.getPublisher(), after.getPublisher());
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void put(Book book) {
+        lock.writeLock().lock();
+        try {
+            tombstone(book.getId());
+            add(book);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            tombstone(id);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of up to {@code limit} books matching every token of the query, best first.
+     * Each query token matches index tokens it is a prefix of.
+     */
+    public List<String> search(String query, int limit) {
+        return findPage(query, null, null, null, null, null, null, 0, limit);
+    }
+
+    /**
+     * Ids of one page of the books matching every token of {@code search} and the given filters,
+     * in {@code order} (see {@link #order}) or best match first when that is null. With {@code after}
+     * set, only books coming after it in {@code order} are considered, for keyset pagination.
+     */
+    public List<String> findPage(String search, String category, String status, Double minPrice, Double maxPrice,
+                                 Comparator<Listing> order, Listing after, long offset, int size) {
+        Set<String> terms = tokenize(search);
+        long wanted = offset + size;
+        if (terms.isEmpty() || size <= 0 || wanted > Integer.MAX_VALUE) {
+            return new ArrayList<>();
+        }
+        lock.readLock().lock();
+        try {
+            TopHits top = new TopHits((int) wanted, order);
+            forEachHit(terms, (ordinal, score) -> {
+                Listing listing = listingsByOrdinal[ordinal];
+                if (listing.matches(category, status, minPrice, maxPrice)
+                    && (after == null || order.compare(listing, after) > 0)) {
+                    top.offer(ordinal, score);
+                }
+            });
+            return top.ids((int) offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long count(String search, String category, String status, Double minPrice, Double maxPrice) {
+        long[] count = {0};
+        forEachMatch(search, category, status, minPrice, maxPrice, listing -> count[0]++);
+        return count[0];
+    }
+
+    // Every book matching the search and the filters, in no particular order; e.g. for facet counts
+    public void forEachMatch(String search, String category, String status, Double minPrice, Double maxPrice,
+                             Consumer<Listing> action) {
+        Set<String> terms = tokenize(search);
+        if (terms.isEmpty()) {
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            forEachHit(terms, (ordinal, score) -> {
+                Listing listing = listingsByOrdinal[ordinal];
+                if (listing.matches(category, status, minPrice, maxPrice)) {
+                    action.accept(listing);
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The catalog order on {@code field}, ties broken on id like the {field, _id} indexes; by id
+     * alone when {@code field} is null. Descending reverses both, as Mongo does.
+     */
+    public static Comparator<Listing> order(BookSortField field, boolean descending) {
+        Comparator<Listing> order = field == null ? Comparator.comparing(Listing::id) : switch (field) {
+            case PRICE -> Comparator.comparingDouble(Listing::price);
+            case TITLE -> Comparator.comparing(Listing::title, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+            case RATING -> Comparator.comparingDouble(Listing::rating);
+            case PUBLISHED_YEAR -> Comparator.comparingInt(Listing::publishedYear);
+            case CREATED_AT -> Comparator.comparingLong(Listing::createdAt);
+        };
+        if (field != null) {
+            order = order.thenComparing(Listing::id);
+        }
+        return descending ? order.reversed() : order;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ordinalsById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The fields of a book the catalog filters and sorts on, as the index keeps them for each live
+     * book; createdAt is in epoch milliseconds (UTC), or Long.MIN_VALUE when missing.
+     */
+    public record Listing(String id, String title, String category, String status, double price,
+                          double rating, int publishedYear, long createdAt) {
+
+        public static Listing of(Book book) {
+            return new Listing(book.getId(), book.getTitle(), book.getCategory(), book.getStatus(), book.getPrice(),
+                book.getRating(), book.getPublishedYear(),
+                book.getCreatedAt() != null ? book.getCreatedAt().toInstant(ZoneOffset.UTC).toEpochMilli() : Long.MIN_VALUE);
+        }
+
+        // The same filters BookService applies in Mongo; empty strings and nulls do not filter
+        boolean matches(String category, String status, Double minPrice, Double maxPrice) {
+            return (category == null || category.isEmpty() || category.equals(this.category))
+                && (status == null || status.isEmpty() || status.equals(this.status))
+                && (minPrice == null || price >= minPrice)
+                && (maxPrice == null || price <= maxPrice);
+        }
+    }
+
+    private interface HitVisitor {
+        void visit(int ordinal, float score);
+    }
+
+    // Calls the visitor for every live book matching all terms, in ascending ordinal order, with its summed score
+    private void forEachHit(Set<String> terms, HitVisitor visitor) {
+        TermCursor[] cursors = new TermCursor[terms.size()];
+        int n = 0;
+        for (String term : terms) {
+            TermCursor cursor = new TermCursor(term);
+            if (!cursor.next()) {
+                return;
+            }
+            cursors[n++] = cursor;
+        }
+        // The first term leads; any term that has to skip past it moves the leader up to where it landed
+        next:
+        while (true) {
+            int target = cursors[0].ordinal;
+            for (int i = 1; i < n; i++) {
+                if (!cursors[i].advanceTo(target)) {
+                    return;
+                }
+                if (cursors[i].ordinal > target) {
+                    if (!cursors[0].advanceTo(cursors[i].ordinal)) {
+                        return;
+                    }
+                    continue next;
+                }
+            }
+            float score = 0;
+            for (TermCursor cursor : cursors) {
+                score += cursor.score;
+            }
+            visitor.visit(target, score);
+            if (!cursors[0].next()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Live books matching one query term, in ascending ordinal order with their best score. The
+     * posting lists of every token the term is a prefix of are already sorted, so they are merged
+     * through a small heap of list positions instead of being collected and sorted.
+     */
+    private final class TermCursor {
+        private final IntList[] lists;
+        private final float[] factors;
+        private final int[] positions;
+        // Indexes of the lists not used up yet, by the ordinal at their position
+        private final int[] heap;
+        private int heapSize;
+        int ordinal = -1;
+        float score;
+
+        TermCursor(String term) {
+            SortedMap<String, IntList> matching = postings.subMap(term, true, term + Character.MAX_VALUE, true);
+            lists = new IntList[matching.size()];
+            factors = new float[lists.length];
+            positions = new int[lists.length];
+            heap = new int[lists.length];
+            int i = 0;
+            for (Map.Entry<String, IntList> entry : matching.entrySet()) {
+                lists[i] = entry.getValue();
+                factors[i] = entry.getKey().length() == term.length() ? 1f : PREFIX_FACTOR;
+                if (lists[i].size > 0) {
+                    heap[heapSize++] = i;
+                }
+                i++;
+            }
+            for (int k = heapSize / 2 - 1; k >= 0; k--) {
+                siftDown(k);
+            }
+        }
+
+        // Moves to the next live book; false once there is none
+        boolean next() {
+            while (heapSize > 0) {
+                int current = head(heap[0]);
+                float best = 0;
+                // Take every posting of this book, from every list and field
+                while (heapSize > 0 && head(heap[0]) == current) {
+                    int list = heap[0];
+                    best = Math.max(best, FIELD_WEIGHTS[lists[list].values[positions[list]] & 3] * factors[list]);
+                    if (++positions[list] == lists[list].size) {
+                        heap[0] = heap[--heapSize];
+                    }
+                    siftDown(0);
+                }
+                if (live.get(current)) {
+                    ordinal = current;
+                    score = best;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean advanceTo(int target) {
+            while (ordinal < target) {
+                if (!next()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int head(int list) {
+            return lists[list].values[positions[list]] >>> 2;
+        }
+
+        private void siftDown(int index) {
+            if (heapSize == 0) {
+                return;
+            }
+            int list = heap[index];
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && head(heap[child + 1]) < head(heap[child])) {
+                    child++;
+                }
+                if (head(heap[child]) >= head(list)) {
+                    break;
+                }
+                heap[index] = heap[child];
+                index = child;
+            }
+            heap[index] = list;
+        }
+    }
+
+    /**
+     * The best hits seen so far, at most {@code capacity} of them, in a heap with the worst on top;
+     * best means first in the given order, or highest score and then oldest book without one.
+     */
+    private final class TopHits {
+        private final Comparator<Listing> order;
+        private final int[] ordinals;
+        private final float[] scores;
+        private int size;
+
+        TopHits(int capacity, Comparator<Listing> order) {
+            this.order = order;
+            int bound = Math.min(capacity, ordinalsById.size());
+            this.ordinals = new int[bound];
+            this.scores = new float[bound];
+        }
+
+        void offer(int ordinal, float score) {
+            if (size < ordinals.length) {
+                ordinals[size] = ordinal;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (size > 0 && compare(ordinal, score, ordinals[0], scores[0]) < 0) {
+                ordinals[0] = ordinal;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        // Ids of the kept hits, best first, from the given position on
+        List<String> ids(int from) {
+            Integer[] kept = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                kept[i] = i;
+            }
+            Arrays.sort(kept, (a, b) -> compare(ordinals[a], scores[a], ordinals[b], scores[b]));
+            List<String> ids = new ArrayList<>(Math.max(0, size - from));
+            for (int i = from; i < size; i++) {
+                ids.add(idsByOrdinal[ordinals[kept[i]]]);
+            }
+            return ids;
+        }
+
+        // Negative when the first hit is the better one
+        private int compare(int ordinal, float score, int otherOrdinal, float otherScore) {
+            if (order != null) {
+                return order.compare(listingsByOrdinal[ordinal], listingsByOrdinal[otherOrdinal]);
+            }
+            int result = Float.compare(otherScore, score);
+            return result != 0 ? result : Integer.compare(ordinal, otherOrdinal);
+        }
+
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (compare(ordinals[index], scores[index], ordinals[parent], scores[parent]) <= 0) {
+                    break;
+                }
+                swap(index, parent);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int index) {
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && compare(ordinals[child + 1], scores[child + 1], ordinals[child], scores[child]) > 0) {
+                    child++;
+                }
+                if (compare(ordinals[child], scores[child], ordinals[index], scores[index]) <= 0) {
+                    break;
+                }
+                swap(index, child);
+                index = child;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int ordinal = ordinals[a];
+            ordinals[a] = ordinals[b];
+            ordinals[b] = ordinal;
+            float score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+
+    private void add(Book book) {
+        if (book.getId() == null || book.isArchived()) {
+            return;
+        }
+        int ordinal = nextOrdinal++;
+        if (ordinal == idsByOrdinal.length) {
+            idsByOrdinal = Arrays.copyOf(idsByOrdinal, ordinal * 2);
+            listingsByOrdinal = Arrays.copyOf(listingsByOrdinal, ordinal * 2);
+        }
+        idsByOrdinal[ordinal] = book.getId();
+        listingsByOrdinal[ordinal] = Listing.of(book);
+        ordinalsById.put(book.getId(), ordinal);
+        live.set(ordinal);
+
+        index(ordinal, TITLE, book.getTitle());
+        index(ordinal, AUTHOR, book.getAuthor());
+        index(ordinal, ISBN, book.getIsbn());
+        index(ordinal, PUBLISHER, book.getPublisher());
+        if (book.getIsbn() != null) {
+            // Also index the bare digits so "9780743273565" finds "978-0743273565"
+            String digits = book.getIsbn().replaceAll("[^0-9Xx]", "").toLowerCase(Locale.ROOT);
+            if (!digits.isEmpty()) {
+                addPosting(digits, ordinal << 2 | ISBN);
+            }
+        }
+    }
+
+    private void index(int ordinal, int field, String text) {
+        for (String token : tokenize(text)) {
+            addPosting(token, ordinal << 2 | field);
+        }
+    }
+
+    private void addPosting(String token, int posting) {
+        IntList list = postings.computeIfAbsent(token, k -> new IntList());
+        // Ordinals only grow, so appending keeps the list sorted; skip a repeat from the same field
+        if (list.size == 0 || list.values[list.size - 1] != posting) {
+            list.add(posting);
+        }
+    }
+
+    private void tombstone(String id) {
+        Integer ordinal = ordinalsById.remove(id);
+        if (ordinal != null) {
+            live.clear(ordinal);
+            idsByOrdinal[ordinal] = null;
+            listingsByOrdinal[ordinal] = null;
+            deadOrdinals++;
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (deadOrdinals < MIN_DEAD_FOR_COMPACTION || deadOrdinals < ordinalsById.size()) {
+            return;
+        }
+        // Renumber live books densely; the mapping is monotonic so posting lists stay sorted
+        int[] remap = new int[nextOrdinal];
+        String[] ids = new String[Math.max(1024, ordinalsById.size() * 2)];
+        Listing[] listings = new Listing[ids.length];
+        int next = 0;
+        for (int ordinal = live.nextSetBit(0); ordinal >= 0; ordinal = live.nextSetBit(ordinal + 1)) {
+            remap[ordinal] = next;
+            ids[next] = idsByOrdinal[ordinal];
+            listings[next] = listingsByOrdinal[ordinal];
+            ordinalsById.put(ids[next], next);
+            next++;
+        }
+        Iterator<IntList> lists = postings.values().iterator();
+        while (lists.hasNext()) {
+            IntList list = lists.next();
+            int kept = 0;
+            for (int i = 0; i < list.size; i++) {
+                int ordinal = list.values[i] >>> 2;
+                if (live.get(ordinal)) {
+                    list.values[kept++] = remap[ordinal] << 2 | (list.values[i] & 3);
+                }
+            }
+            list.size = kept;
+            if (kept == 0) {
+                lists.remove();
+            }
+        }
+        live.clear();
+        live.set(0, next);
+        idsByOrdinal = ids;
+        listingsByOrdinal = listings;
+        nextOrdinal = next;
+        deadOrdinals = 0;
+    }
+
+    static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null) {
+            return tokens;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
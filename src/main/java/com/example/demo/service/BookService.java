@@ -2,125 +2,492 @@ package com.example.demo.service;
 
 import com.example.demo.model.Book;
 import com.example.demo.repository.BookRepository;
+import com.example.demo.util.FieldSelection;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 @Service
 public class BookService {
     @Autowired
     private BookRepository bookRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private BookSearchIndex searchIndex;
+
+    @Autowired
+    private BookSuggestionIndex suggestionIndex;
+
+    @Autowired
+    private BookCategoryCache categoryCache;
+
+    @Autowired
+    private InventorySummary inventorySummary;
+
+    @Autowired
+    private FlashSaleInventory flashSaleInventory;
+
+    @Autowired
+    private BookCache bookCache;
+
+    @Autowired
+    private ColumnarCatalog columnarCatalog;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    // Lower bounds (LKR) of the price range facet; anything above the last one falls into the open bucket
+    private static final Integer[] PRICE_BUCKET_BOUNDARIES = {0, 500, 1000, 2000, 5000};
+
     // Find books with advanced filtering
     public List<Book> findBooksWithFilters(String search, String category, String status, 
                                          Double minPrice, Double maxPrice, String sortBy, 
                                          String sortOrder, int page, int size) {
+        return findBooksWithFilters(search, category, status, minPrice, maxPrice, sortBy, sortOrder, page, size,
+            FieldSelection.ALL);
+    }
+
+    // Same, reading only the selected fields
+    public List<Book> findBooksWithFilters(String search, String category, String status,
+                                         Double minPrice, Double maxPrice, String sortBy,
+                                         String sortOrder, int page, int size, FieldSelection fields) {
         
-        // Create sort object
-        Sort sort = Sort.unsorted();
-        if (sortBy != null && !sortBy.isEmpty()) {
-            if ("desc".equalsIgnoreCase(sortOrder)) {
-                sort = Sort.by(Sort.Direction.DESC, sortBy);
-            } else {
-                sort = Sort.by(Sort.Direction.ASC, sortBy);
-            }
+        // The search index or the columnar catalog picks the page in memory; Mongo only reads the books on it
+        if (isIndexedSearch(search)) {
+            return findInOrder(findSearchPage(search, category, status, minPrice, maxPrice, sortBy, sortOrder,
+                (long) page * size, size), fields);
+        }
+        if (canUseColumnarCatalog(search)) {
+            List<String> pageIds = columnarCatalog.findPage(category, status, minPrice, maxPrice,
+                BookSortField.fromParam(sortBy), "desc".equalsIgnoreCase(sortOrder), page, size);
+            return findInOrder(pageIds, fields);
         }
         
+        Sort sort = buildSort(sortBy, sortOrder);
+        
         // Create pageable object
         Pageable pageable = PageRequest.of(page, size, sort);
         
-        // Build query based on filters
-        if (search != null && !search.isEmpty()) {
-            return bookRepository.findByTitleContainingIgnoreCaseOrAuthorContainingIgnoreCase(
-                search, search, pageable).getContent();
+        Query query = new Query(buildFilterCriteria(search, category, status, minPrice, maxPrice)).with(pageable);
+        return mongoTemplate.find(fields.applyTo(query), Book.class);
+    }
+
+    // Count books with filters
+    public long countBooksWithFilters(String search, String category, String status, 
+                                    Double minPrice, Double maxPrice) {
+        if (isIndexedSearch(search)) {
+            return searchIndex.count(search, category, status, minPrice, maxPrice);
+        }
+        if (canUseColumnarCatalog(search)) {
+            return columnarCatalog.count(category, status, minPrice, maxPrice);
+        }
+        return mongoTemplate.count(
+            new Query(buildFilterCriteria(search, category, status, minPrice, maxPrice)), Book.class);
+    }
+
+    // Keyset pagination: the cursor carries the last sort value and _id, so every page is an index range scan
+    public Map<String, Object> findBooksAfterCursor(String search, String category, String status,
+                                                    Double minPrice, Double maxPrice, String sortBy,
+                                                    String sortOrder, String cursor, int size) {
+        return findBooksAfterCursor(search, category, status, minPrice, maxPrice, sortBy, sortOrder, cursor, size,
+            FieldSelection.ALL);
+    }
+
+    // Same, reading only the selected fields (plus the sort key the next cursor is built from)
+    public Map<String, Object> findBooksAfterCursor(String search, String category, String status,
+                                                    Double minPrice, Double maxPrice, String sortBy,
+                                                    String sortOrder, String cursor, int size,
+                                                    FieldSelection fields) {
+        BookSortField sortField = BookSortField.fromParam(sortBy);
+        String field = sortField != null ? sortField.getField() : null;
+        int direction = "desc".equalsIgnoreCase(sortOrder) ? -1 : 1;
+        Document position = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            // The cursor's own sort wins so a page can never be read with a different ordering
+            position = decodeCursor(cursor);
+            sortField = BookSortField.fromParam(position.getString("s"));
+            field = sortField != null ? sortField.getField() : null;
+            direction = position.getInteger("d");
         }
         
-        if (category != null && !category.isEmpty()) {
-            return bookRepository.findByCategory(category, pageable).getContent();
+        if (isIndexedSearch(search)) {
+            return findSearchPageAfter(search, category, status, minPrice, maxPrice, sortField, direction,
+                position, size, fields);
         }
         
-        if (status != null && !status.isEmpty()) {
-            return bookRepository.findByStatus(status, pageable).getContent();
+        Criteria criteria = buildFilterCriteria(search, category, status, minPrice, maxPrice);
+        if (position != null) {
+            criteria = new Criteria().andOperator(criteria,
+                afterPosition(field, direction, position.get("v"), position.get("id")));
         }
         
-        if (minPrice != null && maxPrice != null) {
-            return bookRepository.findByPriceBetween(minPrice, maxPrice, pageable).getContent();
+        Sort.Direction sortDirection = direction < 0 ? Sort.Direction.DESC : Sort.Direction.ASC;
+        Sort sort = field != null
+            ? Sort.by(sortDirection, field).and(Sort.by(sortDirection, "_id"))
+            : Sort.by(sortDirection, "_id");
+        
+        // Read one extra book to learn whether another page follows
+        Query query = new Query(criteria).with(sort).limit(size + 1);
+        fields.applyTo(query, field != null ? new String[] {field} : new String[0]);
+        return cursorPage(new ArrayList<>(mongoTemplate.find(query, Book.class)), field, direction, size);
+    }
+
+    // Search hits after the cursor position, picked by the search index in the cursor's order
+    private Map<String, Object> findSearchPageAfter(String search, String category, String status,
+                                                    Double minPrice, Double maxPrice, BookSortField sortField,
+                                                    int direction, Document position, int size,
+                                                    FieldSelection fields) {
+        String field = sortField != null ? sortField.getField() : null;
+        BookSearchIndex.Listing after = null;
+        if (position != null) {
+            // Read back the way stored books are, so the position compares like them
+            Document stored = new Document("_id", position.get("id"));
+            if (field != null) {
+                stored.append(field, position.get("v"));
+            }
+            after = BookSearchIndex.Listing.of(mongoTemplate.getConverter().read(Book.class, stored));
+        }
+        // One extra hit to learn whether another page follows
+        List<String> pageIds = searchIndex.findPage(search, category, status, minPrice, maxPrice,
+            BookSearchIndex.order(sortField, direction < 0), after, 0, size + 1);
+        return cursorPage(findInOrder(pageIds, fields, field != null ? new String[] {field} : new String[0]),
+            field, direction, size);
+    }
+
+    // Up to size books, read one past it, with the cursor to the next page if there is one
+    private Map<String, Object> cursorPage(List<Book> books, String field, int direction, int size) {
+        String nextCursor = null;
+        if (books.size() > size) {
+            books = new ArrayList<>(books.subList(0, size));
+            nextCursor = encodeCursor(books.get(size - 1), field, direction);
         }
         
-        // Return all books if no filters
-        return bookRepository.findAll(pageable).getContent();
+        Map<String, Object> result = new HashMap<>();
+        result.put("books", books);
+        result.put("nextCursor", nextCursor);
+        return result;
     }
 
-    // Count books with filters
-    public long countBooksWithFilters(String search, String category, String status, 
-                                    Double minPrice, Double maxPrice) {
+    private Criteria afterPosition(String field, int direction, Object value, Object id) {
+        if (field == null) {
+            return direction < 0 ? Criteria.where("_id").lt(id) : Criteria.where("_id").gt(id);
+        }
+        if (direction < 0) {
+            return new Criteria().orOperator(
+                Criteria.where(field).lt(value),
+                Criteria.where(field).is(value).and("_id").lt(id));
+        }
+        return new Criteria().orOperator(
+            Criteria.where(field).gt(value),
+            Criteria.where(field).is(value).and("_id").gt(id));
+    }
+
+    private String encodeCursor(Book last, String field, int direction) {
+        // Write the book the way Mongo stores it so the cursor holds BSON-typed values (dates, ObjectIds)
+        Document stored = new Document();
+        mongoTemplate.getConverter().write(last, stored);
+        Document position = new Document("s", field)
+            .append("d", direction)
+            .append("v", field != null ? stored.get(field) : null)
+            .append("id", stored.get("_id"));
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString(position.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Document decodeCursor(String cursor) {
+        try {
+            Document position = Document.parse(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+            if (position.get("id") == null || !(position.get("d") instanceof Integer)) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return position;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+
+    // Searches are filtered, ordered and counted by the search index once it has loaded; until then
+    // they stay on Mongo's regex fallback
+    private boolean isIndexedSearch(String search) {
+        return search != null && !search.isEmpty() && searchIndex.isReady();
+    }
+
+    private boolean canUseColumnarCatalog(String search) {
+        return columnarCatalog.isReady() && (search == null || search.isEmpty());
+    }
+
+    // Ids of one page of search hits; without a sort they come in relevance order
+    private List<String> findSearchPage(String search, String category, String status, Double minPrice,
+                                        Double maxPrice, String sortBy, String sortOrder, long offset, int size) {
+        BookSortField sortField = BookSortField.fromParam(sortBy);
+        return searchIndex.findPage(search, category, status, minPrice, maxPrice,
+            sortField != null ? BookSearchIndex.order(sortField, "desc".equalsIgnoreCase(sortOrder)) : null,
+            null, offset, size);
+    }
+
+    // Read the given books in one query and return them in the order of the ids
+    private List<Book> findInOrder(List<String> pageIds, FieldSelection fields, String... alsoRead) {
+        Map<String, Book> booksById = new HashMap<>();
+        Query query = fields.applyTo(new Query(Criteria.where("id").in(pageIds)), alsoRead);
+        for (Book book : mongoTemplate.find(query, Book.class)) {
+            booksById.put(book.getId(), book);
+        }
+        List<Book> books = new ArrayList<>();
+        for (String id : pageIds) {
+            Book book = booksById.get(id);
+            if (book != null) {
+                books.add(book);
+            }
+        }
+        return books;
+    }
+
+    // Page of books, total match count and sidebar facets in a single $facet round trip
+    public Map<String, Object> findBooksWithFacets(String search, String category, String status,
+                                                   Double minPrice, Double maxPrice, String sortBy,
+                                                   String sortOrder, int page, int size) {
+        return findBooksWithFacets(search, category, status, minPrice, maxPrice, sortBy, sortOrder, page, size,
+            FieldSelection.ALL);
+    }
+
+    // Same, with the page of books reduced to the selected fields
+    public Map<String, Object> findBooksWithFacets(String search, String category, String status,
+                                                   Double minPrice, Double maxPrice, String sortBy,
+                                                   String sortOrder, int page, int size, FieldSelection fields) {
+        if (isIndexedSearch(search)) {
+            return findSearchPageWithFacets(search, category, status, minPrice, maxPrice, sortBy, sortOrder,
+                page, size, fields);
+        }
         
-        if (search != null && !search.isEmpty()) {
-            return bookRepository.countByTitleContainingIgnoreCaseOrAuthorContainingIgnoreCase(search, search);
+        List<AggregationOperation> pageStages = new ArrayList<>();
+        Sort sort = buildSort(sortBy, sortOrder);
+        if (sort.isSorted()) {
+            pageStages.add(Aggregation.sort(sort));
+        }
+        pageStages.add(Aggregation.skip((long) page * size));
+        pageStages.add(Aggregation.limit(size));
+        if (!fields.isAll()) {
+            pageStages.add(Aggregation.project(fields.fields()));
         }
         
-        if (category != null && !category.isEmpty()) {
-            return bookRepository.countByCategory(category);
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.match(buildFilterCriteria(search, category, status, minPrice, maxPrice)),
+            Aggregation.facet(pageStages.toArray(new AggregationOperation[0])).as("books")
+                .and(Aggregation.count().as("total")).as("total")
+                .and(Aggregation.sortByCount("category")).as("categories")
+                .and(Aggregation.sortByCount("status")).as("statuses")
+                .and(Aggregation.bucket("price")
+                    .withBoundaries((Object[]) PRICE_BUCKET_BOUNDARIES)
+                    .withDefaultBucket("other")
+                    .andOutputCount().as("count")).as("priceRanges"));
+        
+        Document result = mongoTemplate.aggregate(aggregation, Book.class, Document.class).getUniqueMappedResult();
+        
+        List<Book> books = new ArrayList<>();
+        for (Document doc : result.getList("books", Document.class)) {
+            books.add(mongoTemplate.getConverter().read(Book.class, doc));
         }
         
-        if (status != null && !status.isEmpty()) {
-            return bookRepository.countByStatus(status);
+        List<Document> total = result.getList("total", Document.class);
+        long totalBooks = total.isEmpty() ? 0 : ((Number) total.get(0).get("total")).longValue();
+        
+        Map<String, Long> categories = new LinkedHashMap<>();
+        for (Document doc : result.getList("categories", Document.class)) {
+            String name = doc.getString("_id");
+            categories.put(name != null ? name : "Uncategorized", ((Number) doc.get("count")).longValue());
+        }
+        
+        Map<String, Long> statuses = new LinkedHashMap<>();
+        for (Document doc : result.getList("statuses", Document.class)) {
+            statuses.put(doc.getString("_id"), ((Number) doc.get("count")).longValue());
         }
         
-        if (minPrice != null && maxPrice != null) {
-            return bookRepository.countByPriceBetween(minPrice, maxPrice);
+        List<Map<String, Object>> priceRanges = new ArrayList<>();
+        for (Document doc : result.getList("priceRanges", Document.class)) {
+            Object lowerBound = doc.get("_id");
+            int index = lowerBound instanceof Number
+                ? Arrays.asList(PRICE_BUCKET_BOUNDARIES).indexOf(((Number) lowerBound).intValue())
+                : PRICE_BUCKET_BOUNDARIES.length - 1;
+            priceRanges.add(priceRange(index, ((Number) doc.get("count")).longValue()));
         }
         
-        return bookRepository.count();
+        return facetEnvelope(books, totalBooks, categories, statuses, priceRanges);
+    }
+
+    // The same envelope for a search, worked out by the search index; Mongo only reads the page's books
+    private Map<String, Object> findSearchPageWithFacets(String search, String category, String status,
+                                                         Double minPrice, Double maxPrice, String sortBy,
+                                                         String sortOrder, int page, int size,
+                                                         FieldSelection fields) {
+        List<Book> books = findInOrder(findSearchPage(search, category, status, minPrice, maxPrice, sortBy,
+            sortOrder, (long) page * size, size), fields);
+        
+        long[] totalBooks = {0};
+        Map<String, Long> categoryCounts = new HashMap<>();
+        Map<String, Long> statusCounts = new HashMap<>();
+        // One count per bucket, the last one for prices outside every bucket
+        long[] bucketCounts = new long[PRICE_BUCKET_BOUNDARIES.length];
+        searchIndex.forEachMatch(search, category, status, minPrice, maxPrice, listing -> {
+            totalBooks[0]++;
+            categoryCounts.merge(listing.category() != null ? listing.category() : "Uncategorized", 1L, Long::sum);
+            statusCounts.merge(listing.status(), 1L, Long::sum);
+            bucketCounts[priceBucket(listing.price())]++;
+        });
+        
+        List<Map<String, Object>> priceRanges = new ArrayList<>();
+        for (int i = 0; i < bucketCounts.length; i++) {
+            if (bucketCounts[i] > 0) {
+                priceRanges.add(priceRange(i, bucketCounts[i]));
+            }
+        }
+        return facetEnvelope(books, totalBooks[0], byCountDescending(categoryCounts), byCountDescending(statusCounts),
+            priceRanges);
+    }
+
+    // Index of the price bucket a price falls into, as Mongo's $bucket assigns it
+    private static int priceBucket(double price) {
+        for (int i = 0; i < PRICE_BUCKET_BOUNDARIES.length - 1; i++) {
+            if (price >= PRICE_BUCKET_BOUNDARIES[i] && price < PRICE_BUCKET_BOUNDARIES[i + 1]) {
+                return i;
+            }
+        }
+        return PRICE_BUCKET_BOUNDARIES.length - 1;
     }
 
-    // Get book statistics
-    public Map<String, Object> getBookStatistics() {
-        Map<String, Object> stats = new HashMap<>();
+    // One entry of the price range facet; the last index is the open bucket above the last boundary
+    private static Map<String, Object> priceRange(int index, long count) {
+        Map<String, Object> range = new LinkedHashMap<>();
+        range.put("min", PRICE_BUCKET_BOUNDARIES[index]);
+        range.put("max", index < PRICE_BUCKET_BOUNDARIES.length - 1 ? PRICE_BUCKET_BOUNDARIES[index + 1] : null);
+        range.put("count", count);
+        return range;
+    }
+
+    // Largest first, like $sortByCount
+    private static Map<String, Long> byCountDescending(Map<String, Long> counts) {
+        Map<String, Long> sorted = new LinkedHashMap<>();
+        counts.entrySet().stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+            .forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+        return sorted;
+    }
+
+    private static Map<String, Object> facetEnvelope(List<Book> books, long totalBooks, Map<String, Long> categories,
+                                                     Map<String, Long> statuses, List<Map<String, Object>> priceRanges) {
+        Map<String, Object> facets = new HashMap<>();
+        facets.put("categories", categories);
+        facets.put("statuses", statuses);
+        facets.put("priceRanges", priceRanges);
         
-        long totalBooks = bookRepository.count();
-        long inStockBooks = bookRepository.countByStatus("IN_STOCK");
-        long outOfStockBooks = bookRepository.countByStatus("OUT_OF_STOCK");
-        long lowStockBooks = bookRepository.countByStatus("LOW_STOCK");
+        Map<String, Object> envelope = new HashMap<>();
+        envelope.put("books", books);
+        envelope.put("totalBooks", totalBooks);
+        envelope.put("facets", facets);
+        return envelope;
+    }
+
+    private Sort buildSort(String sortBy, String sortOrder) {
+        BookSortField sortField = BookSortField.fromParam(sortBy);
+        if (sortField == null) {
+            return Sort.unsorted();
+        }
+        Sort.Direction direction = "desc".equalsIgnoreCase(sortOrder) ? Sort.Direction.DESC : Sort.Direction.ASC;
+        // _id breaks ties so the order is deterministic and matches the {field, _id} indexes
+        return Sort.by(direction, sortField.getField()).and(Sort.by(direction, "_id"));
+    }
+
+    // Combine every supplied filter into one criteria so the compound indexes on books can serve it
+    private Criteria buildFilterCriteria(String search, String category, String status,
+                                         Double minPrice, Double maxPrice) {
+        Criteria criteria = new Criteria();
         
-        // Calculate total stock quantities
-        List<Book> allBooks = bookRepository.findByArchivedFalse();
-        int inStockQuantity = allBooks.stream()
-                .filter(book -> "IN_STOCK".equals(book.getStatus()))
-                .mapToInt(Book::getStockQuantity)
-                .sum();
-        int lowStockQuantity = allBooks.stream()
-                .filter(book -> "LOW_STOCK".equals(book.getStatus()))
-                .mapToInt(Book::getStockQuantity)
-                .sum();
-        int outOfStockQuantity = allBooks.stream()
-                .filter(book -> "OUT_OF_STOCK".equals(book.getStatus()))
-                .mapToInt(Book::getStockQuantity)
-                .sum();
+        if (category != null && !category.isEmpty()) {
+            criteria.and("category").is(category);
+        }
         
-        stats.put("totalBooks", totalBooks);
-        stats.put("inStockBooks", inStockBooks);
-        stats.put("outOfStockBooks", outOfStockBooks);
-        stats.put("lowStockBooks", lowStockBooks);
-        stats.put("inStockQuantity", inStockQuantity);
-        stats.put("lowStockQuantity", lowStockQuantity);
-        stats.put("outOfStockQuantity", outOfStockQuantity);
+        if (status != null && !status.isEmpty()) {
+            criteria.and("status").is(status);
+        }
         
-        return stats;
+        if (minPrice != null || maxPrice != null) {
+            Criteria price = criteria.and("price");
+            if (minPrice != null) {
+                price.gte(minPrice);
+            }
+            if (maxPrice != null) {
+                price.lte(maxPrice);
+            }
+        }
+        
+        if (search != null && !search.isEmpty()) {
+            // Only reached while the search index is still loading at startup: fall back to a regex scan
+            String pattern = Pattern.quote(search);
+            criteria.orOperator(
+                Criteria.where("title").regex(pattern, "i"),
+                Criteria.where("author").regex(pattern, "i"));
+        }
+        
+        return criteria;
+    }
+
+    // Get book statistics: counts and stock quantities per status (optionally per category), read from running totals
+    public Map<String, Object> getBookStatistics(boolean byCategory) {
+        return inventorySummary.getStatistics(byCategory);
+    }
+
+    // Typeahead suggestions for the storefront search box
+    public List<Map<String, Object>> suggest(String query, int limit) {
+        return suggestionIndex.suggest(query, limit);
     }
 
     // Get all categories
     public List<String> getAllCategories() {
-        return bookRepository.findAllCategories();
+        return categoryCache.getCategories();
+    }
+
+    // Number of books per category, served from the same cache
+    public Map<String, Long> getCategoryCounts() {
+        return categoryCache.getCategoryCounts();
     }
 
     // Find all books (basic)
@@ -128,26 +495,71 @@ public class BookService {
         return bookRepository.findAll();
     }
 
+    public List<Book> findAll(FieldSelection fields) {
+        return fields.isAll() ? findAll() : mongoTemplate.find(fields.applyTo(new Query()), Book.class);
+    }
+
+    // Every book through a cursor that fetches the next batch only as the caller consumes; close when done
+    public Stream<Book> streamAll(FieldSelection fields) {
+        return mongoTemplate.stream(fields.applyTo(new Query().cursorBatchSize(500)), Book.class);
+    }
+
     // Save new book
     public Book save(Book book) {
+        Book before = book.getId() != null ? bookRepository.findById(book.getId()).orElse(null) : null;
         book.setCreatedAt(LocalDateTime.now());
         book.setUpdatedAt(LocalDateTime.now());
-        return bookRepository.save(book);
+        return inventorySummary.write(() -> {
+            Book saved = bookRepository.save(book);
+            eventPublisher.publishEvent(new BookChangeEvent(before, saved));
+            return saved;
+        });
     }
 
-    // Find book by ID
+    // Find book by ID, through the near-cache
     public Book findById(String id) {
-        Optional<Book> book = bookRepository.findById(id);
-        return book.orElse(null);
+        return bookCache.get(id, key -> bookRepository.findById(key).orElse(null));
+    }
+
+    // Many books by id through the near-cache; whatever is not cached is read in a single query
+    public Map<String, Book> findAllById(Collection<String> ids) {
+        return bookCache.getAll(ids, missing -> {
+            Map<String, Book> books = new HashMap<>();
+            for (Book book : bookRepository.findAllById(missing)) {
+                books.put(book.getId(), book);
+            }
+            return books;
+        });
     }
 
-    // Update book
+    // Update book. Only the catalogue fields are written; stock changes go through updateStock or
+    // updateBookDetails, so an edit cannot undo copies reserved by orders placed meanwhile.
     public Book updateBook(String id, Book bookDetails) {
-        Optional<Book> bookOptional = bookRepository.findById(id);
-        if (bookOptional.isPresent()) {
-            Book book = bookOptional.get();
-            
-            // Update fields
+        requireNotOnFlashSale(id);
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update()
+            .set("title", bookDetails.getTitle())
+            .set("author", bookDetails.getAuthor())
+            .set("description", bookDetails.getDescription())
+            .set("imageUrl", bookDetails.getImageUrl())
+            .set("price", bookDetails.getPrice())
+            .set("category", bookDetails.getCategory())
+            .set("language", bookDetails.getLanguage())
+            .set("publishedYear", bookDetails.getPublishedYear())
+            .set("format", bookDetails.getFormat())
+            .set("rating", bookDetails.getRating())
+            .set("ratingCount", bookDetails.getRatingCount())
+            .set("publisher", bookDetails.getPublisher())
+            .set("pages", bookDetails.getPages())
+            .set("updatedAt", now);
+        // Left out rather than null when cleared, so the sparse unique isbn index skips the book
+        if (bookDetails.getIsbn() != null) {
+            update.set("isbn", bookDetails.getIsbn());
+        } else {
+            update.unset("isbn");
+        }
+        
+        return modify(byId(id), update, book -> {
             book.setTitle(bookDetails.getTitle());
             book.setAuthor(bookDetails.getAuthor());
             book.setDescription(bookDetails.getDescription());
@@ -158,76 +570,398 @@ public class BookService {
             book.setLanguage(bookDetails.getLanguage());
             book.setPublishedYear(bookDetails.getPublishedYear());
             book.setFormat(bookDetails.getFormat());
-            book.setStockQuantity(bookDetails.getStockQuantity());
             book.setRating(bookDetails.getRating());
             book.setRatingCount(bookDetails.getRatingCount());
             book.setPublisher(bookDetails.getPublisher());
             book.setPages(bookDetails.getPages());
-            
-            book.setUpdatedAt(LocalDateTime.now());
-            
-            return bookRepository.save(book);
-        }
-        return null;
+            book.setUpdatedAt(now);
+        });
     }
 
     // Update book details (including stock, price, title)
     public Book updateBookDetails(String id, int quantity, String status, Double price, String title) {
-        Optional<Book> bookOptional = bookRepository.findById(id);
-        if (bookOptional.isPresent()) {
-            Book book = bookOptional.get();
-            
-            // Update stock and status
+        requireNotOnFlashSale(id);
+        String newStatus = status != null && !status.trim().isEmpty() ? status : Book.statusForStock(quantity);
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update()
+            .set("stockQuantity", quantity)
+            .set("status", newStatus)
+            .set("updatedAt", now);
+        
+        // Update price if provided
+        boolean newPrice = price != null && price > 0;
+        if (newPrice) {
+            update.set("price", price);
+        }
+        
+        // Update title if provided
+        boolean newTitle = title != null && !title.trim().isEmpty();
+        if (newTitle) {
+            update.set("title", title);
+        }
+        
+        return requireOffFlashSale(id, modify(offFlashSale(id), update, book -> {
             book.setStockQuantity(quantity);
-            if (status != null && !status.trim().isEmpty()) {
-                book.setStatus(status);
-            }
-            
-            // Update price if provided
-            if (price != null && price > 0) {
+            book.setStatus(newStatus);
+            if (newPrice) {
                 book.setPrice(price);
             }
-            
-            // Update title if provided
-            if (title != null && !title.trim().isEmpty()) {
+            if (newTitle) {
                 book.setTitle(title);
             }
-            
-            book.setUpdatedAt(LocalDateTime.now());
-            return bookRepository.save(book);
-        }
-        return null;
+            book.setUpdatedAt(now);
+        }));
     }
 
     // Update stock quantity and status
     public Book updateStock(String id, int quantity, String status) {
-        Optional<Book> bookOptional = bookRepository.findById(id);
-        if (bookOptional.isPresent()) {
-            Book book = bookOptional.get();
+        requireNotOnFlashSale(id);
+        String newStatus = status != null && !status.trim().isEmpty() ? status : Book.statusForStock(quantity);
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update()
+            .set("stockQuantity", quantity)
+            .set("status", newStatus)
+            .set("updatedAt", now);
+        return requireOffFlashSale(id, modify(offFlashSale(id), update, book -> {
             book.setStockQuantity(quantity);
-            if (status != null && !status.trim().isEmpty()) {
-                book.setStatus(status);
+            book.setStatus(newStatus);
+            book.setUpdatedAt(now);
+        }));
+    }
+
+    /**
+     * Applies many stock and price changes in one unordered bulkWrite, instead of a round trip per book.
+     * Each item has an id and any of quantityDelta (added to the stock), stockQuantity (absolute),
+     * price and status. Items are checked against one read of all the books first; the response holds
+     * one result per item, in request order, with status updated, invalid, not_found, duplicate,
+     * insufficient_stock, conflict or failed. Decrements are written with a findAndModify each, so one
+     * that finds the stock already gone is reported as insufficient_stock, not updated.
+     */
+    public Map<String, Object> bulkUpdateStock(List<Map<String, Object>> items) {
+        List<Map<String, Object>> results = new ArrayList<>(items.size());
+        Set<String> ids = new HashSet<>();
+        for (Map<String, Object> item : items) {
+            if (item != null && item.get("id") instanceof String id) {
+                ids.add(id);
+            }
+        }
+        Map<String, Book> books = new HashMap<>();
+        for (Book book : mongoTemplate.find(new Query(Criteria.where("id").in(ids)), Book.class)) {
+            books.put(book.getId(), book);
+        }
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Book.class);
+        List<Map<String, Object>> queued = new ArrayList<>();
+        List<BookChangeEvent> events = new ArrayList<>();
+        List<StockChange> decrements = new ArrayList<>();
+        List<Book> decremented = new ArrayList<>();
+        List<Map<String, Object>> decrementResults = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        LocalDateTime now = LocalDateTime.now();
+        
+        for (int i = 0; i < items.size(); i++) {
+            Map<String, Object> item = items.get(i) != null ? items.get(i) : Map.of();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("index", i);
+            result.put("id", item.get("id"));
+            results.add(result);
+            
+            StockChange change;
+            try {
+                change = StockChange.parse(item);
+            } catch (IllegalArgumentException e) {
+                result.put("status", "invalid");
+                result.put("message", e.getMessage());
+                continue;
+            }
+            Book before = books.get(change.id());
+            if (before == null || before.isArchived()) {
+                result.put("status", "not_found");
+                continue;
+            }
+            if (!seen.add(change.id())) {
+                result.put("status", "duplicate");
+                result.put("message", "Book appears more than once in this request");
+                continue;
+            }
+            if (before.isFlashSale() || flashSaleInventory.isOnSale(change.id())) {
+                result.put("status", "conflict");
+                result.put("message", "Book is on flash sale");
+                continue;
+            }
+            int quantity = change.quantity() != null ? change.quantity()
+                : before.getStockQuantity() + (change.delta() != null ? change.delta() : 0);
+            if (quantity < 0) {
+                result.put("status", "insufficient_stock");
+                result.put("message", "Only " + before.getStockQuantity() + " in stock");
+                continue;
+            }
+            
+            Book after = new Book(before);
+            after.setStockQuantity(quantity);
+            after.setStatus(change.status() != null ? change.status()
+                : change.delta() != null || change.quantity() != null ? after.getStatus() : before.getStatus());
+            if (change.price() != null) {
+                after.setPrice(change.price());
+            }
+            after.setUpdatedAt(now);
+            
+            if (change.delta() != null && change.delta() < 0) {
+                // The guard can still miss if the stock dropped since it was read, and a bulkWrite
+                // only reports how many writes matched in total, so these get a findAndModify each
+                decrements.add(change);
+                decremented.add(after);
+                decrementResults.add(result);
+                continue;
+            }
+            bulk.updateOne(stockChangeQuery(change), stockChangeUpdate(change, after));
+            queued.add(result);
+            events.add(new BookChangeEvent(before, after));
+        }
+        
+        Set<Integer> failed = new HashSet<>();
+        int matched = queued.isEmpty() ? 0 : inventorySummary.write(() -> {
+            int bulkMatched;
+            try {
+                bulkMatched = bulk.execute().getMatchedCount();
+            } catch (BulkOperationException e) {
+                bulkMatched = e.getResult().getMatchedCount();
+                for (BulkWriteError error : e.getErrors()) {
+                    failed.add(error.getIndex());
+                    queued.get(error.getIndex()).put("status", "failed");
+                    queued.get(error.getIndex()).put("message", error.getMessage());
+                }
+            }
+            for (int i = 0; i < queued.size(); i++) {
+                if (!failed.contains(i)) {
+                    queued.get(i).put("status", "updated");
+                    eventPublisher.publishEvent(events.get(i));
+                }
+            }
+            return bulkMatched;
+        });
+        
+        // Only a decrement that matched is reported as updated; modify publishes its event
+        int decrementsApplied = 0;
+        for (int i = 0; i < decrements.size(); i++) {
+            StockChange change = decrements.get(i);
+            Book planned = decremented.get(i);
+            Map<String, Object> result = decrementResults.get(i);
+            Book after = modify(stockChangeQuery(change), stockChangeUpdate(change, planned), book -> {
+                book.setStockQuantity(book.getStockQuantity() + change.delta());
+                if (change.status() != null) {
+                    book.setStatus(change.status());
+                }
+                if (change.price() != null) {
+                    book.setPrice(change.price());
+                }
+                book.setUpdatedAt(planned.getUpdatedAt());
+            });
+            if (after != null) {
+                decrementsApplied++;
+                result.put("status", "updated");
+            } else {
+                Book current = mongoTemplate.findById(change.id(), Book.class);
+                if (current != null && current.isFlashSale()) {
+                    result.put("status", "conflict");
+                    result.put("message", "Book is on flash sale");
+                    continue;
+                }
+                result.put("status", current != null ? "insufficient_stock" : "not_found");
+                if (current != null) {
+                    result.put("message", "Only " + current.getStockQuantity() + " in stock");
+                }
+            }
+        }
+        
+        int updated = queued.size() - failed.size() + decrementsApplied;
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("updated", updated);
+        summary.put("failed", items.size() - updated);
+        // Fewer matches than writes means a book changed between the read and the bulkWrite
+        summary.put("matched", matched + decrementsApplied);
+        summary.put("results", results);
+        return summary;
+    }
+
+    private static Query stockChangeQuery(StockChange change) {
+        Criteria criteria = Criteria.where("id").is(change.id()).and(FlashSaleInventory.FLAG_FIELD).ne(true);
+        if (change.delta() != null && change.delta() < 0) {
+            // Never take the stock below zero, even if it dropped since it was read
+            criteria.and("stockQuantity").gte(-change.delta());
+        }
+        return new Query(criteria);
+    }
+
+    private static UpdateDefinition stockChangeUpdate(StockChange change, Book after) {
+        if (change.delta() != null && change.status() == null) {
+            // $inc plus a status computed from the new quantity needs a pipeline update
+            AggregationUpdate update = AggregationUpdate.update()
+                .set("stockQuantity").toValue(ArithmeticOperators.valueOf("stockQuantity").add(change.delta()))
+                .set("status").toValue(stockStatus());
+            if (change.price() != null) {
+                update.set("price").toValue(change.price());
+            }
+            return update.set("updatedAt").toValue(after.getUpdatedAt());
+        }
+        Update update = new Update().set("updatedAt", after.getUpdatedAt());
+        if (change.delta() != null) {
+            update.inc("stockQuantity", change.delta());
+        } else if (change.quantity() != null) {
+            update.set("stockQuantity", change.quantity());
+        }
+        if (change.delta() != null || change.quantity() != null || change.status() != null) {
+            update.set("status", after.getStatus());
+        }
+        if (change.price() != null) {
+            update.set("price", change.price());
+        }
+        return update;
+    }
+
+    // One line of a bulk stock update
+    private record StockChange(String id, Integer delta, Integer quantity, Double price, String status) {
+
+        static StockChange parse(Map<String, Object> item) {
+            if (!(item.get("id") instanceof String id) || id.isBlank()) {
+                throw new IllegalArgumentException("id is required");
+            }
+            Integer delta = integer(item, "quantityDelta");
+            Integer quantity = integer(item, "stockQuantity");
+            if (delta != null && quantity != null) {
+                throw new IllegalArgumentException("Give either quantityDelta or stockQuantity, not both");
+            }
+            if (quantity != null && quantity < 0) {
+                throw new IllegalArgumentException("stockQuantity cannot be negative");
             }
-            book.setUpdatedAt(LocalDateTime.now());
-            return bookRepository.save(book);
+            Double price = null;
+            if (item.get("price") != null) {
+                if (!(item.get("price") instanceof Number number) || number.doubleValue() <= 0) {
+                    throw new IllegalArgumentException("price must be a positive number");
+                }
+                price = number.doubleValue();
+            }
+            String status = item.get("status") instanceof String s && !s.trim().isEmpty() ? s : null;
+            if (delta == null && quantity == null && price == null && status == null) {
+                throw new IllegalArgumentException("Nothing to update");
+            }
+            return new StockChange(id, delta, quantity, price, status);
         }
-        return null;
+
+        private static Integer integer(Map<String, Object> item, String key) {
+            Object value = item.get(key);
+            if (value == null) {
+                return null;
+            }
+            if (!(value instanceof Integer) && !(value instanceof Long)) {
+                throw new IllegalArgumentException(key + " must be a whole number");
+            }
+            return ((Number) value).intValue();
+        }
+    }
+
+    /**
+     * Atomically takes {@code quantity} copies off the shelf for an order. The stock guard, the
+     * decrement and the status recompute are one findAndModify, so concurrent orders cannot oversell.
+     * Returns the updated book, or null if it is missing, archived, on flash sale or has fewer copies left.
+     */
+    public Book reserveStock(String id, int quantity) {
+        Query query = new Query(Criteria.where("id").is(id)
+            .and("archived").ne(true)
+            .and(FlashSaleInventory.FLAG_FIELD).ne(true)
+            .and("stockQuantity").gte(quantity));
+        return adjustStock(query, -quantity);
+    }
+
+    // Put reserved copies back, e.g. when the order they were taken for could not be saved
+    public Book releaseStock(String id, int quantity) {
+        return adjustStock(byId(id), quantity);
+    }
+
+    private Book adjustStock(Query query, int delta) {
+        LocalDateTime now = LocalDateTime.now();
+        // Separate $set stages, so the status is computed from the adjusted quantity
+        AggregationUpdate update = AggregationUpdate.update()
+            .set("stockQuantity").toValue(ArithmeticOperators.valueOf("stockQuantity").add(delta))
+            .set("status").toValue(stockStatus())
+            .set("updatedAt").toValue(now);
+        return modify(query, update, book -> {
+            book.setStockQuantity(book.getStockQuantity() + delta);
+            book.setUpdatedAt(now);
+        });
+    }
+
+    // Same thresholds as Book.statusForStock, evaluated by the server
+    static AggregationExpression stockStatus() {
+        return ConditionalOperators.when(ComparisonOperators.valueOf("stockQuantity").lessThanEqualToValue(0))
+            .then("OUT_OF_STOCK")
+            .otherwise(ConditionalOperators.when(
+                    ComparisonOperators.valueOf("stockQuantity").lessThanEqualToValue(Book.LOW_STOCK_THRESHOLD))
+                .then("LOW_STOCK")
+                .otherwise("IN_STOCK"));
     }
 
     // Archive book (soft delete)
     public Book archiveBook(String id) {
-        Optional<Book> bookOptional = bookRepository.findById(id);
-        if (bookOptional.isPresent()) {
-            Book book = bookOptional.get();
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update().set("archived", true).set("updatedAt", now);
+        return modify(byId(id), update, book -> {
             book.setArchived(true);
-            book.setUpdatedAt(LocalDateTime.now());
-            return bookRepository.save(book);
+            book.setUpdatedAt(now);
+        });
+    }
+
+    /**
+     * Applies a targeted update in one findAndModify and publishes the change. Only the named fields
+     * are written, so concurrent edits to other fields (or a concurrent stock reservation) are not
+     * overwritten the way a find-then-save would. {@code change} replays the update on a copy of the
+     * old document to produce the new one. Returns the updated book, or null if nothing matched.
+     */
+    private Book modify(Query query, UpdateDefinition update, Consumer<Book> change) {
+        return inventorySummary.write(() -> {
+            Book before = mongoTemplate.findAndModify(query, update, Book.class);
+            if (before == null) {
+                return null;
+            }
+            Book after = new Book(before);
+            change.accept(after);
+            eventPublisher.publishEvent(new BookChangeEvent(before, after));
+            return after;
+        });
+    }
+
+    // Stock of a flash-sale book is held by FlashSaleInventory until the sale ends
+    private void requireNotOnFlashSale(String id) {
+        if (flashSaleInventory.isOnSale(id)) {
+            throw new IllegalStateException("Book is on flash sale; end the sale before editing it");
         }
-        return null;
+    }
+
+    // A sale starting after requireNotOnFlashSale flags the book first, so this write misses it
+    private static Query offFlashSale(String id) {
+        return new Query(Criteria.where("id").is(id).and(FlashSaleInventory.FLAG_FIELD).ne(true));
+    }
+
+    // Tells a book that went on flash sale meanwhile apart from a missing one
+    private Book requireOffFlashSale(String id, Book updated) {
+        if (updated == null && mongoTemplate.exists(
+                new Query(Criteria.where("id").is(id).and(FlashSaleInventory.FLAG_FIELD).is(true)), Book.class)) {
+            throw new IllegalStateException("Book is on flash sale; end the sale before editing it");
+        }
+        return updated;
+    }
+
+    private static Query byId(String id) {
+        return new Query(Criteria.where("id").is(id));
     }
 
     // Delete book (hard delete)
     public void deleteById(String id) {
-        bookRepository.deleteById(id);
+        Optional<Book> before = bookRepository.findById(id);
+        inventorySummary.write(() -> {
+            bookRepository.deleteById(id);
+            before.ifPresent(book -> eventPublisher.publishEvent(new BookChangeEvent(book, null)));
+            return null;
+        });
     }
 }
\ No newline at end of file
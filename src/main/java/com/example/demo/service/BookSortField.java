@@ -0,0 +1,38 @@
+package com.example.demo.service;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+// Fields the catalog may be sorted on. Each has compound indexes on books (see Book) so sorting never
+// falls back to an in-memory SORT stage; any other sortBy value is rejected.
+public enum BookSortField {
+    PRICE("price"),
+    TITLE("title"),
+    RATING("rating"),
+    PUBLISHED_YEAR("publishedYear"),
+    CREATED_AT("createdAt");
+
+    private final String field;
+
+    BookSortField(String field) {
+        this.field = field;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    // Resolve a sortBy request parameter; null means unsorted
+    public static BookSortField fromParam(String sortBy) {
+        if (sortBy == null || sortBy.isEmpty()) {
+            return null;
+        }
+        for (BookSortField sortField : values()) {
+            if (sortField.field.equals(sortBy)) {
+                return sortField;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported sortBy '" + sortBy + "'. Supported: "
+            + Arrays.stream(values()).map(BookSortField::getField).collect(Collectors.joining(", ")));
+    }
+}
@@ -0,0 +1,446 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import com.example.demo.repository.BookRepository;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Typeahead suggestions for titles, authors and categories.
+ *
+ * Phrases live in a character trie whose children are kept in sorted char arrays. Each phrase
+ * is inserted at every word start so "pot" also suggests "Harry Potter". Every node caches the
+ * top suggestions of its subtree ranked by popularity (ordered quantity), so a lookup is a walk
+ * down the query characters and a copy of one small array. Writes recompute the cached lists
+ * bottom-up along the affected paths only.
+ */
+@Component
+public class BookSuggestionIndex {
+
+    static final int TOP_K = 10;
+    private static final int MAX_WORD_STARTS = 8;
+    private static final int LOAD_ATTEMPTS = 3;
+
+    private static final Comparator<Suggestion> BY_POPULARITY = Comparator
+        .comparingLong((Suggestion s) -> -s.weight)
+        .thenComparingInt(s -> s.text.length())
+        .thenComparing(s -> s.text);
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Node root = new Node();
+    private final Map<String, Suggestion> suggestions = new HashMap<>();
+    private final Map<String, Suggestion[]> suggestionsByBook = new HashMap<>();
+    private final Map<String, Long> popularity = new HashMap<>();
+    // Changes seen while a rebuild is loading, replayed on top of it; null otherwise
+    private List<BookChangeEvent> pendingBooks;
+    private Map<String, Long> pendingOrders;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        rebuild(this::orderedQuantities, bookRepository::findAll);
+    }
+
+    /**
+     * Reloads the trie from the loaders, which run outside the lock. Book changes and orders
+     * recorded meanwhile are queued and applied on top of the loaded state. An order recorded
+     * during the load may or may not be in its aggregate, so the load is retried; if orders keep
+     * arriving, the last attempt counts them on top, since over-ranking a book beats forgetting
+     * an order.
+     */
+    synchronized void rebuild(Supplier<Map<String, Long>> orders, Supplier<List<Book>> books) {
+        for (int attempt = 1; ; attempt++) {
+            setPending(new ArrayList<>(), new HashMap<>());
+            Map<String, Long> ordered;
+            List<Book> loaded;
+            try {
+                ordered = orders.get();
+                loaded = books.get();
+            } catch (RuntimeException e) {
+                setPending(null, null);
+                throw e;
+            }
+            lock.writeLock().lock();
+            try {
+                if (pendingOrders.isEmpty() || attempt == LOAD_ATTEMPTS) {
+                    Map<String, Long> counted = new HashMap<>(ordered);
+                    pendingOrders.forEach((bookId, quantity) -> counted.merge(bookId, quantity, Long::sum));
+                    reset(loaded, counted);
+                    for (BookChangeEvent event : pendingBooks) {
+                        apply(event);
+                    }
+                    pendingBooks = null;
+                    pendingOrders = null;
+                    return;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private Map<String, Long> orderedQuantities() {
+        Map<String, Long> ordered = new HashMap<>();
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.group("bookId").sum("quantity").as("quantity"));
+        for (Document doc : mongoTemplate.aggregate(aggregation, "orders", Document.class)) {
+            if (doc.get("_id") != null) {
+                ordered.put(doc.get("_id").toString(), ((Number) doc.get("quantity")).longValue());
+            }
+        }
+        return ordered;
+    }
+
+    private void setPending(List<BookChangeEvent> books, Map<String, Long> orders) {
+        lock.writeLock().lock();
+        try {
+            pendingBooks = books;
+            pendingOrders = orders;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void load(List<Book> books, Map<String, Long> ordered) {
+        lock.writeLock().lock();
+        try {
+            reset(books, ordered);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Called holding the write lock
+    private void reset(List<Book> books, Map<String, Long> ordered) {
+        root = new Node();
+        suggestions.clear();
+        suggestionsByBook.clear();
+        popularity.clear();
+        popularity.putAll(ordered);
+        for (Book book : books) {
+            add(book, false);
+        }
+        // Rank the whole trie once, bottom-up, instead of after every insert
+        rankSubtree(root);
+    }
+
+    @EventListener
+    public void onBookChanged(BookChangeEvent event) {
+        if (!event.isDelete() && sameSuggestedFields(event.getBefore(), event.getAfter())) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (pendingBooks != null) {
+                pendingBooks.add(event);
+            }
+            apply(event);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Called holding the write lock
+    private void apply(BookChangeEvent event) {
+        remove(event.getBookId());
+        if (!event.isDelete()) {
+            add(event.getAfter(), true);
+        }
+    }
+
+    // Stock and price updates change no suggestion
+    private static boolean sameSuggestedFields(Book before, Book after) {
+        return before != null
+            && before.isArchived() == after.isArchived()
+            && Objects.equals(before.getTitle(), after.getTitle())
+            && Objects.equals(before.getAuthor(), after.getAuthor())
+            && Objects.equals(before.getCategory(), after.getCategory());
+    }
+
+    // Bump a book's popularity when it is ordered
+    public void recordOrder(String bookId, int quantity) {
+        if (bookId == null || quantity <= 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (pendingOrders != null) {
+                pendingOrders.merge(bookId, (long) quantity, Long::sum);
+            }
+            popularity.merge(bookId, (long) quantity, Long::sum);
+            Suggestion[] owned = suggestionsByBook.get(bookId);
+            if (owned != null) {
+                for (Suggestion suggestion : owned) {
+                    suggestion.weight += quantity;
+                    refresh(suggestion);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Map<String, Object>> suggest(String query, int limit) {
+        String key = normalize(query);
+        if (key.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.child(key.charAt(i));
+            }
+            if (node == null) {
+                return List.of();
+            }
+            List<Map<String, Object>> result = new ArrayList<>();
+            for (int i = 0; i < node.top.length && i < limit; i++) {
+                Suggestion suggestion = node.top[i];
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("text", suggestion.text);
+                item.put("type", suggestion.type);
+                item.put("popularity", suggestion.weight);
+                if (suggestion.bookIds.size() == 1) {
+                    item.put("bookId", suggestion.bookIds.iterator().next());
+                }
+                result.add(item);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void add(Book book, boolean rank) {
+        if (book.getId() == null || book.isArchived()) {
+            return;
+        }
+        long weight = popularity.getOrDefault(book.getId(), 0L);
+        List<Suggestion> owned = new ArrayList<>(3);
+        addPhrase(owned, book.getId(), "title", book.getTitle(), weight, rank);
+        addPhrase(owned, book.getId(), "author", book.getAuthor(), weight, rank);
+        addPhrase(owned, book.getId(), "category", book.getCategory(), weight, rank);
+        suggestionsByBook.put(book.getId(), owned.toArray(new Suggestion[0]));
+    }
+
+    private void addPhrase(List<Suggestion> owned, String bookId, String type, String text,
+                           long weight, boolean rank) {
+        String key = normalize(text);
+        if (key.isEmpty()) {
+            return;
+        }
+        Suggestion suggestion = suggestions.get(type + ':' + key);
+        if (suggestion == null) {
+            suggestion = new Suggestion(text.trim(), type, key);
+            suggestions.put(type + ':' + key, suggestion);
+            for (String path : paths(key)) {
+                insert(path, suggestion);
+            }
+        }
+        suggestion.bookIds.add(bookId);
+        suggestion.weight += weight;
+        if (rank) {
+            refresh(suggestion);
+        }
+        owned.add(suggestion);
+    }
+
+    private void remove(String bookId) {
+        Suggestion[] owned = suggestionsByBook.remove(bookId);
+        if (owned == null) {
+            return;
+        }
+        long weight = popularity.getOrDefault(bookId, 0L);
+        for (Suggestion suggestion : owned) {
+            suggestion.bookIds.remove(bookId);
+            suggestion.weight -= weight;
+            if (suggestion.bookIds.isEmpty()) {
+                suggestions.remove(suggestion.type + ':' + suggestion.key);
+                for (String path : paths(suggestion.key)) {
+                    delete(path, suggestion);
+                }
+            } else {
+                refresh(suggestion);
+            }
+        }
+    }
+
+    private void insert(String path, Suggestion suggestion) {
+        Node node = root;
+        for (int i = 0; i < path.length(); i++) {
+            node = node.getOrCreateChild(path.charAt(i));
+        }
+        node.terminals = Arrays.copyOf(node.terminals, node.terminals.length + 1);
+        node.terminals[node.terminals.length - 1] = suggestion;
+    }
+
+    private void delete(String path, Suggestion suggestion) {
+        Node[] trail = trail(path);
+        if (trail == null) {
+            return;
+        }
+        Node node = trail[path.length()];
+        node.terminals = Arrays.stream(node.terminals).filter(s -> s != suggestion).toArray(Suggestion[]::new);
+        recompute(trail, path);
+    }
+
+    // Re-rank every node on the paths of a suggestion whose weight changed
+    private void refresh(Suggestion suggestion) {
+        for (String path : paths(suggestion.key)) {
+            Node[] trail = trail(path);
+            if (trail != null) {
+                recompute(trail, path);
+            }
+        }
+    }
+
+    private void recompute(Node[] trail, String path) {
+        for (int depth = path.length(); depth >= 0; depth--) {
+            Node node = trail[depth];
+            if (depth > 0 && node.terminals.length == 0 && node.labels.length == 0) {
+                trail[depth - 1].removeChild(path.charAt(depth - 1));
+                continue;
+            }
+            node.top = topOf(node);
+        }
+    }
+
+    private Node[] trail(String path) {
+        Node[] trail = new Node[path.length() + 1];
+        trail[0] = root;
+        for (int i = 0; i < path.length(); i++) {
+            trail[i + 1] = trail[i].child(path.charAt(i));
+            if (trail[i + 1] == null) {
+                return null;
+            }
+        }
+        return trail;
+    }
+
+    private static void rankSubtree(Node node) {
+        for (Node child : node.children) {
+            rankSubtree(child);
+        }
+        node.top = topOf(node);
+    }
+
+    private static Suggestion[] topOf(Node node) {
+        List<Suggestion> candidates = new ArrayList<>(Arrays.asList(node.terminals));
+        for (Node child : node.children) {
+            candidates.addAll(Arrays.asList(child.top));
+        }
+        return candidates.stream().distinct().sorted(BY_POPULARITY).limit(TOP_K).toArray(Suggestion[]::new);
+    }
+
+    // The phrase key starting at each of its first few words
+    private static List<String> paths(String key) {
+        List<String> paths = new ArrayList<>();
+        paths.add(key);
+        for (int i = key.indexOf(' '); i >= 0 && paths.size() < MAX_WORD_STARTS; i = key.indexOf(' ', i + 1)) {
+            paths.add(key.substring(i + 1));
+        }
+        return paths;
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder key = new StringBuilder(text.length());
+        for (char c : text.toLowerCase(Locale.ROOT).toCharArray()) {
+            if (Character.isLetterOrDigit(c)) {
+                key.append(c);
+            } else if (key.length() > 0 && key.charAt(key.length() - 1) != ' ') {
+                key.append(' ');
+            }
+        }
+        return key.toString().trim();
+    }
+
+    private static final class Suggestion {
+        final String text;
+        final String type;
+        final String key;
+        final Set<String> bookIds = new HashSet<>(2);
+        long weight;
+
+        Suggestion(String text, String type, String key) {
+            this.text = text;
+            this.type = type;
+            this.key = key;
+        }
+    }
+
+    private static final class Node {
+        private static final Suggestion[] NONE = new Suggestion[0];
+
+        char[] labels = new char[0];
+        Node[] children = new Node[0];
+        Suggestion[] terminals = NONE;
+        Suggestion[] top = NONE;
+
+        Node child(char label) {
+            int i = Arrays.binarySearch(labels, label);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node getOrCreateChild(char label) {
+            int i = Arrays.binarySearch(labels, label);
+            if (i >= 0) {
+                return children[i];
+            }
+            int at = -i - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, at);
+            System.arraycopy(children, 0, newChildren, 0, at);
+            newLabels[at] = label;
+            newChildren[at] = new Node();
+            System.arraycopy(labels, at, newLabels, at + 1, labels.length - at);
+            System.arraycopy(children, at, newChildren, at + 1, children.length - at);
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[at];
+        }
+
+        void removeChild(char label) {
+            int i = Arrays.binarySearch(labels, label);
+            if (i < 0) {
+                return;
+            }
+            char[] newLabels = new char[labels.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(labels, 0, newLabels, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(labels, i + 1, newLabels, i, labels.length - i - 1);
+            System.arraycopy(children, i + 1, newChildren, i, children.length - i - 1);
+            labels = newLabels;
+            children = newChildren;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneOffset;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version number of the whole catalog, bumped by every BookChangeEvent, i.e. on every write
+ * BookService makes. Catalog list responses use it as their ETag.
+ *
+ * The version lives in memory, so each run starts a new epoch and a tag handed out before a
+ * restart never matches again. Like the search index, this assumes all book writes go through
+ * this one instance.
+ */
+@Component
+public class CatalogVersion {
+
+    private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+    private final AtomicLong version = new AtomicLong();
+
+    @EventListener
+    public void onBookChanged(BookChangeEvent event) {
+        version.incrementAndGet();
+    }
+
+    public long get() {
+        return version.get();
+    }
+
+    // Read before the catalog is queried, so a write racing the query leaves the response with an older tag
+    public String etag() {
+        return "\"" + epoch + "-" + version.get() + "\"";
+    }
+
+    // A single book changes tag whenever it is written, since every write stamps updatedAt
+    public static String etag(Book book) {
+        long updated = book.getUpdatedAt() != null ? book.getUpdatedAt().toInstant(ZoneOffset.UTC).toEpochMilli() : 0;
+        return "\"" + book.getId() + "-" + Long.toString(updated, 36) + "\"";
+    }
+}
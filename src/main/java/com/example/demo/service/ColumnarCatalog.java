@@ -0,0 +1,478 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Optional in-memory, column-oriented copy of the fields the catalog filters and sorts on.
+ *
+ * Each book owns a slot; price, rating, publishedYear and createdAt live in primitive arrays indexed
+ * by slot, category and status are dictionary-encoded ints, and every category and status value has
+ * a bitmap of the slots holding it. A filter ANDs bitmaps a 64-bit word at a time and then scans the
+ * price column over the surviving words, so a query over a few hundred thousand books touches a few
+ * contiguous arrays instead of Mongo. Only the ids of the requested page come out; BookService reads
+ * those documents from Mongo.
+ *
+ * Loaded once at startup and kept current from BookChangeEvents. A load builds fresh columns without
+ * holding the lock, so book writes are not held up while it streams the collection; events that
+ * arrive meanwhile are buffered and replayed onto the fresh columns when they are swapped in. Enable with
+ * catalog.columnar.enabled=true; while disabled (or still loading) BookService queries Mongo as before.
+ */
+@Component
+public class ColumnarCatalog {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Code of a missing category or status; it has no bitmap, so no filter value matches it
+    private static final int NO_VALUE = -1;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${catalog.columnar.enabled:false}")
+    private boolean enabled;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Replaced by a load; read and changed under the lock
+    private Columns columns = new Columns();
+    // Changes that arrived while a load was building its columns; null when no load is running
+    private List<BookChangeEvent> pending;
+
+    private volatile boolean ready;
+
+    public ColumnarCatalog() {
+    }
+
+    ColumnarCatalog(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        if (enabled) {
+            load();
+        }
+    }
+
+    // Rebuild from the database. Buffering starts before the cursor opens, so a change the stream
+    // has already passed is replayed on top instead of leaving the book stale.
+    public synchronized void load() {
+        Query query = new Query().cursorBatchSize(1000);
+        query.fields().include("id", "title", "price", "rating", "publishedYear", "createdAt", "category", "status");
+        startBuffering();
+        try (Stream<Book> books = mongoTemplate.stream(query, Book.class)) {
+            load(books);
+        } finally {
+            stopBuffering();
+        }
+    }
+
+    synchronized void load(Stream<Book> books) {
+        startBuffering();
+        try {
+            Columns fresh = new Columns();
+            books.forEach(fresh::put);
+            // Only the replay and the swap hold up writers
+            lock.writeLock().lock();
+            try {
+                pending.forEach(fresh::apply);
+                columns = fresh;
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            stopBuffering();
+        }
+    }
+
+    private void startBuffering() {
+        lock.writeLock().lock();
+        try {
+            if (pending == null) {
+                pending = new ArrayList<>();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void stopBuffering() {
+        lock.writeLock().lock();
+        try {
+            pending = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        return read(Columns::size);
+    }
+
+    @EventListener
+    public void onBookChanged(BookChangeEvent event) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            // The current columns keep serving reads until the load swaps its own in
+            columns.apply(event);
+            if (pending != null) {
+                pending.add(event);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of one page of matching books, in slot order without a sort field. Sorting breaks ties on
+     * id, like the {field, _id} indexes do. Searches are answered by the search index instead.
+     */
+    public List<String> findPage(String category, String status, Double minPrice, Double maxPrice,
+                                 BookSortField sortField, boolean descending, int page, int size) {
+        return read(columns -> columns.findPage(category, status, minPrice, maxPrice, sortField, descending,
+            (long) page * size, size));
+    }
+
+    public long count(String category, String status, Double minPrice, Double maxPrice) {
+        return read(columns -> columns.count(category, status, minPrice, maxPrice));
+    }
+
+    private <R> R read(Function<Columns, R> query) {
+        lock.readLock().lock();
+        try {
+            return query.apply(columns);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Every column of the catalog; a load builds a new set and swaps it in whole
+    private static final class Columns {
+        private final Map<String, Integer> slotsById = new HashMap<>();
+        private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+        private final Dictionary categories = new Dictionary();
+        private final Dictionary statuses = new Dictionary();
+        // Slots in use; one past the highest slot ever used
+        private long[] live;
+        private int slotCount;
+
+        private String[] ids;
+        private String[] titles;
+        private double[] prices;
+        private double[] ratings;
+        private int[] publishedYears;
+        private long[] createdAts;
+        private int[] categoryCodes;
+        private int[] statusCodes;
+
+        Columns() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        int size() {
+            return slotsById.size();
+        }
+
+        void apply(BookChangeEvent event) {
+            if (event.isDelete()) {
+                remove(event.getBookId());
+            } else {
+                put(event.getAfter());
+            }
+        }
+
+        List<String> findPage(String category, String status, Double minPrice, Double maxPrice,
+                              BookSortField sortField, boolean descending, long offset, int size) {
+            long[] matches = match(category, status, minPrice, maxPrice);
+            if (sortField != null) {
+                return sortedPage(matches, sortField, descending, offset, size);
+            }
+            List<String> pageIds = new ArrayList<>(size);
+            long skipped = 0;
+            for (int slot = nextSetBit(matches, 0); slot >= 0 && pageIds.size() < size; slot = nextSetBit(matches, slot + 1)) {
+                if (skipped++ >= offset) {
+                    pageIds.add(ids[slot]);
+                }
+            }
+            return pageIds;
+        }
+
+        long count(String category, String status, Double minPrice, Double maxPrice) {
+            long[] matches = match(category, status, minPrice, maxPrice);
+            long count = 0;
+            for (long word : matches) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+
+        private long[] match(String category, String status, Double minPrice, Double maxPrice) {
+            int words = (slotCount + 63) >>> 6;
+            long[] matches = Arrays.copyOf(live, words);
+            if (category != null && !category.isEmpty()) {
+                and(matches, categories.bitmap(category));
+            }
+            if (status != null && !status.isEmpty()) {
+                and(matches, statuses.bitmap(status));
+            }
+            if (minPrice != null || maxPrice != null) {
+                scanPrice(matches, minPrice != null ? minPrice : Double.NEGATIVE_INFINITY,
+                    maxPrice != null ? maxPrice : Double.POSITIVE_INFINITY);
+            }
+            return matches;
+        }
+
+        private static void and(long[] matches, long[] bitmap) {
+            for (int w = 0; w < matches.length; w++) {
+                matches[w] &= bitmap != null && w < bitmap.length ? bitmap[w] : 0L;
+            }
+        }
+
+        // Branch-free compare over each 64-slot block that still has candidates
+        private void scanPrice(long[] matches, double min, double max) {
+            for (int w = 0; w < matches.length; w++) {
+                if (matches[w] == 0) {
+                    continue;
+                }
+                int base = w << 6;
+                int end = Math.min(64, slotCount - base);
+                long inRange = 0;
+                for (int i = 0; i < end; i++) {
+                    double price = prices[base + i];
+                    inRange |= (price >= min & price <= max ? 1L : 0L) << i;
+                }
+                matches[w] &= inRange;
+            }
+        }
+
+        // Keep the best offset+size matches in a bounded heap (worst on top), then sort just those
+        private List<String> sortedPage(long[] matches, BookSortField field, boolean descending, long offset, int size) {
+            long wanted = offset + size;
+            if (size <= 0 || wanted > Integer.MAX_VALUE) {
+                return new ArrayList<>();
+            }
+            int[] heap = new int[(int) Math.min(wanted, slotsById.size())];
+            int heapSize = 0;
+            for (int slot = nextSetBit(matches, 0); slot >= 0; slot = nextSetBit(matches, slot + 1)) {
+                if (heapSize < heap.length) {
+                    heap[heapSize] = slot;
+                    siftUp(heap, heapSize++, field, descending);
+                } else if (heap.length > 0 && compare(slot, heap[0], field, descending) < 0) {
+                    heap[0] = slot;
+                    siftDown(heap, heapSize, field, descending);
+                }
+            }
+            Integer[] best = new Integer[heapSize];
+            for (int i = 0; i < heapSize; i++) {
+                best[i] = heap[i];
+            }
+            Arrays.sort(best, (a, b) -> compare(a, b, field, descending));
+            List<String> pageIds = new ArrayList<>(size);
+            for (long i = offset; i < heapSize; i++) {
+                pageIds.add(ids[best[(int) i]]);
+            }
+            return pageIds;
+        }
+
+        private void siftUp(int[] heap, int index, BookSortField field, boolean descending) {
+            int slot = heap[index];
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (compare(slot, heap[parent], field, descending) <= 0) {
+                    break;
+                }
+                heap[index] = heap[parent];
+                index = parent;
+            }
+            heap[index] = slot;
+        }
+
+        private void siftDown(int[] heap, int heapSize, BookSortField field, boolean descending) {
+            int slot = heap[0];
+            int index = 0;
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && compare(heap[child + 1], heap[child], field, descending) > 0) {
+                    child++;
+                }
+                if (compare(heap[child], slot, field, descending) <= 0) {
+                    break;
+                }
+                heap[index] = heap[child];
+                index = child;
+            }
+            heap[index] = slot;
+        }
+
+        // Negative when slot a comes first in the requested order
+        private int compare(int a, int b, BookSortField field, boolean descending) {
+            int result = switch (field) {
+                case PRICE -> Double.compare(prices[a], prices[b]);
+                case RATING -> Double.compare(ratings[a], ratings[b]);
+                case PUBLISHED_YEAR -> Integer.compare(publishedYears[a], publishedYears[b]);
+                case CREATED_AT -> Long.compare(createdAts[a], createdAts[b]);
+                case TITLE -> compareNullsFirst(titles[a], titles[b]);
+            };
+            if (result == 0) {
+                result = ids[a].compareTo(ids[b]);
+            }
+            return descending ? -result : result;
+        }
+
+        private static int compareNullsFirst(String a, String b) {
+            if (a == null || b == null) {
+                return a == null ? (b == null ? 0 : -1) : 1;
+            }
+            return a.compareTo(b);
+        }
+
+        void put(Book book) {
+            Integer existing = slotsById.get(book.getId());
+            int slot;
+            if (existing != null) {
+                slot = existing;
+                clearBit(categories.bitmapFor(categoryCodes[slot]), slot);
+                clearBit(statuses.bitmapFor(statusCodes[slot]), slot);
+            } else {
+                slot = !freeSlots.isEmpty() ? freeSlots.pop() : slotCount++;
+                if (slot >= ids.length) {
+                    allocate(ids.length * 2);
+                }
+                slotsById.put(book.getId(), slot);
+                live[slot >>> 6] |= 1L << slot;
+            }
+            ids[slot] = book.getId();
+            titles[slot] = book.getTitle();
+            prices[slot] = book.getPrice();
+            ratings[slot] = book.getRating();
+            publishedYears[slot] = book.getPublishedYear();
+            createdAts[slot] = book.getCreatedAt() != null ? book.getCreatedAt().toInstant(ZoneOffset.UTC).toEpochMilli() : Long.MIN_VALUE;
+            categoryCodes[slot] = categories.encode(book.getCategory(), ids.length);
+            statusCodes[slot] = statuses.encode(book.getStatus(), ids.length);
+            setBit(categories.bitmapFor(categoryCodes[slot]), slot);
+            setBit(statuses.bitmapFor(statusCodes[slot]), slot);
+        }
+
+        void remove(String id) {
+            Integer slot = slotsById.remove(id);
+            if (slot == null) {
+                return;
+            }
+            live[slot >>> 6] &= ~(1L << slot);
+            clearBit(categories.bitmapFor(categoryCodes[slot]), slot);
+            clearBit(statuses.bitmapFor(statusCodes[slot]), slot);
+            ids[slot] = null;
+            titles[slot] = null;
+            freeSlots.push(slot);
+        }
+
+        private void allocate(int capacity) {
+            int words = (capacity + 63) >>> 6;
+            live = live == null ? new long[words] : Arrays.copyOf(live, words);
+            ids = ids == null ? new String[capacity] : Arrays.copyOf(ids, capacity);
+            titles = titles == null ? new String[capacity] : Arrays.copyOf(titles, capacity);
+            prices = prices == null ? new double[capacity] : Arrays.copyOf(prices, capacity);
+            ratings = ratings == null ? new double[capacity] : Arrays.copyOf(ratings, capacity);
+            publishedYears = publishedYears == null ? new int[capacity] : Arrays.copyOf(publishedYears, capacity);
+            createdAts = createdAts == null ? new long[capacity] : Arrays.copyOf(createdAts, capacity);
+            categoryCodes = categoryCodes == null ? new int[capacity] : Arrays.copyOf(categoryCodes, capacity);
+            statusCodes = statusCodes == null ? new int[capacity] : Arrays.copyOf(statusCodes, capacity);
+            categories.grow(words);
+            statuses.grow(words);
+        }
+    }
+
+    // A null bitmap is the missing value's, which tracks no slots
+    private static void setBit(long[] bitmap, int slot) {
+        if (bitmap != null) {
+            bitmap[slot >>> 6] |= 1L << slot;
+        }
+    }
+
+    private static void clearBit(long[] bitmap, int slot) {
+        if (bitmap != null) {
+            bitmap[slot >>> 6] &= ~(1L << slot);
+        }
+    }
+
+    private static int nextSetBit(long[] bitmap, int from) {
+        int w = from >>> 6;
+        if (w >= bitmap.length) {
+            return -1;
+        }
+        long word = bitmap[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == bitmap.length) {
+                return -1;
+            }
+            word = bitmap[w];
+        }
+    }
+
+    // Distinct values of one column as int codes, each with the bitmap of slots holding it. A missing
+    // value is NO_VALUE rather than a code of its own, so it never answers a filter for "null".
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<long[]> bitmaps = new ArrayList<>();
+        private int words;
+
+        int encode(String value, int capacity) {
+            if (value == null) {
+                return NO_VALUE;
+            }
+            return codes.computeIfAbsent(value, v -> {
+                bitmaps.add(new long[Math.max(words, (capacity + 63) >>> 6)]);
+                return bitmaps.size() - 1;
+            });
+        }
+
+        // The bitmap for a filter value; null if no book has it
+        long[] bitmap(String value) {
+            Integer code = codes.get(value);
+            return code != null ? bitmaps.get(code) : null;
+        }
+
+        long[] bitmapFor(int code) {
+            return code != NO_VALUE ? bitmaps.get(code) : null;
+        }
+
+        void grow(int words) {
+            this.words = words;
+            for (int i = 0; i < bitmaps.size(); i++) {
+                if (bitmaps.get(i).length < words) {
+                    bitmaps.set(i, Arrays.copyOf(bitmaps.get(i), words));
+                }
+            }
+        }
+    }
+}
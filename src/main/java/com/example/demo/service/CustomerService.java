@@ -2,12 +2,18 @@ package com.example.demo.service;
 
 import com.example.demo.model.Customer;
 import com.example.demo.repository.CustomerRepository;
+import com.example.demo.util.FieldSelection;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Service
 public class CustomerService {
@@ -18,6 +24,9 @@ public class CustomerService {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     public Customer registerCustomer(Customer customer) {
         customer.setPassword(passwordEncoder.encode(customer.getPassword()));
         return customerRepository.save(customer);
@@ -31,6 +40,31 @@ public class CustomerService {
         return customerRepository.findAll();
     }
 
+    // Taken from collection metadata, so it costs the same however many customers there are
+    public long countCustomers() {
+        return mongoTemplate.estimatedCount(Customer.class);
+    }
+
+    // Only the selected fields are read (plus the account number, which the admin list backfills)
+    public List<Customer> getAllCustomers(FieldSelection fields) {
+        if (fields.isAll()) {
+            return getAllCustomers();
+        }
+        return mongoTemplate.find(fields.applyTo(new Query(), "accountNumber"), Customer.class);
+    }
+
+    // Cursor over every customer, read in batches as the caller consumes it; close when done
+    public Stream<Customer> streamAllCustomers(FieldSelection fields) {
+        return mongoTemplate.stream(fields.applyTo(new Query().cursorBatchSize(500), "accountNumber"), Customer.class);
+    }
+
+    // Writes only the account number, so a customer read with a projection is never saved back partially
+    public void assignAccountNumber(Customer customer, String accountNumber) {
+        customer.setAccountNumber(accountNumber);
+        mongoTemplate.updateFirst(new Query(Criteria.where("id").is(customer.getId())),
+            Update.update("accountNumber", accountNumber), Customer.class);
+    }
+
     public Optional<Customer> findByAccountNumber(String accountNumber) {
         return customerRepository.findByAccountNumber(accountNumber);
     }
@@ -0,0 +1,383 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Opt-in "flash sale" stock for hot books.
+ *
+ * While a book is on flash sale its stock lives in memory, split across striped atomic counters
+ * so parallel checkouts CAS different cache lines instead of queueing on one Mongo document.
+ * Every granted reservation is first made durable in the {@link FlashSaleJournal}; the net
+ * movement per book is then written to Mongo in one update per flush interval, together with
+ * the journal sequence it covers (flashSaleSeq). On startup any journal records newer than a
+ * book's flashSaleSeq are replayed, so a crash loses no confirmed reservation.
+ *
+ * Starting a sale flags the book in Mongo and reads its stock in the same findAndModify. Stock
+ * writes outside the sale only match unflagged books, so none can land between that read and the
+ * sale taking over, and the in-memory stock never counts copies already sold.
+ *
+ * Start a sale before it goes live and end it before editing the book's stock.
+ */
+@Component
+public class FlashSaleInventory {
+
+    static final String SEQ_FIELD = "flashSaleSeq";
+    static final String FLAG_FIELD = "flashSale";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private InventorySummary inventorySummary;
+
+    @Value("${flashsale.journal-path:flash-sale.journal}")
+    private String journalPath;
+
+    @Value("${flashsale.stripes:0}")
+    private int configuredStripes;
+
+    private final Map<String, Sale> sales = new ConcurrentHashMap<>();
+    // Durable movements not yet written to Mongo, per book; guarded by itself
+    private final Map<String, Unflushed> unflushed = new HashMap<>();
+    // Movements whose write failed, retried first on the next flush
+    private final Map<String, Unflushed> retries = new HashMap<>();
+    private long flushedSeq;
+    private long lastSeq;
+    private volatile FlashSaleJournal journal;
+
+    // Replay what a previous run left behind; the journal itself is only opened by the first sale
+    @PostConstruct
+    public void recover() throws IOException {
+        lastSeq = recover(Paths.get(journalPath));
+        // No sale outlives the run that started it
+        mongoTemplate.updateMulti(new Query(Criteria.where(FLAG_FIELD).is(true)), new Update().unset(FLAG_FIELD), Book.class);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        sales.clear();
+        if (journal != null) {
+            journal.close();
+            journal = null;
+            // The journal is kept; on the next start replay skips whatever this flush wrote
+            flush();
+        }
+    }
+
+    public boolean isOnSale(String bookId) {
+        return bookId != null && sales.containsKey(bookId);
+    }
+
+    // Put a book on flash sale with its current stock; returns the copies available
+    public synchronized long startSale(String bookId) {
+        Sale existing = sales.get(bookId);
+        if (existing != null) {
+            return existing.available();
+        }
+        if (journal == null) {
+            try {
+                journal = new FlashSaleJournal(Paths.get(journalPath), lastSeq, this::onDurable);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        // From here on the stock read below is the stock the sale owns
+        Book book = mongoTemplate.findAndModify(
+            new Query(Criteria.where("id").is(bookId).and("archived").ne(true)),
+            new Update().set(FLAG_FIELD, true), FindAndModifyOptions.options().returnNew(true), Book.class);
+        if (book == null) {
+            throw new IllegalArgumentException("Book not found");
+        }
+        Sale sale = new Sale(Math.max(book.getStockQuantity(), 0), stripes());
+        sales.put(bookId, sale);
+        return sale.available();
+    }
+
+    // Take a book off flash sale and write its remaining movements to Mongo; returns the copies left
+    public synchronized long endSale(String bookId) {
+        if (!sales.containsKey(bookId)) {
+            throw new IllegalArgumentException("Book is not on flash sale");
+        }
+        // Unflagged before the sale stops taking orders, so a checkout meanwhile finds one or the other
+        mongoTemplate.updateFirst(new Query(Criteria.where("id").is(bookId)), new Update().unset(FLAG_FIELD), Book.class);
+        Sale sale = sales.remove(bookId);
+        flush();
+        return sale.available();
+    }
+
+    public Map<String, Long> getSales() {
+        Map<String, Long> available = new LinkedHashMap<>();
+        sales.forEach((bookId, sale) -> available.put(bookId, sale.available()));
+        return available;
+    }
+
+    public long available(String bookId) {
+        Sale sale = sales.get(bookId);
+        return sale != null ? sale.available() : 0;
+    }
+
+    /**
+     * Reserves copies without locking. Returns true once the reservation is journaled,
+     * false if the book is short of stock or not on flash sale.
+     */
+    public boolean reserve(String bookId, int quantity) {
+        Sale sale = sales.get(bookId);
+        if (sale == null || !sale.take(quantity)) {
+            return false;
+        }
+        try {
+            journal.append(bookId, -quantity).join();
+            return true;
+        } catch (CompletionException e) {
+            sale.put(quantity);
+            throw new IllegalStateException("Could not journal reservation", e.getCause());
+        }
+    }
+
+    /**
+     * Gives back copies reserved for an order that could not be saved. Returns false, like reserve,
+     * if the book is not on flash sale; the copies then belong back in its document.
+     */
+    public boolean release(String bookId, int quantity) {
+        Sale sale = sales.get(bookId);
+        FlashSaleJournal current = journal;
+        if (sale == null || current == null) {
+            return false;
+        }
+        // Journaled even if the sale ends meanwhile, so the flush still writes it to Mongo
+        current.append(bookId, quantity).join();
+        sale.put(quantity);
+        return true;
+    }
+
+    // Write the net movement of each book to Mongo, one update per book
+    @Scheduled(fixedDelayString = "${flashsale.flush-interval-ms:1000}")
+    public synchronized void flush() {
+        Map<String, Unflushed> batch;
+        synchronized (unflushed) {
+            batch = new HashMap<>(unflushed);
+            unflushed.clear();
+        }
+        Set<String> bookIds = new HashSet<>(retries.keySet());
+        bookIds.addAll(batch.keySet());
+        for (String bookId : bookIds) {
+            // A failed write is retried with its own sequence before anything newer, so flashSaleSeq
+            // can tell whether it landed after all
+            Unflushed retry = retries.get(bookId);
+            if (retry != null) {
+                if (!tryApply(bookId, retry)) {
+                    Unflushed movement = batch.get(bookId);
+                    if (movement != null) {
+                        synchronized (unflushed) {
+                            unflushed.computeIfAbsent(bookId, k -> new Unflushed()).add(movement.delta, movement.lastSeq);
+                        }
+                    }
+                    continue;
+                }
+                retries.remove(bookId);
+            }
+            Unflushed movement = batch.get(bookId);
+            if (movement != null && !tryApply(bookId, movement)) {
+                retries.put(bookId, movement);
+            }
+        }
+        if (retries.isEmpty() && journal != null) {
+            try {
+                journal.truncateIfFlushed(flushedSeq);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private boolean tryApply(String bookId, Unflushed movement) {
+        try {
+            apply(bookId, movement.delta, movement.lastSeq);
+            flushedSeq = Math.max(flushedSeq, movement.lastSeq);
+            return true;
+        } catch (RuntimeException e) {
+            System.out.println("Flash sale flush failed for book " + bookId + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void onDurable(List<FlashSaleJournal.Entry> entries) {
+        synchronized (unflushed) {
+            for (FlashSaleJournal.Entry entry : entries) {
+                unflushed.computeIfAbsent(entry.bookId(), k -> new Unflushed()).add(entry.delta(), entry.seq());
+            }
+        }
+    }
+
+    // Replay journal records Mongo has not seen yet; returns the highest sequence in use
+    private long recover(Path path) throws IOException {
+        Query highest = new Query().with(Sort.by(Sort.Direction.DESC, SEQ_FIELD)).limit(1);
+        Book top = mongoTemplate.findOne(highest, Book.class);
+        long lastSeq = top != null ? top.getFlashSaleSeq() : 0;
+
+        Map<String, List<FlashSaleJournal.Entry>> byBook = new HashMap<>();
+        for (FlashSaleJournal.Entry entry : FlashSaleJournal.read(path)) {
+            byBook.computeIfAbsent(entry.bookId(), k -> new ArrayList<>()).add(entry);
+            lastSeq = Math.max(lastSeq, entry.seq());
+        }
+        for (Map.Entry<String, List<FlashSaleJournal.Entry>> book : byBook.entrySet()) {
+            Book current = mongoTemplate.findById(book.getKey(), Book.class);
+            if (current == null) {
+                continue;
+            }
+            long applied = current.getFlashSaleSeq();
+            Unflushed missing = new Unflushed();
+            for (FlashSaleJournal.Entry entry : book.getValue()) {
+                if (entry.seq() > applied) {
+                    missing.add(entry.delta(), entry.seq());
+                }
+            }
+            if (missing.lastSeq > 0) {
+                System.out.println("Replaying flash sale journal for book " + book.getKey() + ": " + missing.delta);
+                apply(book.getKey(), missing.delta, missing.lastSeq);
+            }
+        }
+        Files.deleteIfExists(path);
+        return lastSeq;
+    }
+
+    // Add delta to the stock, recompute the status and record the journal sequence, all in one update
+    private void apply(String bookId, int delta, long seq) {
+        Query query = new Query(new Criteria().andOperator(
+            Criteria.where("id").is(bookId),
+            new Criteria().orOperator(Criteria.where(SEQ_FIELD).exists(false), Criteria.where(SEQ_FIELD).lt(seq))));
+        LocalDateTime now = LocalDateTime.now();
+        AggregationUpdate update = AggregationUpdate.update()
+            .set("stockQuantity").toValue(ArithmeticOperators.valueOf("stockQuantity").add(delta))
+            .set("status").toValue(BookService.stockStatus())
+            .set(SEQ_FIELD).toValue(seq)
+            .set("updatedAt").toValue(now);
+        inventorySummary.write(() -> {
+            Book before = mongoTemplate.findAndModify(query, update, Book.class);
+            if (before != null) {
+                Book after = new Book(before);
+                after.setStockQuantity(before.getStockQuantity() + delta);
+                after.setFlashSaleSeq(seq);
+                after.setUpdatedAt(now);
+                eventPublisher.publishEvent(new BookChangeEvent(before, after));
+            }
+            return before;
+        });
+    }
+
+    private int stripes() {
+        return configuredStripes > 0 ? configuredStripes : Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    private static final class Unflushed {
+        int delta;
+        long lastSeq;
+
+        void add(int amount, long seq) {
+            delta += amount;
+            lastSeq = Math.max(lastSeq, seq);
+        }
+    }
+
+    /**
+     * Stock split over several counters, each on its own cache line. A reservation tries one
+     * counter picked by thread, then the others, and only gathers from several when the remaining
+     * stock is too fragmented for any single one.
+     */
+    static final class Sale {
+        // 8 longs = 64 bytes, so neighbouring stripes never share a cache line
+        private static final int PAD = 8;
+
+        private final AtomicLongArray cells;
+        private final int stripes;
+
+        Sale(long stock, int stripes) {
+            this.stripes = stripes;
+            this.cells = new AtomicLongArray(stripes * PAD);
+            for (int i = 0; i < stripes; i++) {
+                cells.set(i * PAD, stock / stripes + (i < stock % stripes ? 1 : 0));
+            }
+        }
+
+        boolean take(int quantity) {
+            int start = (int) (Thread.currentThread().getId() % stripes);
+            for (int i = 0; i < stripes; i++) {
+                int at = ((start + i) % stripes) * PAD;
+                for (long value = cells.get(at); value >= quantity; value = cells.get(at)) {
+                    if (cells.compareAndSet(at, value, value - quantity)) {
+                        return true;
+                    }
+                }
+            }
+            // Gather piecewise, giving everything back if there is not enough in total
+            long[] taken = new long[stripes];
+            long total = 0;
+            for (int i = 0; i < stripes && total < quantity; i++) {
+                int at = i * PAD;
+                for (long value = cells.get(at); value > 0 && total < quantity; value = cells.get(at)) {
+                    long part = Math.min(value, quantity - total);
+                    if (cells.compareAndSet(at, value, value - part)) {
+                        taken[i] += part;
+                        total += part;
+                    }
+                }
+            }
+            if (total == quantity) {
+                return true;
+            }
+            for (int i = 0; i < stripes; i++) {
+                if (taken[i] > 0) {
+                    cells.addAndGet(i * PAD, taken[i]);
+                }
+            }
+            return false;
+        }
+
+        void put(int quantity) {
+            cells.addAndGet((int) (Thread.currentThread().getId() % stripes) * PAD, quantity);
+        }
+
+        long available() {
+            long total = 0;
+            for (int i = 0; i < stripes; i++) {
+                total += cells.get(i * PAD);
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.demo.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of flash-sale stock movements, one "seq bookId delta" line per record.
+ *
+ * Written through a {@link GroupCommitJournal}, which numbers each record as it writes it. A
+ * reservation is only confirmed once its record is durable, so after a crash the journal holds
+ * every confirmed sale and the records newer than a book's flushed sequence can be replayed.
+ */
+final class FlashSaleJournal implements AutoCloseable {
+
+    record Entry(long seq, String bookId, int delta) {
+    }
+
+    private final GroupCommitJournal<Entry> journal;
+    // Only touched by the journal's writer and under its file lock
+    private long lastSeq;
+
+    FlashSaleJournal(Path path, long lastSeq, Consumer<List<Entry>> onDurable) throws IOException {
+        this.lastSeq = lastSeq;
+        this.journal = new GroupCommitJournal<>(path, "flash-sale-journal",
+            entry -> new Entry(++this.lastSeq, entry.bookId(), entry.delta()),
+            entry -> entry.seq() + " " + entry.bookId() + " " + entry.delta(),
+            onDurable);
+    }
+
+    // Every complete record in the journal; a torn last line from a crash is skipped
+    static List<Entry> read(Path path) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (String line : GroupCommitJournal.readLines(path)) {
+            String[] parts = line.split(" ");
+            if (parts.length == 3) {
+                try {
+                    entries.add(new Entry(Long.parseLong(parts[0]), parts[1], Integer.parseInt(parts[2])));
+                } catch (NumberFormatException e) {
+                    // Partially written record
+                }
+            }
+        }
+        return entries;
+    }
+
+    // Completes once the record is on disk
+    CompletableFuture<Entry> append(String bookId, int delta) {
+        return journal.append(new Entry(0, bookId, delta));
+    }
+
+    /**
+     * Empties the journal if every record written so far has been flushed to the database.
+     * Returns false if newer records exist or are queued.
+     */
+    boolean truncateIfFlushed(long flushedSeq) throws IOException {
+        return journal.truncateIf(() -> flushedSeq >= lastSeq);
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.demo.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Append-only log of records, one line each, shared by the {@link FlashSaleJournal} and
+ * {@link OrderIngestion}.
+ *
+ * Appends are group-committed: a single writer thread drains everything queued, writes it in
+ * one go and forces it to disk once, then completes the callers' futures. {@code stamp} runs on
+ * each record in write order while holding the file lock (e.g. to assign a sequence number), and
+ * {@code onDurable} sees the batch once it is on disk but before any caller is told so.
+ */
+final class GroupCommitJournal<T> implements AutoCloseable {
+
+    private static final int MAX_BATCH = 4096;
+
+    private final Path path;
+    private final String name;
+    // Replaced by compact; only used while holding the file lock
+    private FileChannel channel;
+    private final BlockingQueue<Pending<T>> queue = new LinkedBlockingQueue<>();
+    private final UnaryOperator<T> stamp;
+    private final Function<T, String> format;
+    private final Consumer<List<T>> onDurable;
+    private final Thread writer;
+    private final Object fileLock = new Object();
+    private volatile boolean closed;
+
+    GroupCommitJournal(Path path, String name, UnaryOperator<T> stamp, Function<T, String> format,
+                       Consumer<List<T>> onDurable) throws IOException {
+        this.path = path;
+        this.name = name;
+        this.channel = open(path);
+        this.stamp = stamp;
+        this.format = format;
+        this.onDurable = onDurable;
+        this.writer = new Thread(this::run, name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Every non-blank line in the journal; a torn last line from a crash is left for the caller to reject
+    static List<String> readLines(Path path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return lines;
+        }
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    // Completes with the stamped record once it is on disk; its line must not contain line breaks
+    CompletableFuture<T> append(T record) {
+        Pending<T> pending = new Pending<>(record);
+        if (closed) {
+            pending.future.completeExceptionally(new IllegalStateException(name + " is closed"));
+        } else {
+            queue.add(pending);
+        }
+        return pending.future;
+    }
+
+    /**
+     * Empties the journal if nothing is queued and {@code flushed} says every record written so far
+     * is in the database. It is asked while holding the file lock, so no record can be written
+     * between the check and the truncate.
+     */
+    boolean truncateIf(BooleanSupplier flushed) throws IOException {
+        synchronized (fileLock) {
+            if (!queue.isEmpty() || !flushed.getAsBoolean()) {
+                return false;
+            }
+            if (channel.size() > 0) {
+                channel.truncate(0);
+                channel.force(true);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Drops every line {@code keep} rejects, e.g. records already in the database, while later
+     * records keep being appended. The kept lines are written to a new file that then replaces the
+     * journal, all while holding the file lock, so no record is written in between. Returns how many
+     * lines were kept.
+     */
+    int compact(Predicate<String> keep) throws IOException {
+        synchronized (fileLock) {
+            StringBuilder kept = new StringBuilder();
+            int count = 0;
+            for (String line : readLines(path)) {
+                if (keep.test(line)) {
+                    kept.append(line).append('\n');
+                    count++;
+                }
+            }
+            Path next = path.resolveSibling(path.getFileName() + ".compact");
+            try (FileChannel out = FileChannel.open(next, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = StandardCharsets.UTF_8.encode(kept.toString());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(true);
+            }
+            channel.close();
+            Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = open(path);
+            return count;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (fileLock) {
+            channel.close();
+        }
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void run() {
+        List<Pending<T>> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending<T> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                List<T> records = write(batch);
+                onDurable.accept(records);
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).future.complete(records.get(i));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                batch.forEach(pending -> pending.future.completeExceptionally(e));
+            }
+            batch.clear();
+        }
+    }
+
+    private List<T> write(List<Pending<T>> batch) throws IOException {
+        synchronized (fileLock) {
+            List<T> records = new ArrayList<>(batch.size());
+            StringBuilder lines = new StringBuilder(batch.size() * 64);
+            for (Pending<T> pending : batch) {
+                T record = stamp.apply(pending.record);
+                records.add(record);
+                lines.append(format.apply(record)).append('\n');
+            }
+            ByteBuffer buffer = StandardCharsets.UTF_8.encode(lines.toString());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // One fsync for the whole batch
+            channel.force(false);
+            return records;
+        }
+    }
+
+    private static final class Pending<T> {
+        final T record;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Pending(T record) {
+            this.record = record;
+        }
+    }
+}
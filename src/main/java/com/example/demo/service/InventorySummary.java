@@ -0,0 +1,191 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Running inventory totals: book counts and stock quantities per status and per category.
+ *
+ * Totals are loaded with one $group aggregation, then kept current by applying each
+ * BookChangeEvent as a delta (subtract the before state, add the after state) to LongAdders.
+ * A scheduled reconcile re-runs the aggregation and swaps in fresh totals to repair any drift,
+ * e.g. from writes that bypass BookService; {@link ReconcilingCounter} keeps it from counting a
+ * write twice.
+ */
+@Component
+public class InventorySummary {
+
+    static final String UNCATEGORIZED = "Uncategorized";
+    private static final int RECONCILE_ATTEMPTS = 3;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final ReconcilingCounter<Totals> counter =
+        new ReconcilingCounter<>(this::aggregate, InventorySummary::reportDrift, RECONCILE_ATTEMPTS);
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        reconcile();
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.reconcile-interval-ms:300000}",
+               initialDelayString = "${inventory.reconcile-interval-ms:300000}")
+    public void scheduledReconcile() {
+        reconcile();
+    }
+
+    /**
+     * Recounts from the database and replaces the running totals.
+     * Returns false if writes kept landing during every attempt; the current totals are then kept.
+     */
+    public boolean reconcile() {
+        return counter.reconcile();
+    }
+
+    private static void reportDrift(Totals current, Totals fresh) {
+        if (current != null && current.books.sum() != fresh.books.sum()) {
+            System.out.println("Inventory summary drifted: " + current.books.sum()
+                + " books counted, " + fresh.books.sum() + " in database");
+        }
+    }
+
+    // Build totals from books already in memory instead of the database
+    void load(List<Book> books) {
+        Totals fresh = new Totals();
+        for (Book book : books) {
+            apply(fresh, book, 1);
+        }
+        counter.set(fresh);
+    }
+
+    /**
+     * Runs a book write and the publishing of its BookChangeEvent, so a reconcile that overlaps it
+     * is retried rather than counting the write once in its aggregate and again as a delta.
+     */
+    <R> R write(Supplier<R> write) {
+        return counter.write(write);
+    }
+
+    @EventListener
+    public void onBookChanged(BookChangeEvent event) {
+        counter.apply(current -> {
+            if (event.getBefore() != null) {
+                apply(current, event.getBefore(), -1);
+            }
+            if (event.getAfter() != null) {
+                apply(current, event.getAfter(), 1);
+            }
+        });
+    }
+
+    /**
+     * Same shape as the old on-demand statistics: totalBooks plus books and quantity for each stock status,
+     * and a byCategory breakdown when asked. The status totals are read straight from their counters.
+     */
+    public Map<String, Object> getStatistics(boolean byCategory) {
+        Totals current = counter.get();
+        if (current == null) {
+            reconcile();
+            current = counter.get();
+        }
+        Map<String, Object> stats = toStatistics(current.books, current.byStatus);
+        if (byCategory) {
+            Map<String, Map<String, Object>> categories = new TreeMap<>();
+            current.byCategory.forEach((category, tally) -> {
+                if (tally.books.sum() > 0) {
+                    categories.put(category, toStatistics(tally.books, tally.byStatus));
+                }
+            });
+            stats.put("byCategory", categories);
+        }
+        return stats;
+    }
+
+    private Totals aggregate() {
+        // Status counts include archived books, quantities only count books still on sale
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.group("status", "category")
+                .count().as("count")
+                .sum(ConditionalOperators.when(Criteria.where("archived").is(true))
+                    .then(0)
+                    .otherwiseValueOf("stockQuantity")).as("quantity"));
+
+        Totals fresh = new Totals();
+        for (Document doc : mongoTemplate.aggregate(aggregation, Book.class, Document.class)) {
+            Document key = doc.get("_id", Document.class);
+            long count = ((Number) doc.get("count")).longValue();
+            long quantity = ((Number) doc.get("quantity")).longValue();
+            add(fresh, key.getString("status"), key.getString("category"), count, quantity);
+        }
+        return fresh;
+    }
+
+    private static void apply(Totals totals, Book book, int sign) {
+        long quantity = book.isArchived() ? 0 : book.getStockQuantity();
+        add(totals, book.getStatus(), book.getCategory(), sign, sign * quantity);
+    }
+
+    private static void add(Totals totals, String status, String category, long count, long quantity) {
+        String statusKey = String.valueOf(status);
+        CategoryTally categoryTally = totals.byCategory.computeIfAbsent(
+            category != null ? category : UNCATEGORIZED, k -> new CategoryTally());
+
+        totals.books.add(count);
+        totals.byStatus.computeIfAbsent(statusKey, k -> new Tally()).add(count, quantity);
+        categoryTally.books.add(count);
+        categoryTally.byStatus.computeIfAbsent(statusKey, k -> new Tally()).add(count, quantity);
+    }
+
+    private static Map<String, Object> toStatistics(LongAdder books, Map<String, Tally> byStatus) {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalBooks", books.sum());
+        putStatus(stats, "inStock", byStatus.get("IN_STOCK"));
+        putStatus(stats, "lowStock", byStatus.get("LOW_STOCK"));
+        putStatus(stats, "outOfStock", byStatus.get("OUT_OF_STOCK"));
+        return stats;
+    }
+
+    private static void putStatus(Map<String, Object> stats, String prefix, Tally tally) {
+        stats.put(prefix + "Books", tally != null ? tally.books.sum() : 0L);
+        stats.put(prefix + "Quantity", tally != null ? tally.quantity.sum() : 0L);
+    }
+
+    private static final class Tally {
+        final LongAdder books = new LongAdder();
+        final LongAdder quantity = new LongAdder();
+
+        void add(long count, long amount) {
+            books.add(count);
+            quantity.add(amount);
+        }
+    }
+
+    private static final class CategoryTally {
+        final LongAdder books = new LongAdder();
+        final Map<String, Tally> byStatus = new ConcurrentHashMap<>();
+    }
+
+    private static final class Totals {
+        final LongAdder books = new LongAdder();
+        final Map<String, Tally> byStatus = new ConcurrentHashMap<>();
+        final Map<String, CategoryTally> byCategory = new ConcurrentHashMap<>();
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.demo.service;
+
+/**
+ * Thrown when the write-behind order queue is full and cannot take another order right now.
+ */
+public class OrderBacklogException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public OrderBacklogException(int capacity) {
+        super("Too many orders waiting to be saved (" + capacity + "), please retry shortly");
+    }
+}
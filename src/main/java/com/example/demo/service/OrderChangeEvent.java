@@ -0,0 +1,31 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Order;
+
+// Published by OrderService after every write so running order totals stay in sync
+public class OrderChangeEvent {
+
+    private final Order before; // null when the order was placed
+    private final Order after;  // null when the order was deleted
+
+    public OrderChangeEvent(Order before, Order after) {
+        this.before = before;
+        this.after = after;
+    }
+
+    public Order getBefore() {
+        return before;
+    }
+
+    public Order getAfter() {
+        return after;
+    }
+
+    public String getOrderId() {
+        return after != null ? after.getId() : before.getId();
+    }
+
+    public boolean isDelete() {
+        return after == null;
+    }
+}
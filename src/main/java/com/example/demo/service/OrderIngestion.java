@@ -0,0 +1,444 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Order;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in write-behind path for new orders (orders.ingestion.enabled).
+ *
+ * An accepted order is made durable in a {@link GroupCommitJournal} and put on a bounded in-memory
+ * queue; the caller gets its id back as soon as the journal record is on disk. One drain thread
+ * inserts queued orders in batches of up to orders.ingestion.batch-size with a single unordered
+ * bulk insert, then publishes their OrderChangeEvents. Each record carries a sequence number, and
+ * every orders.ingestion.compact-every records, or whenever the queue runs dry, the journal is
+ * rewritten to hold only the records of orders not inserted yet, so it stays about as long as the
+ * queue under sustained load. On startup whatever a previous run left in it is inserted again, and
+ * orders that already made it are skipped by their _id.
+ *
+ * Only temporary failures (network, write concern) are retried for the whole batch. An order Mongo
+ * refuses for reasons of its own is tried once more on its own and, if it still fails, its journal
+ * record is moved to the dead-letter file (orders.ingestion.dead-letter-path) so the rest keep going.
+ *
+ * A full queue rejects new orders with {@link OrderBacklogException} rather than growing.
+ */
+@Component
+public class OrderIngestion {
+
+    public static final String QUEUED = "QUEUED";
+    private static final int DUPLICATE_KEY = 11000;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private BookSuggestionIndex suggestionIndex;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private OrderTotals orderTotals;
+
+    @Value("${orders.ingestion.enabled:false}")
+    private boolean enabled;
+
+    @Value("${orders.ingestion.journal-path:order-ingestion.journal}")
+    private String journalPath;
+
+    @Value("${orders.ingestion.dead-letter-path:order-ingestion.dead-letter}")
+    private String deadLetterPath;
+
+    @Value("${orders.ingestion.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${orders.ingestion.batch-size:500}")
+    private int batchSize;
+
+    @Value("${orders.ingestion.compact-every:10000}")
+    private int compactEvery;
+
+    // Orders accepted but not inserted yet, by id; an order is added before it is journaled
+    private final Map<String, Order> inFlight = new ConcurrentHashMap<>();
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // Sequence numbers of the journal records whose orders are neither inserted nor dead-lettered
+    private final Set<Long> unflushed = ConcurrentHashMap.newKeySet();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failedInserts = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private Semaphore slots;
+    private GroupCommitJournal<Entry> journal;
+    // Only touched by the drain thread, and by stop once it is done
+    private long compactedSeq;
+    private int keptRecords;
+    private Thread drainer;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() throws IOException {
+        Path path = Paths.get(journalPath);
+        recover(path);
+        if (!enabled) {
+            return;
+        }
+        slots = new Semaphore(queueCapacity);
+        journal = new GroupCommitJournal<>(path, "order-journal", entry -> entry, Entry::record, entries -> { });
+        running = true;
+        drainer = new Thread(this::drain, "order-ingestion");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    // Stop taking orders, insert what is queued, and keep the journal only if that failed
+    @PreDestroy
+    public void stop() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            drainer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        compactJournal();
+        journal.close();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues an order whose id is already assigned. Returns once it is journaled; throws
+     * OrderBacklogException when the queue is full and IllegalStateException when it could
+     * not be journaled. Either way nothing was queued.
+     */
+    public void enqueue(Order order) {
+        if (!running) {
+            throw new IllegalStateException("Order ingestion is not running");
+        }
+        Entry entry = new Entry(sequence.incrementAndGet(), order, toJson(order));
+        if (!slots.tryAcquire()) {
+            throw new OrderBacklogException(queueCapacity);
+        }
+        // Registered before the record is written, so a compaction cannot drop it
+        unflushed.add(entry.seq());
+        inFlight.put(order.getId(), order);
+        try {
+            journal.append(entry).join();
+        } catch (CompletionException e) {
+            inFlight.remove(order.getId());
+            unflushed.remove(entry.seq());
+            slots.release();
+            throw new IllegalStateException("Could not journal order", e.getCause());
+        }
+        accepted.increment();
+        queue.add(entry);
+    }
+
+    public boolean isQueued(String orderId) {
+        return orderId != null && inFlight.containsKey(orderId);
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("queued", inFlight.size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("accepted", accepted.sum());
+        stats.put("inserted", inserted.sum());
+        stats.put("batches", batches.sum());
+        stats.put("failedInserts", failedInserts.sum());
+        stats.put("deadLettered", deadLettered.sum());
+        return stats;
+    }
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (unflushed.isEmpty() && (keptRecords > 0 || sequence.get() != compactedSeq)) {
+                        compactJournal();
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                // The orders are durable in the journal, so keep retrying rather than drop them
+                while (!orderTotals.write(() -> insertAndPublish(batch))) {
+                    if (!running) {
+                        System.out.println("Leaving " + batch.size() + " orders in the journal for the next start");
+                        return;
+                    }
+                    Thread.sleep(RETRY_DELAY_MS);
+                }
+                batch.clear();
+                if (sequence.get() - compactedSeq >= compactEvery) {
+                    compactJournal();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean insertAndPublish(List<Entry> batch) {
+        Inserted result;
+        try {
+            result = insert(batch.stream().map(Entry::order).toList());
+        } catch (RuntimeException e) {
+            failedInserts.increment();
+            System.out.println("Inserting " + batch.size() + " queued orders failed: " + e.getMessage());
+            return false;
+        }
+        List<Order> stored = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = batch.get(i);
+            if (!result.rejected().contains(i)) {
+                // Orders already present were written by an earlier attempt that failed before publishing
+                stored.add(entry.order());
+                unflushed.remove(entry.seq());
+            } else if (deadLetter(List.of(entry.record()))) {
+                unflushed.remove(entry.seq());
+            }
+            inFlight.remove(entry.order().getId());
+        }
+        slots.release(batch.size());
+        inserted.add(stored.size());
+        batches.increment();
+        for (Order order : stored) {
+            publish(order);
+        }
+        return true;
+    }
+
+    private void publish(Order order) {
+        try {
+            suggestionIndex.recordOrder(order.getBookId(), order.getQuantity());
+            eventPublisher.publishEvent(new OrderChangeEvent(null, order));
+        } catch (RuntimeException e) {
+            // The order itself is inserted; a view that missed it catches up on its next reconcile
+            System.out.println("Order change listener failed for order " + order.getId() + ": " + e.getMessage());
+        }
+    }
+
+    // What an insert did: the orders it wrote, and the positions of those Mongo would not take
+    private record Inserted(List<Order> written, Set<Integer> rejected) {
+    }
+
+    /**
+     * One unordered bulk insert; orders already present from an earlier attempt are skipped by _id.
+     * Orders refused for any other reason are tried again one at a time, and those that still fail
+     * are reported as rejected. Temporary failures are thrown so the caller retries the whole batch.
+     */
+    private Inserted insert(List<Order> orders) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Order.class);
+        // Positions not written by the bulk insert, and those of them worth trying on their own
+        Set<Integer> skipped = new HashSet<>();
+        List<Integer> failed = new ArrayList<>();
+        try {
+            bulk.insert(orders);
+            bulk.execute();
+            return new Inserted(orders, Set.of());
+        } catch (BulkOperationException e) {
+            if (isTemporary(e)) {
+                throw e;
+            }
+            // Unordered, so every order without an error of its own is in
+            Set<String> duplicates = new HashSet<>();
+            for (BulkWriteError error : e.getErrors()) {
+                skipped.add(error.getIndex());
+                failed.add(error.getIndex());
+                if (error.getCode() == DUPLICATE_KEY) {
+                    duplicates.add(orders.get(error.getIndex()).getId());
+                }
+            }
+            // Orders already present from an earlier attempt need no second try
+            Query present = new Query(Criteria.where("id").in(duplicates));
+            present.fields().include("id");
+            Set<String> existing = new HashSet<>();
+            mongoTemplate.find(present, Order.class).forEach(order -> existing.add(order.getId()));
+            failed.removeIf(i -> existing.contains(orders.get(i).getId()));
+        } catch (RuntimeException e) {
+            if (isTemporary(e)) {
+                throw e;
+            }
+            // Refused before it reached the server, e.g. an order too large to send
+            for (int i = 0; i < orders.size(); i++) {
+                failed.add(i);
+                skipped.add(i);
+            }
+        }
+        Set<Integer> rejected = new HashSet<>();
+        List<Order> written = new ArrayList<>();
+        for (int i : failed) {
+            Order order = orders.get(i);
+            try {
+                mongoTemplate.insert(order);
+                written.add(order);
+            } catch (DuplicateKeyException e) {
+                // Already inserted by an earlier attempt, unless it clashed on some other unique index
+                if (!mongoTemplate.exists(new Query(Criteria.where("id").is(order.getId())), Order.class)) {
+                    rejected.add(i);
+                    System.out.println("Order " + order.getId() + " was refused: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                if (isTemporary(e)) {
+                    throw e;
+                }
+                rejected.add(i);
+                System.out.println("Order " + order.getId() + " was refused: " + e.getMessage());
+            }
+        }
+        for (int i = 0; i < orders.size(); i++) {
+            if (!skipped.contains(i)) {
+                written.add(orders.get(i));
+            }
+        }
+        return new Inserted(written, rejected);
+    }
+
+    // Worth retrying as is: the network, the server's availability or the write concern let it down
+    private static boolean isTemporary(RuntimeException e) {
+        if (e instanceof BulkOperationException bulk) {
+            return bulk.getCause() instanceof MongoBulkWriteException cause && cause.getWriteConcernError() != null;
+        }
+        return e instanceof DataAccessResourceFailureException || e instanceof TransientDataAccessException;
+    }
+
+    // Keeps the journal records of orders Mongo would not take, for someone to fix and re-submit.
+    // Returns false if they could not be written, and then they have to stay in the journal.
+    private boolean deadLetter(List<String> records) {
+        if (records.isEmpty()) {
+            return true;
+        }
+        deadLettered.add(records.size());
+        System.out.println("Moving " + records.size() + " refused orders to " + deadLetterPath);
+        try {
+            Files.write(Paths.get(deadLetterPath), records, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Could not write dead-letter orders: " + e.getMessage() + "; records: " + records);
+            return false;
+        }
+    }
+
+    // Rewrites the journal down to the records of orders still to be inserted
+    private void compactJournal() {
+        long seq = sequence.get();
+        try {
+            keptRecords = journal.compact(record -> unflushed.contains(Entry.seqOf(record)));
+            compactedSeq = seq;
+        } catch (IOException e) {
+            System.out.println("Could not compact order journal: " + e.getMessage());
+        }
+    }
+
+    // Insert the orders a previous run journaled but may not have written, then start a fresh journal
+    void recover(Path path) throws IOException {
+        List<Order> orders = new ArrayList<>();
+        List<String> records = new ArrayList<>();
+        for (String record : GroupCommitJournal.readLines(path)) {
+            try {
+                orders.add(mongoTemplate.getConverter().read(Order.class, Document.parse(Entry.jsonOf(record))));
+                records.add(record);
+            } catch (RuntimeException e) {
+                // Partially written record; its order was never acknowledged
+            }
+        }
+        if (!orders.isEmpty()) {
+            System.out.println("Recovering " + orders.size() + " journaled orders");
+            for (int from = 0; from < orders.size(); from += Math.max(batchSize, 1)) {
+                List<Order> batch = orders.subList(from, Math.min(orders.size(), from + Math.max(batchSize, 1)));
+                List<String> batchRecords = records.subList(from, from + batch.size());
+                orderTotals.write(() -> {
+                    Inserted result = insert(batch);
+                    List<String> refused = new ArrayList<>();
+                    for (int i : result.rejected()) {
+                        refused.add(batchRecords.get(i));
+                    }
+                    deadLetter(refused);
+                    // Orders already in Mongo were published by the run that wrote them
+                    for (Order order : result.written()) {
+                        publish(order);
+                    }
+                    return null;
+                });
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    // A journaled order: "seq json", the JSON being the document Mongo stores
+    private record Entry(long seq, Order order, String json) {
+
+        String record() {
+            return seq + " " + json;
+        }
+
+        // -1 for a record cut off by a crash
+        static long seqOf(String record) {
+            try {
+                return Long.parseLong(record.substring(0, Math.max(record.indexOf(' '), 0)));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        static String jsonOf(String record) {
+            return record.substring(record.indexOf(' ') + 1);
+        }
+    }
+
+    private String toJson(Order order) {
+        // Written the way Mongo stores the order, so dates and ObjectIds keep their BSON types
+        Document stored = new Document();
+        mongoTemplate.getConverter().write(order, stored);
+        return stored.toJson();
+    }
+}
@@ -3,107 +3,533 @@ package com.example.demo.service;
 import com.example.demo.model.Order;
 import com.example.demo.model.Book;
 import com.example.demo.repository.OrderRepository;
+import com.example.demo.util.FieldSelection;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 @Service
 public class OrderService {
     @Autowired
     private OrderRepository orderRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
     
     @Autowired
     private BookService bookService;
 
+    @Autowired
+    private BookSuggestionIndex suggestionIndex;
+
+    @Autowired
+    private FlashSaleInventory flashSaleInventory;
+
+    @Autowired
+    private OrderIngestion orderIngestion;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private OrderTotals orderTotals;
+
+    // Matches the (email, orderDate, _id) indexes on orders
+    private static final Sort HISTORY_SORT = Sort.by(Sort.Direction.DESC, "orderDate", "_id");
+
     public Order placeOrder(Order order) {
         order.setOrderDate(LocalDateTime.now());
         order.setStatus("PENDING");
+        System.out.println("Saving order for book " + order.getBookId() + " (" + order.getQuantity() + ") from " + order.getEmail());
+        
+        boolean flashSale = reserveStock(order.getBookId(), order.getQuantity());
+        order.setReservedQuantity(order.getQuantity());
+        
+        // Save the order, giving the copies back if that fails
+        return orderTotals.write(() -> {
+            Order savedOrder;
+            try {
+                savedOrder = orderRepository.save(order);
+            } catch (RuntimeException e) {
+                releaseStock(order.getBookId(), order.getQuantity(), flashSale);
+                throw e;
+            }
+            
+            System.out.println("Order saved with ID: " + savedOrder.getId());
+            
+            suggestionIndex.recordOrder(savedOrder.getBookId(), savedOrder.getQuantity());
+            eventPublisher.publishEvent(new OrderChangeEvent(null, savedOrder));
+            
+            return savedOrder;
+        });
+    }
+
+    /**
+     * Write-behind variant of placeOrder: takes the stock the same way, then hands the order to
+     * OrderIngestion and returns as soon as it is journaled, with its id already assigned. The
+     * order reads as QUEUED from getOrderStatus until it has been inserted.
+     */
+    public Order submitOrder(Order order) {
+        order.setId(new ObjectId().toHexString());
+        order.setOrderDate(LocalDateTime.now());
+        order.setStatus("PENDING");
+        
+        boolean flashSale = reserveStock(order.getBookId(), order.getQuantity());
+        order.setReservedQuantity(order.getQuantity());
+        try {
+            orderIngestion.enqueue(order);
+        } catch (RuntimeException e) {
+            releaseStock(order.getBookId(), order.getQuantity(), flashSale);
+            throw e;
+        }
+        return order;
+    }
+
+    // Status of an order, counting ones still waiting in the write-behind queue; null if there is none
+    public String getOrderStatus(String id) {
+        if (orderIngestion.isQueued(id)) {
+            return OrderIngestion.QUEUED;
+        }
+        return orderRepository.findById(id).map(Order::getStatus).orElse(null);
+    }
+
+    // Take copies off the shelf; the guarded update makes overselling impossible.
+    // Books on flash sale are reserved from in-memory stock instead of their document.
+    // Returns whether the book was on flash sale.
+    private boolean reserveStock(String bookId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be at least 1");
+        }
         
-        // Debug: Log what we're about to save
-        System.out.println("Saving order to database:");
-        System.out.println("Book ID: " + order.getBookId());
-        System.out.println("Book Title: " + order.getBookTitle());
-        System.out.println("First Name: " + order.getFirstName());
-        System.out.println("Last Name: " + order.getLastName());
-        System.out.println("Customer Name: " + order.getCustomerName());
-        System.out.println("Email: " + order.getEmail());
-        System.out.println("Phone: " + order.getPhone());
-        System.out.println("Quantity: " + order.getQuantity());
-        System.out.println("Payment Method: " + order.getPaymentMethod());
-        System.out.println("Company: " + order.getCompany());
-        System.out.println("Street Address: " + order.getStreetAddress());
-        System.out.println("City: " + order.getCity());
-        System.out.println("Postal Code: " + order.getPostalCode());
-        System.out.println("Country: " + order.getCountry());
-        System.out.println("State: " + order.getState());
-        System.out.println("Total Price: " + order.getTotalPrice());
-        
-        // Save the order
-        Order savedOrder = orderRepository.save(order);
-        
-        // Debug: Log what was actually saved
-        System.out.println("Order saved with ID: " + savedOrder.getId());
-        
-        return savedOrder;
+        boolean flashSale = flashSaleInventory.isOnSale(bookId);
+        if (flashSale) {
+            if (!flashSaleInventory.reserve(bookId, quantity)) {
+                throw new OutOfStockException(bookId, quantity, (int) flashSaleInventory.available(bookId));
+            }
+        } else if (bookService.reserveStock(bookId, quantity) == null) {
+            if (flashSaleInventory.isOnSale(bookId)) {
+                // The sale started meanwhile and now holds the stock
+                return reserveStock(bookId, quantity);
+            }
+            Book book = bookService.findById(bookId);
+            if (book == null || book.isArchived()) {
+                throw new IllegalArgumentException("Book not found");
+            }
+            throw new OutOfStockException(book.getId(), quantity, book.getStockQuantity());
+        }
+        return flashSale;
+    }
+
+    private void releaseStock(String bookId, int quantity, boolean flashSale) {
+        if (!flashSale || !flashSaleInventory.release(bookId, quantity)) {
+            bookService.releaseStock(bookId, quantity);
+        }
+    }
+
+    // Copies an order keeps off the shelf: all of them until it is cancelled
+    private static int heldCopies(Order order) {
+        return OrderStatus.CANCELLED.name().equals(order.getStatus()) ? 0 : order.getQuantity();
+    }
+
+    // Newest orders first, read from the orderDate index rather than sorting every order
+    public List<Order> getRecentOrders(int limit) {
+        return mongoTemplate.find(new Query().with(Sort.by(Sort.Direction.DESC, "orderDate", "_id")).limit(limit), Order.class);
+    }
+
+    // Taken from collection metadata, so it costs the same however many orders there are
+    public long countOrders() {
+        return mongoTemplate.estimatedCount(Order.class);
     }
 
     public List<Order> getAllOrders() {
         return orderRepository.findAll();
     }
 
+    // Only the selected fields are read
+    public List<Order> getAllOrders(FieldSelection fields) {
+        return fields.isAll() ? getAllOrders() : mongoTemplate.find(fields.applyTo(new Query()), Order.class);
+    }
+
+    // Cursor over every order, read in batches as the caller consumes it; close when done
+    public Stream<Order> streamAllOrders(FieldSelection fields) {
+        return mongoTemplate.stream(fields.applyTo(new Query().cursorBatchSize(500)), Order.class);
+    }
+
     public Optional<Order> getOrderById(String id) {
         return orderRepository.findById(id);
     }
 
     public Order updateOrderStatus(String id, String status) {
-        Optional<Order> opt = orderRepository.findById(id);
-        if (opt.isPresent()) {
-            Order order = opt.get();
-            order.setStatus(status);
-            return orderRepository.save(order);
+        return updateOrderStatus(id, status, null);
+    }
+
+    /**
+     * Moves an order along the OrderStatus transitions with one findAndModify that only matches
+     * while the order is in a status it may move from, so when two admins change it at once the
+     * second gets a StatusConflictException instead of silently overwriting the first. With
+     * expectedStatus the update only applies if the order is still in the status the caller saw.
+     */
+    public Order updateOrderStatus(String id, String status, String expectedStatus) {
+        OrderStatus next = OrderStatus.fromParam(status);
+        List<String> from = next.allowedFrom();
+        if (expectedStatus != null) {
+            OrderStatus expected = OrderStatus.fromParam(expectedStatus);
+            if (!from.contains(expected.name())) {
+                throw new IllegalArgumentException("An order cannot go from " + expected + " to " + next);
+            }
+            from = List.of(expected.name());
+        }
+        Update update = new Update().set("status", next.name());
+        boolean cancelling = next == OrderStatus.CANCELLED;
+        if (cancelling) {
+            update.set("reservedQuantity", 0);
         }
-        throw new RuntimeException("Order not found");
+        return modifyOrder(id, from, null, next, update, order -> {
+            order.setStatus(next.name());
+            if (cancelling) {
+                order.setReservedQuantity(0);
+            }
+        });
     }
 
+    /**
+     * Writes only the edited fields; the status has to stay as it is or follow a valid transition.
+     * Extra copies are reserved before the write and the update only matches the quantity they were
+     * worked out from, so a lost race gives them back; copies no longer needed are released after it.
+     */
     public Order updateOrder(String id, String customerName, Integer quantity, Double totalPrice, String status) {
-        Optional<Order> opt = orderRepository.findById(id);
-        if (opt.isPresent()) {
-            Order order = opt.get();
-            order.setCustomerName(customerName);
-            order.setQuantity(quantity);
-            order.setTotalPrice(totalPrice);
-            order.setStatus(status);
-            return orderRepository.save(order);
+        OrderStatus next = OrderStatus.fromParam(status);
+        Order current = orderRepository.findById(id).orElseThrow(() -> new RuntimeException("Order not found"));
+        Order edited = new Order(current);
+        edited.setQuantity(quantity);
+        edited.setStatus(next.name());
+        int extra = heldCopies(edited) - heldCopies(current);
+        boolean flashSale = extra > 0 && reserveStock(current.getBookId(), extra);
+        // Never more than the order now holds, so an old order that reserved nothing only gains what it took here
+        int reserved = Math.min(current.getReservedQuantity() + Math.max(extra, 0), heldCopies(edited));
+        
+        Update update = new Update()
+            .set("customerName", customerName)
+            .set("quantity", quantity)
+            .set("totalPrice", totalPrice)
+            .set("status", next.name())
+            .set("reservedQuantity", reserved);
+        try {
+            return modifyOrder(id, next.allowedFrom(), current.getQuantity(), next, update, order -> {
+                order.setCustomerName(customerName);
+                order.setQuantity(quantity);
+                order.setTotalPrice(totalPrice);
+                order.setStatus(next.name());
+                order.setReservedQuantity(reserved);
+            });
+        } catch (RuntimeException e) {
+            if (extra > 0) {
+                releaseStock(current.getBookId(), extra, flashSale);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Applies the update if the order is in one of the given statuses (and, when expectedQuantity is
+     * set, still has that quantity), replaying it on a copy of the old document for the event. Copies
+     * the change drops from reservedQuantity, e.g. on cancelling, go back on the shelf; only the
+     * request whose update matched does this, so they are released once however many admins race.
+     */
+    private Order modifyOrder(String id, List<String> fromStatuses, Integer expectedQuantity, OrderStatus next,
+                              Update update, Consumer<Order> change) {
+        Criteria criteria = Criteria.where("id").is(id).and("status").in(fromStatuses);
+        if (expectedQuantity != null) {
+            criteria.and("quantity").is(expectedQuantity);
+        }
+        OrderChangeEvent event = orderTotals.write(() -> {
+            Order before = mongoTemplate.findAndModify(new Query(criteria), update, Order.class);
+            if (before == null) {
+                return null;
+            }
+            Order after = new Order(before);
+            change.accept(after);
+            OrderChangeEvent changed = new OrderChangeEvent(before, after);
+            eventPublisher.publishEvent(changed);
+            return changed;
+        });
+        if (event == null) {
+            // Only a failed update pays for a second read, to tell a missing order from a conflict
+            Order current = orderRepository.findById(id).orElseThrow(() -> new RuntimeException("Order not found"));
+            throw new StatusConflictException("Order " + id, current.getStatus(), next.name());
         }
-        throw new RuntimeException("Order not found");
+        Order before = event.getBefore();
+        Order after = event.getAfter();
+        
+        int freed = before.getReservedQuantity() - after.getReservedQuantity();
+        if (freed > 0) {
+            releaseStock(before.getBookId(), freed, flashSaleInventory.isOnSale(before.getBookId()));
+        }
+        return after;
     }
 
+    // Removes the order in one step, so its copies go back at most once. A completed order's copies
+    // have left the shop and a cancelled one already gave them back, so only open orders release,
+    // and only the copies they reserved.
     public void deleteOrder(String id) {
-        Optional<Order> opt = orderRepository.findById(id);
-        if (opt.isPresent()) {
-            orderRepository.deleteById(id);
-        } else {
+        Order before = orderTotals.write(() -> {
+            Order removed = mongoTemplate.findAndRemove(new Query(Criteria.where("id").is(id)), Order.class);
+            if (removed != null) {
+                eventPublisher.publishEvent(new OrderChangeEvent(removed, null));
+            }
+            return removed;
+        });
+        if (before == null) {
             throw new RuntimeException("Order not found");
         }
+        
+        boolean open = OrderStatus.PENDING.name().equals(before.getStatus()) || OrderStatus.PROCESSING.name().equals(before.getStatus());
+        if (open && before.getReservedQuantity() > 0) {
+            releaseStock(before.getBookId(), before.getReservedQuantity(), flashSaleInventory.isOnSale(before.getBookId()));
+        }
     }
 
     public List<Order> getOrdersByEmail(String email) {
         List<Order> orders = orderRepository.findByEmail(email);
+        Map<String, Book> books = booksFor(orders);
         
-        // Enhance orders with book image URLs
+        // Keep book titles current
         for (Order order : orders) {
-            try {
-                Book book = bookService.findById(order.getBookId());
-                // Update book title to ensure it's current
+            Book book = books.get(order.getBookId());
+            if (book != null) {
                 order.setBookTitle(book.getTitle());
-            } catch (Exception e) {
-                System.out.println("Error fetching book details for order: " + e.getMessage());
             }
         }
         
         return orders;
     }
-} 
\ No newline at end of file
+
+    // A customer's orders, newest first, each with its book's current title, image and price
+    public List<Map<String, Object>> getOrderHistory(String email) {
+        return getOrderHistory(email, null, null, null);
+    }
+
+    // Same, limited to one status and/or an order date range (either end may be null)
+    public List<Map<String, Object>> getOrderHistory(String email, String status, LocalDateTime from, LocalDateTime to) {
+        Query query = new Query(historyCriteria(email, status, from, to)).with(HISTORY_SORT);
+        return toHistory(mongoTemplate.find(query, Order.class));
+    }
+
+    /**
+     * One page of order history, newest first. Pass an empty cursor for the first page, then each
+     * result's nextCursor (null after the last page). The cursor holds the last order's date and id,
+     * so every page is a range scan of the (email, orderDate, _id) index however far back it is.
+     */
+    public Map<String, Object> getOrderHistoryPage(String email, String status, LocalDateTime from,
+                                                   LocalDateTime to, String cursor, int size) {
+        Criteria criteria = historyCriteria(email, status, from, to);
+        if (cursor != null && !cursor.isEmpty()) {
+            Document position = decodeCursor(cursor);
+            criteria = new Criteria().andOperator(criteria,
+                afterPosition("orderDate", -1, position.get("v"), position.get("id")));
+        }
+        
+        // Read one extra order to learn whether another page follows
+        Query query = new Query(criteria).with(HISTORY_SORT).limit(size + 1);
+        List<Order> orders = new ArrayList<>(mongoTemplate.find(query, Order.class));
+        String nextCursor = null;
+        if (orders.size() > size) {
+            orders = new ArrayList<>(orders.subList(0, size));
+            nextCursor = encodeCursor(orders.get(size - 1), "orderDate", -1);
+        }
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("orders", toHistory(orders));
+        result.put("nextCursor", nextCursor);
+        return result;
+    }
+
+    private Criteria historyCriteria(String email, String status, LocalDateTime from, LocalDateTime to) {
+        Criteria criteria = Criteria.where("email").is(email);
+        if (status != null && !status.isEmpty()) {
+            criteria.and("status").is(status);
+        }
+        if (from != null || to != null) {
+            Criteria orderDate = criteria.and("orderDate");
+            if (from != null) {
+                orderDate.gte(from);
+            }
+            if (to != null) {
+                orderDate.lt(to);
+            }
+        }
+        return criteria;
+    }
+
+    /**
+     * One page of the admin order grid. Every filter is optional: status, payment method, an order
+     * date range (to is exclusive) and search, a case-insensitive match on customer name, email or
+     * book title. Sorted on an OrderSortField (newest first by default) with _id breaking ties, and
+     * paged by cursor like the book list: pass an empty cursor first, then each nextCursor. The total
+     * is only counted when asked for, since it is the one part whose cost grows with the collection.
+     */
+    public Map<String, Object> getOrderGridPage(String status, String paymentMethod, LocalDateTime from,
+                                                LocalDateTime to, String search, String sortBy,
+                                                String sortOrder, String cursor, int size,
+                                                boolean includeTotal, FieldSelection fields) {
+        String field = OrderSortField.fromParam(sortBy).getField();
+        int direction = "asc".equalsIgnoreCase(sortOrder) ? 1 : -1;
+        Criteria filters = gridCriteria(status, paymentMethod, from, to, search);
+        Criteria criteria = filters;
+        
+        if (cursor != null && !cursor.isEmpty()) {
+            // The cursor's own sort wins so a page can never be read with a different ordering
+            Document position = decodeCursor(cursor);
+            if (position.getString("s") == null || !(position.get("d") instanceof Integer)) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            field = OrderSortField.fromParam(position.getString("s")).getField();
+            direction = position.getInteger("d");
+            criteria = new Criteria().andOperator(filters,
+                afterPosition(field, direction, position.get("v"), position.get("id")));
+        }
+        
+        Sort.Direction sortDirection = direction < 0 ? Sort.Direction.DESC : Sort.Direction.ASC;
+        Query query = new Query(criteria).with(Sort.by(sortDirection, field, "_id")).limit(size + 1);
+        fields.applyTo(query, field);
+        List<Order> orders = new ArrayList<>(mongoTemplate.find(query, Order.class));
+        String nextCursor = null;
+        if (orders.size() > size) {
+            orders = new ArrayList<>(orders.subList(0, size));
+            nextCursor = encodeCursor(orders.get(size - 1), field, direction);
+        }
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("orders", orders);
+        result.put("nextCursor", nextCursor);
+        if (includeTotal) {
+            result.put("totalOrders", mongoTemplate.count(new Query(filters), Order.class));
+        }
+        return result;
+    }
+
+    private Criteria gridCriteria(String status, String paymentMethod, LocalDateTime from, LocalDateTime to,
+                                  String search) {
+        Criteria criteria = new Criteria();
+        if (status != null && !status.isEmpty()) {
+            criteria.and("status").is(status);
+        }
+        if (paymentMethod != null && !paymentMethod.isEmpty()) {
+            criteria.and("paymentMethod").is(paymentMethod);
+        }
+        if (from != null || to != null) {
+            Criteria orderDate = criteria.and("orderDate");
+            if (from != null) {
+                orderDate.gte(from);
+            }
+            if (to != null) {
+                orderDate.lt(to);
+            }
+        }
+        if (search != null && !search.trim().isEmpty()) {
+            String pattern = Pattern.quote(search.trim());
+            criteria.orOperator(
+                Criteria.where("customerName").regex(pattern, "i"),
+                Criteria.where("email").regex(pattern, "i"),
+                Criteria.where("bookTitle").regex(pattern, "i"));
+        }
+        return criteria;
+    }
+
+    private Criteria afterPosition(String field, int direction, Object value, Object id) {
+        if (direction < 0) {
+            return new Criteria().orOperator(
+                Criteria.where(field).lt(value),
+                Criteria.where(field).is(value).and("_id").lt(id));
+        }
+        return new Criteria().orOperator(
+            Criteria.where(field).gt(value),
+            Criteria.where(field).is(value).and("_id").gt(id));
+    }
+
+    private String encodeCursor(Order last, String field, int direction) {
+        // Written the way Mongo stores the order, so dates and ObjectIds keep their BSON types
+        Document stored = new Document();
+        mongoTemplate.getConverter().write(last, stored);
+        Document position = new Document("s", field)
+            .append("d", direction)
+            .append("v", stored.get(field))
+            .append("id", stored.get("_id"));
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString(position.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Document decodeCursor(String cursor) {
+        try {
+            Document position = Document.parse(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+            if (position.get("id") == null) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return position;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+
+    private List<Map<String, Object>> toHistory(List<Order> orders) {
+        Map<String, Book> books = booksFor(orders);
+        List<Map<String, Object>> history = new ArrayList<>();
+        
+        for (Order order : orders) {
+            Book book = books.get(order.getBookId());
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("id", order.getId());
+            entry.put("bookId", order.getBookId());
+            entry.put("bookTitle", book != null ? book.getTitle() : order.getBookTitle());
+            entry.put("bookImageUrl", book != null ? book.getImageUrl() : null);
+            entry.put("bookPrice", book != null ? book.getPrice() : null);
+            entry.put("firstName", order.getFirstName());
+            entry.put("lastName", order.getLastName());
+            entry.put("customerName", order.getCustomerName());
+            entry.put("email", order.getEmail());
+            entry.put("phone", order.getPhone());
+            entry.put("quantity", order.getQuantity());
+            entry.put("totalPrice", order.getTotalPrice());
+            entry.put("paymentMethod", order.getPaymentMethod());
+            entry.put("company", order.getCompany());
+            entry.put("streetAddress", order.getStreetAddress());
+            entry.put("city", order.getCity());
+            entry.put("postalCode", order.getPostalCode());
+            entry.put("country", order.getCountry());
+            entry.put("state", order.getState());
+            entry.put("orderDate", order.getOrderDate());
+            entry.put("status", order.getStatus());
+            history.add(entry);
+        }
+        
+        return history;
+    }
+
+    // The books of all the orders in one batch, rather than a lookup per order
+    private Map<String, Book> booksFor(List<Order> orders) {
+        List<String> bookIds = new ArrayList<>();
+        for (Order order : orders) {
+            bookIds.add(order.getBookId());
+        }
+        return bookService.findAllById(bookIds);
+    }
+}
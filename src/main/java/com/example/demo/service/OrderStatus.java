@@ -0,0 +1,35 @@
+package com.example.demo.service;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Order lifecycle. PENDING may move on to any other status (a counter sale completes at once),
+// PROCESSING only to COMPLETED or CANCELLED, and those two are final.
+public enum OrderStatus {
+    PENDING,
+    PROCESSING,
+    COMPLETED,
+    CANCELLED;
+
+    public boolean canBecome(OrderStatus next) {
+        return switch (this) {
+            case PENDING -> next != PENDING;
+            case PROCESSING -> next == COMPLETED || next == CANCELLED;
+            case COMPLETED, CANCELLED -> false;
+        };
+    }
+
+    // The statuses an order may be in for an update to this one to apply; setting the current status again is a no-op
+    public List<String> allowedFrom() {
+        return Arrays.stream(values()).filter(status -> status == this || status.canBecome(this)).map(Enum::name).toList();
+    }
+
+    public static OrderStatus fromParam(String status) {
+        for (OrderStatus orderStatus : values()) {
+            if (orderStatus.name().equals(status)) {
+                return orderStatus;
+            }
+        }
+        throw new IllegalArgumentException("Unknown order status '" + status + "'. Supported: " + Arrays.toString(values()));
+    }
+}
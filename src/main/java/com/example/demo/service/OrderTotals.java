@@ -0,0 +1,124 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Order;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Running order totals for the admin dashboard: order count and revenue per status.
+ *
+ * Works like InventorySummary, through the same {@link ReconcilingCounter}: loaded with one $group
+ * aggregation, kept current by applying each OrderChangeEvent as a delta, and recounted by a
+ * scheduled reconcile to repair drift from writes that bypass OrderService. Revenue is held in cents so the running sums stay exact.
+ */
+@Component
+public class OrderTotals {
+
+    static final String COMPLETED = "COMPLETED";
+    private static final int RECONCILE_ATTEMPTS = 3;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final ReconcilingCounter<Map<String, Tally>> counter =
+        new ReconcilingCounter<>(this::aggregate, (current, fresh) -> { }, RECONCILE_ATTEMPTS);
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        reconcile();
+    }
+
+    @Scheduled(fixedDelayString = "${orders.reconcile-interval-ms:300000}",
+               initialDelayString = "${orders.reconcile-interval-ms:300000}")
+    public void scheduledReconcile() {
+        reconcile();
+    }
+
+    // Recounts from the database; returns false if writes kept landing during every attempt
+    public boolean reconcile() {
+        return counter.reconcile();
+    }
+
+    // Runs an order write and the publishing of its OrderChangeEvent; see ReconcilingCounter
+    <R> R write(Supplier<R> write) {
+        return counter.write(write);
+    }
+
+    @EventListener
+    public void onOrderChanged(OrderChangeEvent event) {
+        counter.apply(current -> {
+            if (event.getBefore() != null) {
+                apply(current, event.getBefore(), -1);
+            }
+            if (event.getAfter() != null) {
+                apply(current, event.getAfter(), 1);
+            }
+        });
+    }
+
+    // Revenue of completed orders
+    public double getRevenue() {
+        Tally completed = current().get(COMPLETED);
+        return completed != null ? completed.revenueCents.sum() / 100.0 : 0.0;
+    }
+
+    // Number of orders in each status
+    public Map<String, Long> getOrdersByStatus() {
+        Map<String, Long> counts = new TreeMap<>();
+        current().forEach((status, tally) -> {
+            if (tally.orders.sum() > 0) {
+                counts.put(status, tally.orders.sum());
+            }
+        });
+        return counts;
+    }
+
+    private Map<String, Tally> current() {
+        Map<String, Tally> current = counter.get();
+        if (current == null) {
+            reconcile();
+            current = counter.get();
+        }
+        return current;
+    }
+
+    private Map<String, Tally> aggregate() {
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.group("status").count().as("count").sum("totalPrice").as("revenue"));
+
+        Map<String, Tally> fresh = new ConcurrentHashMap<>();
+        for (Document doc : mongoTemplate.aggregate(aggregation, Order.class, Document.class)) {
+            long count = ((Number) doc.get("count")).longValue();
+            long cents = Math.round(((Number) doc.get("revenue")).doubleValue() * 100);
+            add(fresh, doc.getString("_id"), count, cents);
+        }
+        return fresh;
+    }
+
+    private static void apply(Map<String, Tally> totals, Order order, int sign) {
+        add(totals, order.getStatus(), sign, sign * Math.round(order.getTotalPrice() * 100));
+    }
+
+    private static void add(Map<String, Tally> totals, String status, long count, long cents) {
+        Tally tally = totals.computeIfAbsent(String.valueOf(status), k -> new Tally());
+        tally.orders.add(count);
+        tally.revenueCents.add(cents);
+    }
+
+    private static final class Tally {
+        final LongAdder orders = new LongAdder();
+        final LongAdder revenueCents = new LongAdder();
+    }
+}
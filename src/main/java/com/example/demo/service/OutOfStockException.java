@@ -0,0 +1,26 @@
+package com.example.demo.service;
+
+/**
+ * Thrown when an order asks for more copies of a book than are left.
+ */
+public class OutOfStockException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String bookId;
+    private final int available;
+
+    public OutOfStockException(String bookId, int requested, int available) {
+        super("Only " + Math.max(available, 0) + " copies left, " + requested + " requested");
+        this.bookId = bookId;
+        this.available = Math.max(available, 0);
+    }
+
+    public String getBookId() {
+        return bookId;
+    }
+
+    public int getAvailable() {
+        return available;
+    }
+}
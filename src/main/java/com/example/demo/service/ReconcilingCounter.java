@@ -0,0 +1,113 @@
+package com.example.demo.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Running totals that follow change events as deltas and are now and then replaced by a fresh
+ * aggregate from the database; shared by InventorySummary and OrderTotals.
+ *
+ * A write that the aggregate already counted, but whose event is applied only after the swap, would
+ * be counted twice. So writers run the database call and the publishing of its event inside
+ * {@link #write}, and an aggregate is only swapped in if no write was in progress when it finished
+ * and none finished or applied a delta while it ran. Otherwise it may or may not include those
+ * writes, and the reconcile is retried.
+ */
+final class ReconcilingCounter<T> {
+
+    private final Supplier<T> aggregate;
+    private final BiConsumer<T, T> onSwap;
+    private final int attempts;
+
+    private volatile T totals;
+    // Bumped by every applied delta and every finished write
+    private final AtomicLong version = new AtomicLong();
+    // Writes between their database call and the publishing of its event
+    private final AtomicInteger writing = new AtomicInteger();
+    // Deltas share the read lock; only the swap of a reconciled snapshot takes the write lock
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+
+    // onSwap sees the replaced totals (null on the first load) and the fresh ones
+    ReconcilingCounter(Supplier<T> aggregate, BiConsumer<T, T> onSwap, int attempts) {
+        this.aggregate = aggregate;
+        this.onSwap = onSwap;
+        this.attempts = attempts;
+    }
+
+    T get() {
+        return totals;
+    }
+
+    // Totals built somewhere else, e.g. from books already in memory
+    void set(T fresh) {
+        swapLock.writeLock().lock();
+        try {
+            totals = fresh;
+            version.incrementAndGet();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    // Runs a database write together with the publishing of its change event
+    <R> R write(Supplier<R> write) {
+        writing.incrementAndGet();
+        try {
+            return write.get();
+        } finally {
+            version.incrementAndGet();
+            writing.decrementAndGet();
+        }
+    }
+
+    // Applies a change to the running totals; dropped until the first reconcile, which counts it
+    void apply(Consumer<T> delta) {
+        swapLock.readLock().lock();
+        try {
+            T current = totals;
+            if (current == null) {
+                return;
+            }
+            delta.accept(current);
+            version.incrementAndGet();
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recounts and replaces the running totals. Returns false if writes kept landing during every
+     * attempt; the current totals are then kept, or, if nothing was loaded yet, the last count is
+     * used until the next reconcile.
+     */
+    synchronized boolean reconcile() {
+        T fresh = null;
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            long seen = version.get();
+            fresh = aggregate.get();
+            swapLock.writeLock().lock();
+            try {
+                if (version.get() == seen && writing.get() == 0) {
+                    onSwap.accept(totals, fresh);
+                    totals = fresh;
+                    return true;
+                }
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+        }
+        swapLock.writeLock().lock();
+        try {
+            if (totals == null) {
+                totals = fresh;
+            }
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.demo.service;
+
+/**
+ * Thrown when an order or bill is not in a status it may be moved from, usually because someone
+ * else changed it first.
+ */
+public class StatusConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String currentStatus;
+
+    public StatusConflictException(String what, String currentStatus, String requestedStatus) {
+        super(what + " is " + currentStatus + " and cannot become " + requestedStatus);
+        this.currentStatus = currentStatus;
+    }
+
+    public String getCurrentStatus() {
+        return currentStatus;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.demo.util;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The fields a client asked for with {@code ?fields=title,price}.
+ *
+ * Applied twice: as the Mongo projection, so unrequested fields are never read from disk, and to the
+ * response, so they are not serialized either (a projected entity would otherwise still print them
+ * as null or 0). The id is always included.
+ */
+public final class FieldSelection {
+
+    // Still an IllegalArgumentException for handlers that catch those; a 400 for the ones that don't
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public static class UnknownFieldException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        public UnknownFieldException(String field) {
+            super("Unknown field '" + field + "'");
+        }
+    }
+
+    public static final FieldSelection ALL = new FieldSelection(null);
+
+    private final Set<String> fields;
+
+    private FieldSelection(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    // Blank means every field; anything that is not a serialized field of the type is rejected
+    public static FieldSelection parse(String param, Class<?> type) {
+        if (param == null || param.isBlank()) {
+            return ALL;
+        }
+        Set<String> known = new LinkedHashSet<>();
+        for (Field field : type.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !field.isAnnotationPresent(JsonIgnore.class)) {
+                known.add(field.getName());
+            }
+        }
+        Set<String> fields = new LinkedHashSet<>();
+        fields.add("id");
+        for (String name : param.split(",")) {
+            String field = name.trim();
+            if (field.isEmpty()) {
+                continue;
+            }
+            if (!known.contains(field)) {
+                throw new UnknownFieldException(field);
+            }
+            fields.add(field);
+        }
+        return new FieldSelection(fields);
+    }
+
+    public boolean isAll() {
+        return fields == null;
+    }
+
+    /**
+     * Restricts the query to the selected fields plus any the server needs itself
+     * (a sort key for the next cursor, say); those extras are dropped again by {@link #select}.
+     */
+    public Query applyTo(Query query, String... alsoRead) {
+        if (fields != null) {
+            fields.forEach(query.fields()::include);
+            for (String field : alsoRead) {
+                query.fields().include(field);
+            }
+        }
+        return query;
+    }
+
+    public String[] fields() {
+        return fields != null ? fields.toArray(new String[0]) : new String[0];
+    }
+
+    // The entities themselves when nothing was selected, otherwise a map per entity holding just the selection
+    public List<?> select(List<?> items, ObjectMapper objectMapper) {
+        if (fields == null) {
+            return items;
+        }
+        List<Map<String, Object>> selected = new ArrayList<>(items.size());
+        for (Object item : items) {
+            selected.add(select(item, objectMapper));
+        }
+        return selected;
+    }
+
+    public Object selectOne(Object item, ObjectMapper objectMapper) {
+        return fields == null ? item : select(item, objectMapper);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> select(Object item, ObjectMapper objectMapper) {
+        Map<String, Object> all = objectMapper.convertValue(item, Map.class);
+        Map<String, Object> selected = new LinkedHashMap<>();
+        for (String field : fields) {
+            if (all.containsKey(field)) {
+                selected.put(field, all.get(field));
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.demo.util;
+
+import com.example.demo.model.IdempotencyRecord;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Runs a POST at most once per Idempotency-Key, so a client that retries after a timeout gets the
+ * first response back instead of creating a second order or bill.
+ *
+ * The response is kept in a bounded LRU map and in the idempotency_keys collection, whose TTL
+ * index drops it after {@link IdempotencyRecord#TTL_SECONDS}; the collection covers restarts and
+ * keys that have fallen out of memory. A duplicate that arrives while the first request is still
+ * running waits for its result rather than running alongside it. 5xx responses and exceptions are
+ * not kept, so the next retry runs the request again.
+ */
+@Component
+public class IdempotentRequests {
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    private static final int MAX_KEY_LENGTH = 255;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${idempotency.cache-size:10000}")
+    private int cacheSize;
+
+    // Guarded by itself; access-ordered, so the least recently used key is evicted first
+    private final LinkedHashMap<String, CompletableFuture<IdempotencyRecord>> recent = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The response {@code action} gave the first time this key was used in {@code scope}, running
+     * it now if it never has. Without a key the action simply runs. A key reused with a different
+     * request body gets 422.
+     */
+    public ResponseEntity<Map<String, Object>> execute(String scope, String key, Object request,
+                                                       Supplier<ResponseEntity<Map<String, Object>>> action) {
+        if (key == null || key.isBlank()) {
+            return action.get();
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            return error(HttpStatus.BAD_REQUEST, HEADER + " must be at most " + MAX_KEY_LENGTH + " characters");
+        }
+        String id = scope + ":" + key;
+        // Taken before the action runs, since it may fill in fields of the request
+        String requestHash = fingerprint(request);
+
+        while (true) {
+            CompletableFuture<IdempotencyRecord> first;
+            CompletableFuture<IdempotencyRecord> claim = new CompletableFuture<>();
+            synchronized (recent) {
+                first = recent.get(id);
+                if (first == null || isExpired(first)) {
+                    recent.put(id, claim);
+                    evict();
+                    first = null;
+                }
+            }
+            if (first == null) {
+                return executeOnce(id, requestHash, claim, action);
+            }
+            IdempotencyRecord record = first.join();
+            if (record != null) {
+                return replay(record, requestHash);
+            }
+            // The first request failed without a response to keep, so this one runs it again
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> executeOnce(String id, String requestHash,
+                                                             CompletableFuture<IdempotencyRecord> claim,
+                                                             Supplier<ResponseEntity<Map<String, Object>>> action) {
+        try {
+            // Answered before this instance started, or by another one
+            IdempotencyRecord record = mongoTemplate.findById(id, IdempotencyRecord.class);
+            if (record != null && !isExpired(record)) {
+                claim.complete(record);
+                return replay(record, requestHash);
+            }
+
+            ResponseEntity<Map<String, Object>> response = action.get();
+            if (response.getStatusCode().is5xxServerError()) {
+                forget(id, claim);
+                return response;
+            }
+            claim.complete(save(id, requestHash, response));
+            return response;
+        } catch (RuntimeException e) {
+            forget(id, claim);
+            throw e;
+        }
+    }
+
+    private IdempotencyRecord save(String id, String requestHash, ResponseEntity<Map<String, Object>> response) {
+        IdempotencyRecord record;
+        try {
+            record = new IdempotencyRecord(id, requestHash, response.getStatusCode().value(),
+                objectMapper.writeValueAsString(response.getBody()), LocalDateTime.now());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not store response for " + id, e);
+        }
+        try {
+            mongoTemplate.save(record);
+        } catch (RuntimeException e) {
+            // Still replayed from memory; only a retry after a restart would run the request again
+            System.out.println("Could not persist idempotency key " + id + ": " + e.getMessage());
+        }
+        return record;
+    }
+
+    private ResponseEntity<Map<String, Object>> replay(IdempotencyRecord record, String requestHash) {
+        if (!record.getRequestHash().equals(requestHash)) {
+            return error(HttpStatus.UNPROCESSABLE_ENTITY, HEADER + " was already used for a different request");
+        }
+        try {
+            Map<String, Object> body = objectMapper.readValue(record.getBody(), new TypeReference<Map<String, Object>>() {});
+            return ResponseEntity.status(record.getStatus()).header(REPLAYED_HEADER, "true").body(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not read stored response for " + record.getId(), e);
+        }
+    }
+
+    // Drop a claim that produced nothing to replay and wake anyone waiting on it
+    private void forget(String id, CompletableFuture<IdempotencyRecord> claim) {
+        synchronized (recent) {
+            recent.remove(id, claim);
+        }
+        claim.complete(null);
+    }
+
+    private static boolean isExpired(CompletableFuture<IdempotencyRecord> entry) {
+        return entry.isDone() && isExpired(entry.join());
+    }
+
+    private static boolean isExpired(IdempotencyRecord record) {
+        return record != null && record.getCreatedAt() != null
+            && record.getCreatedAt().plusSeconds(IdempotencyRecord.TTL_SECONDS).isBefore(LocalDateTime.now());
+    }
+
+    // Called holding recent; requests still running are never evicted
+    private void evict() {
+        Iterator<CompletableFuture<IdempotencyRecord>> entries = recent.values().iterator();
+        while (recent.size() > cacheSize && entries.hasNext()) {
+            if (entries.next().isDone()) {
+                entries.remove();
+            }
+        }
+    }
+
+    private String fingerprint(Object request) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(request);
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(json));
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Could not fingerprint request", e);
+        }
+    }
+
+    private static ResponseEntity<Map<String, Object>> error(HttpStatus status, String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", message);
+        return ResponseEntity.status(status).body(response);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.demo.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+// Writes documents to the response as newline-delimited JSON, one line per document as it is read
+@Component
+public class NdjsonWriter {
+
+    public static final String MEDIA_TYPE = "application/x-ndjson";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Serializes each element straight into the servlet output buffer, which goes out to the client
+     * whenever it fills. When the client reads slowly the write blocks, and so does the next cursor
+     * batch, so only one batch is ever in memory. The stream (and its cursor) is closed here.
+     */
+    public long write(Stream<?> documents, HttpServletResponse response) throws IOException {
+        response.setContentType(MEDIA_TYPE);
+        response.setCharacterEncoding("UTF-8");
+        // Flushing after every document would send one chunk per line
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        long count = 0;
+        try (documents; JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            Iterator<?> iterator = documents.iterator();
+            while (iterator.hasNext()) {
+                writer.writeValue(generator, iterator.next());
+                generator.writeRaw('\n');
+                count++;
+            }
+        }
+        return count;
+    }
+}
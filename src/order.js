@@ -10,6 +10,8 @@ document.addEventListener("DOMContentLoaded", async () => {
 
 // Global variable to store current book's base price
 let currentBookBasePrice = 0;
+// Idempotency-Key of an order that was sent but never answered, reused if the same order is sent again
+let unansweredOrder = null;
 
 // Initialize order page
 async function initializeOrderPage() {
@@ -333,14 +335,20 @@ async function handleOrderSubmission(event) {
     console.log("Total Price:", orderData.totalPrice);
     console.log("=== END DEBUG ===");
     
-    // Call the backend API
+    // Call the backend API; resending an unanswered order reuses its key so it cannot be placed twice
+    const orderBody = JSON.stringify(orderData);
+    if (!unansweredOrder || unansweredOrder.body !== orderBody) {
+      unansweredOrder = { body: orderBody, key: newIdempotencyKey() };
+    }
     const response = await fetch('http://localhost:8080/api/orders', {
       method: 'POST',
       headers: {
         'Content-Type': 'application/json',
+        'Idempotency-Key': unansweredOrder.key
       },
-      body: JSON.stringify(orderData)
+      body: orderBody
     });
+    unansweredOrder = null;
     
     const result = await response.json();
     console.log("Backend response:", result);
@@ -360,6 +368,9 @@ async function handleOrderSubmission(event) {
         console.log("No success property in response, assuming success");
         showOrderSuccess(orderData, result.id || result._id || Date.now());
       }
+    } else if (response.status === 409) {
+      // Not enough copies left for this order
+      showOrderError(result.message);
     } else {
       // HTTP error status
       showOrderError(`HTTP ${response.status}: ${result.message || "Failed to place order"}`);
@@ -648,6 +659,10 @@ function initializeFooterAnimations() {
   }
 }
 
+function newIdempotencyKey() {
+  return crypto.randomUUID ? crypto.randomUUID() : Date.now() + '-' + Math.random().toString(36).slice(2);
+}
+
 // Add CSS for success/error messages and price animation
 const style = document.createElement('style');
 style.textContent = `
@@ -0,0 +1,201 @@
+package com.example.demo;
+
+import com.example.demo.model.Book;
+import com.example.demo.service.BookService;
+import com.example.demo.service.InventorySummary;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Catalog query benchmarks against a seeded 100k book collection.
+ * Run with {@code mvn test -Dtest=CatalogQueryBenchmarkTests -Dbenchmarks=true} against a real MongoDB.
+ */
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_bench")
+@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+class CatalogQueryBenchmarkTests {
+
+	static final int CATALOG_SIZE = 100_000;
+	static final int ITERATIONS = 200;
+	static final String[] CATEGORIES = {
+		"Novels", "Children", "Science", "History", "Poetry", "Education", "Biography", "Fiction"
+	};
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	InventorySummary inventorySummary;
+
+	@BeforeEach
+	void seedCatalog() {
+		seed(mongoTemplate);
+	}
+
+	static void seed(MongoTemplate mongoTemplate) {
+		if (mongoTemplate.count(new Query(), Book.class) >= CATALOG_SIZE) {
+			return;
+		}
+		Random random = new Random(42);
+		List<Book> batch = new ArrayList<>();
+		for (int i = 0; i < CATALOG_SIZE; i++) {
+			Book book = new Book();
+			book.setTitle("Benchmark Title " + i);
+			book.setAuthor("Author " + (i % 5_000));
+			book.setDescription("Seeded book used by the catalog query benchmarks.");
+			book.setCategory(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+			book.setPrice(500 + random.nextInt(4_500));
+			book.setStockQuantity(random.nextInt(40));
+			book.setRating(random.nextInt(50) / 10.0);
+			book.setPublishedYear(1950 + random.nextInt(75));
+			book.setIsbn("978-" + (1_000_000_000L + i));
+			batch.add(book);
+			if (batch.size() == 5_000) {
+				mongoTemplate.insert(batch, Book.class);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			mongoTemplate.insert(batch, Book.class);
+		}
+	}
+
+	@Test
+	void combinedFilterQuery() {
+		// "Fiction under 2000 LKR in stock", cheapest first
+		List<Book> page = bookService.findBooksWithFilters(
+			null, "Fiction", "IN_STOCK", null, 2000.0, "price", "asc", 0, 12);
+		assertFalse(page.isEmpty());
+
+		report("filter category+status+price", () -> bookService.findBooksWithFilters(
+			null, "Fiction", "IN_STOCK", null, 2000.0, "price", "asc", 0, 12));
+		report("count category+status+price", () -> bookService.countBooksWithFilters(
+			null, "Fiction", "IN_STOCK", null, 2000.0));
+
+		Document filter = new Document("category", "Fiction")
+			.append("status", "IN_STOCK")
+			.append("price", new Document("$lte", 2000.0));
+		explain(filter, new Document("price", 1), 12);
+	}
+
+	@Test
+	void offsetVersusCursorPagination() {
+		report("offset page 1 (price asc)", () -> bookService.findBooksWithFilters(
+			null, null, null, null, null, "price", "asc", 0, 12));
+		report("offset page 5000 (price asc)", () -> bookService.findBooksWithFilters(
+			null, null, null, null, null, "price", "asc", 4_999, 12));
+
+		// Walk the cursor chain once to reach page 5000, then time reading it
+		String cursor = "";
+		for (int page = 0; page < 4_999; page++) {
+			cursor = (String) bookService.findBooksAfterCursor(
+				null, null, null, null, null, "price", "asc", cursor, 12).get("nextCursor");
+		}
+		String page5000 = cursor;
+		report("cursor page 1 (price asc)", () -> bookService.findBooksAfterCursor(
+			null, null, null, null, null, "price", "asc", "", 12));
+		report("cursor page 5000 (price asc)", () -> bookService.findBooksAfterCursor(
+			null, null, null, null, null, "price", "asc", page5000, 12));
+
+		assertEquals(
+			bookService.findBooksWithFilters(null, null, null, null, null, "price", "asc", 4_999, 12).size(),
+			((List<?>) bookService.findBooksAfterCursor(
+				null, null, null, null, null, "price", "asc", page5000, 12).get("books")).size());
+	}
+
+	@Test
+	void statisticsAggregationVersusScan() {
+		// The previous implementation: four counts, then every non-archived book loaded to sum quantities
+		Supplier<Object> scan = () -> {
+			mongoTemplate.count(new Query(), Book.class);
+			for (String status : new String[] {"IN_STOCK", "OUT_OF_STOCK", "LOW_STOCK"}) {
+				mongoTemplate.count(new Query(Criteria.where("status").is(status)), Book.class);
+			}
+			return mongoTemplate.find(new Query(Criteria.where("archived").is(false)), Book.class).stream()
+				.mapToInt(Book::getStockQuantity).sum();
+		};
+		Supplier<Object> aggregation = () -> inventorySummary.reconcile();
+		Supplier<Object> totals = () -> bookService.getBookStatistics(false);
+
+		System.out.printf("%-40s allocated=%.1fMB%n", "stats via scan", allocatedBytes(scan) / 1e6);
+		System.out.printf("%-40s allocated=%.1fMB%n", "stats via $group", allocatedBytes(aggregation) / 1e6);
+		System.out.printf("%-40s allocated=%.1fMB%n", "stats via running totals", allocatedBytes(totals) / 1e6);
+		report("stats via scan", scan);
+		report("stats via $group (reconcile)", aggregation);
+		report("stats via running totals", totals);
+		report("stats via running totals by category", () -> bookService.getBookStatistics(true));
+	}
+
+	@Test
+	void bulkStockUpdateOfTenThousandItems() {
+		Query firstBooks = new Query().limit(10_000);
+		firstBooks.fields().include("id");
+		List<Map<String, Object>> items = new ArrayList<>();
+		for (Book book : mongoTemplate.find(firstBooks, Book.class)) {
+			items.add(Map.of("id", book.getId(), "quantityDelta", 5, "price", 999.0));
+		}
+		long start = System.nanoTime();
+		Map<String, Object> response = bookService.bulkUpdateStock(items);
+		long millis = (System.nanoTime() - start) / 1_000_000;
+		System.out.printf("%-40s %dms%n", "bulk update of 10k items", millis);
+
+		assertEquals(10_000, response.get("updated"));
+		assertTrue(millis < 1_000, "bulk update took " + millis + "ms");
+	}
+
+	static long allocatedBytes(Supplier<?> work) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long before = threads.getCurrentThreadAllocatedBytes();
+		work.get();
+		return threads.getCurrentThreadAllocatedBytes() - before;
+	}
+
+	void explain(Document filter, Document sort, int limit) {
+		Document find = new Document("find", "books").append("filter", filter).append("limit", limit);
+		if (sort != null) {
+			find.append("sort", sort);
+		}
+		Document result = mongoTemplate.getDb().runCommand(
+			new Document("explain", find).append("verbosity", "executionStats"));
+		Document stats = result.get("executionStats", Document.class);
+		System.out.printf("  explain %s -> returned=%s keysExamined=%s docsExamined=%s%n",
+			filter.toJson(), stats.get("nReturned"), stats.get("totalKeysExamined"), stats.get("totalDocsExamined"));
+	}
+
+	static void report(String name, Supplier<?> query) {
+		for (int i = 0; i < 20; i++) {
+			query.get();
+		}
+		long[] nanos = new long[ITERATIONS];
+		for (int i = 0; i < ITERATIONS; i++) {
+			long start = System.nanoTime();
+			query.get();
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		System.out.printf("%-40s p50=%.3fms p95=%.3fms p99=%.3fms%n", name,
+			nanos[ITERATIONS / 2] / 1e6, nanos[ITERATIONS * 95 / 100] / 1e6, nanos[ITERATIONS * 99 / 100] / 1e6);
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.example.demo;
+
+import com.example.demo.model.Book;
+import com.example.demo.service.BookSortField;
+import com.example.demo.service.ColumnarCatalog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.List;
+
+import static com.example.demo.CatalogQueryBenchmarkTests.report;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Filtered catalog pages picked by the columnar catalog versus the same query in Mongo, on the
+ * benchmark collection. Run with {@code mvn test -Dtest=ColumnarCatalogBenchmarkTests -Dbenchmarks=true}.
+ */
+@SpringBootTest(properties = {
+	"spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_bench",
+	"catalog.columnar.enabled=true"
+})
+@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+class ColumnarCatalogBenchmarkTests {
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	ColumnarCatalog columnarCatalog;
+
+	@BeforeEach
+	void seedCatalog() {
+		CatalogQueryBenchmarkTests.seed(mongoTemplate);
+		long start = System.nanoTime();
+		columnarCatalog.load();
+		System.out.printf("%-40s %dms for %d books%n", "columnar load", (System.nanoTime() - start) / 1_000_000,
+			columnarCatalog.size());
+	}
+
+	@Test
+	void filteredPageAndCount() {
+		Query mongoPage = new Query(Criteria.where("category").is("Fiction").and("status").is("IN_STOCK").and("price").lte(2000.0))
+			.with(Sort.by("price", "_id")).skip(120).limit(12);
+		mongoPage.fields().include("id");
+
+		assertEquals(mongoTemplate.find(mongoPage, Book.class).stream().map(Book::getId).toList(),
+			columnarCatalog.findPage("Fiction", "IN_STOCK", null, 2000.0, BookSortField.PRICE, false, 10, 12));
+
+		report("mongo page 11 category+status+price", () -> mongoTemplate.find(mongoPage, Book.class));
+		report("columnar page 11 category+status+price", () -> columnarCatalog.findPage(
+			"Fiction", "IN_STOCK", null, 2000.0, BookSortField.PRICE, false, 10, 12));
+		report("mongo count category+status+price", () -> mongoTemplate.count(Query.of(mongoPage).skip(0).limit(0), Book.class));
+		report("columnar count category+status+price", () -> columnarCatalog.count(
+			"Fiction", "IN_STOCK", null, 2000.0));
+		report("mongo price range, newest first", () -> mongoTemplate.find(
+			new Query(Criteria.where("price").gte(1000.0).lte(1200.0)).with(Sort.by(Sort.Direction.DESC, "createdAt", "_id")).limit(12),
+			Book.class));
+		report("columnar price range, newest first", () -> columnarCatalog.findPage(
+			null, null, 1000.0, 1200.0, BookSortField.CREATED_AT, true, 0, 12));
+	}
+
+	@Test
+	void unfilteredDeepPage() {
+		List<String> ids = columnarCatalog.findPage(null, null, null, null, BookSortField.RATING, true, 500, 12);
+		assertEquals(12, ids.size());
+		report("columnar page 501 by rating", () -> columnarCatalog.findPage(
+			null, null, null, null, BookSortField.RATING, true, 500, 12));
+	}
+}
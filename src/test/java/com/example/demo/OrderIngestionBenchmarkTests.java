@@ -0,0 +1,126 @@
+package com.example.demo;
+
+import com.example.demo.model.Book;
+import com.example.demo.model.Order;
+import com.example.demo.service.BookService;
+import com.example.demo.service.FlashSaleInventory;
+import com.example.demo.service.OrderBacklogException;
+import com.example.demo.service.OrderService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Orders per second through placeOrder (one insert per order) versus submitOrder (journaled, then
+ * bulk inserted behind the caller), on a flash-sale book so stock is not the bottleneck. Run with
+ * {@code mvn test -Dtest=OrderIngestionBenchmarkTests -Dbenchmarks=true}.
+ */
+@SpringBootTest(properties = {
+	"spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_bench",
+	"orders.ingestion.enabled=true",
+	"orders.ingestion.journal-path=target/order-ingestion-bench.journal"
+})
+@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+class OrderIngestionBenchmarkTests {
+
+	static final int ORDERS = 20_000;
+	static final int THREADS = 64;
+
+	@Autowired
+	OrderService orderService;
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	FlashSaleInventory flashSaleInventory;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	final List<String> bookIds = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		for (String bookId : bookIds) {
+			flashSaleInventory.endSale(bookId);
+		}
+		mongoTemplate.remove(new Query(Criteria.where("bookId").in(bookIds)), Order.class);
+		mongoTemplate.remove(new Query(Criteria.where("id").in(bookIds)), Book.class);
+	}
+
+	private String flashSaleBook() {
+		Book book = new Book(null, "Ingestion Benchmark", "Tester", null, null, 100.0);
+		book.setStockQuantity(ORDERS * 2);
+		String id = bookService.save(book).getId();
+		bookIds.add(id);
+		flashSaleInventory.startSale(id);
+		return id;
+	}
+
+	private static Order order(String bookId) {
+		Order order = new Order(bookId, "Ingestion Benchmark", "Tester", "bench@example.com", 1, 100.0, null, null);
+		order.setPaymentMethod("cash");
+		return order;
+	}
+
+	private void run(String label, Consumer<Order> place) throws Exception {
+		String bookId = flashSaleBook();
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			long start = System.nanoTime();
+			List<Future<?>> results = new ArrayList<>();
+			for (int i = 0; i < ORDERS; i++) {
+				results.add(pool.submit(() -> place.accept(order(bookId))));
+			}
+			for (Future<?> result : results) {
+				result.get(2, TimeUnit.MINUTES);
+			}
+			long acknowledged = System.nanoTime() - start;
+			while (mongoTemplate.count(new Query(Criteria.where("bookId").is(bookId)), Order.class) < ORDERS) {
+				Thread.sleep(10);
+			}
+			long stored = System.nanoTime() - start;
+			System.out.printf("%-30s %8.0f orders/s acknowledged, %8.0f orders/s stored%n", label,
+				ORDERS / (acknowledged / 1e9), ORDERS / (stored / 1e9));
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// Backs off on a full queue the way a client honouring Retry-After would
+	private void submitWithRetry(Order order) {
+		while (true) {
+			try {
+				orderService.submitOrder(order);
+				return;
+			} catch (OrderBacklogException e) {
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	@Test
+	void placeVersusSubmit() throws Exception {
+		run("placeOrder (synchronous)", orderService::placeOrder);
+		run("submitOrder (write-behind)", this::submitWithRetry);
+	}
+}
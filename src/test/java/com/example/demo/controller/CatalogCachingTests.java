@@ -0,0 +1,111 @@
+package com.example.demo.controller;
+
+import com.example.demo.model.Book;
+import com.example.demo.service.BookService;
+import com.example.demo.service.InventorySummary;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+@AutoConfigureMockMvc
+class CatalogCachingTests {
+
+	@Autowired
+	MockMvc mockMvc;
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	InventorySummary inventorySummary;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	final List<String> bookIds = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("id").in(bookIds)), Book.class);
+		inventorySummary.reconcile();
+	}
+
+	private Book savedBook() {
+		Book book = bookService.save(new Book(null, "Cached", "Tester", null, null, 100.0));
+		bookIds.add(book.getId());
+		return book;
+	}
+
+	private String etagOf(String url) throws Exception {
+		String etag = mockMvc.perform(get(url))
+			.andExpect(status().isOk())
+			.andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=30, public"))
+			.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		assertNotNull(etag);
+		return etag;
+	}
+
+	@Test
+	void catalogListsAnswer304UntilABookChanges() throws Exception {
+		Book book = savedBook();
+		for (String url : List.of("/api/books?page=0&size=12", "/api/books/all", "/api/books/categories")) {
+			String etag = etagOf(url);
+			mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified())
+				.andExpect(header().string(HttpHeaders.ETAG, etag))
+				.andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=30, public"))
+				.andExpect(content().string(""));
+		}
+
+		String before = etagOf("/api/books/all");
+		bookService.updateStock(book.getId(), 3, null);
+		String after = etagOf("/api/books/all");
+		assertNotEquals(before, after);
+		mockMvc.perform(get("/api/books/all").header(HttpHeaders.IF_NONE_MATCH, before))
+			.andExpect(status().isOk());
+	}
+
+	@Test
+	void singleBookTagFollowsItsOwnWrites() throws Exception {
+		Book book = savedBook();
+		Book other = savedBook();
+		String url = "/api/books/" + book.getId();
+		String etag = etagOf(url);
+
+		// Writes to other books leave this one's tag alone
+		bookService.updateStock(other.getId(), 1, null);
+		assertEquals(etag, etagOf(url));
+		mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag)).andExpect(status().isNotModified());
+
+		Thread.sleep(5);
+		bookService.updateStock(book.getId(), 2, null);
+		mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag)).andExpect(status().isOk());
+	}
+
+	@Test
+	void errorsAreNotCacheable() throws Exception {
+		mockMvc.perform(get("/api/books?fields=nope"))
+			.andExpect(status().isBadRequest())
+			.andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("no-store")));
+	}
+}
@@ -0,0 +1,128 @@
+package com.example.demo.controller;
+
+import com.example.demo.model.Bill;
+import com.example.demo.model.BillItem;
+import com.example.demo.model.Book;
+import com.example.demo.service.BookService;
+import com.example.demo.service.InventorySummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+@AutoConfigureMockMvc
+class FieldSelectionTests {
+
+	@Autowired
+	MockMvc mockMvc;
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	InventorySummary inventorySummary;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	ObjectMapper objectMapper;
+
+	final List<String> bookIds = new ArrayList<>();
+	final List<String> billIds = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("id").in(bookIds)), Book.class);
+		mongoTemplate.remove(new Query(Criteria.where("id").in(billIds)), Bill.class);
+		inventorySummary.reconcile();
+	}
+
+	private void seedBooks(int count) {
+		for (int i = 0; i < count; i++) {
+			Book book = new Book(null, "Sparse " + i, "Tester", "A long description ".repeat(40), "img/" + i + ".jpg", 100.0 + i);
+			book.setCategory("SparseFields");
+			bookIds.add(bookService.save(book).getId());
+		}
+	}
+
+	private String body(String url) throws Exception {
+		return mockMvc.perform(get(url)).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void bookListReturnsOnlySelectedFields() throws Exception {
+		seedBooks(24);
+		String base = "/api/books?category=SparseFields&sortBy=price&size=24";
+
+		String full = body(base);
+		String sparse = body(base + "&fields=title,price,imageUrl");
+		System.out.printf("booklist page: %d bytes, %d bytes with fields (%.0f%% smaller)%n",
+			full.length(), sparse.length(), 100.0 * (full.length() - sparse.length()) / full.length());
+
+		List<Map<String, Object>> books = (List<Map<String, Object>>) objectMapper.readValue(sparse, Map.class).get("books");
+		assertEquals(24, books.size());
+		assertEquals(Set.of("id", "title", "price", "imageUrl"), books.get(0).keySet());
+		assertEquals(100.0, books.get(0).get("price"));
+		assertTrue(sparse.length() < full.length() / 4);
+
+		// Cursor and facet pages project the same way
+		mockMvc.perform(get(base + "&fields=title&cursor="))
+			.andExpect(jsonPath("$.books[0].title").value("Sparse 0"))
+			.andExpect(jsonPath("$.books[0].price").doesNotExist())
+			.andExpect(jsonPath("$.nextCursor").doesNotExist());
+		mockMvc.perform(get(base + "&fields=title&facets=true"))
+			.andExpect(jsonPath("$.books[0].title").value("Sparse 0"))
+			.andExpect(jsonPath("$.books[0].description").doesNotExist());
+	}
+
+	@Test
+	void billsTableCanSkipItems() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			Bill bill = new Bill("ACC-SPARSE", "Sparse Customer", 0, 0);
+			List<BillItem> items = new ArrayList<>();
+			for (int j = 0; j < 5; j++) {
+				items.add(new BillItem("book" + j, "Item title " + j, 1, 250.0));
+			}
+			bill.setItems(items);
+			bill.setTotal(1250.0);
+			billIds.add(mongoTemplate.insert(bill).getId());
+		}
+		String full = body("/api/billing/history/ACC-SPARSE");
+		String sparse = body("/api/billing/history/ACC-SPARSE?fields=billNumber,customerName,total,status,billDate");
+		System.out.printf("bills table: %d bytes, %d bytes with fields (%.0f%% smaller)%n",
+			full.length(), sparse.length(), 100.0 * (full.length() - sparse.length()) / full.length());
+
+		mockMvc.perform(get("/api/billing/history/ACC-SPARSE?fields=total,billDate"))
+			.andExpect(jsonPath("$.bills.length()").value(10))
+			.andExpect(jsonPath("$.bills[0].total").value(1250.0))
+			.andExpect(jsonPath("$.bills[0].billDate").isString())
+			.andExpect(jsonPath("$.bills[0].items").doesNotExist());
+	}
+
+	@Test
+	void unknownFieldIsRejected() throws Exception {
+		mockMvc.perform(get("/api/books?fields=title,flashSaleSeq")).andExpect(status().isBadRequest());
+		mockMvc.perform(get("/api/books/all?fields=nope")).andExpect(status().isBadRequest());
+		mockMvc.perform(get("/api/books/all?fields=nope").accept("application/x-ndjson")).andExpect(status().isBadRequest());
+	}
+}
@@ -0,0 +1,259 @@
+package com.example.demo.controller;
+
+import com.example.demo.model.Bill;
+import com.example.demo.model.Book;
+import com.example.demo.model.Customer;
+import com.example.demo.model.IdempotencyRecord;
+import com.example.demo.model.Order;
+import com.example.demo.service.BookService;
+import com.example.demo.util.IdempotentRequests;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+@AutoConfigureMockMvc
+class IdempotencyKeyTests {
+
+	@Autowired
+	MockMvc mockMvc;
+
+	@Autowired
+	IdempotentRequests idempotentRequests;
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	ObjectMapper objectMapper;
+
+	final List<String> bookIds = new ArrayList<>();
+	final List<String> accountNumbers = new ArrayList<>();
+	final List<String> keys = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("bookId").in(bookIds)), Order.class);
+		mongoTemplate.remove(new Query(Criteria.where("id").in(bookIds)), Book.class);
+		mongoTemplate.remove(new Query(Criteria.where("accountNumber").in(accountNumbers)), Bill.class);
+		mongoTemplate.remove(new Query(Criteria.where("accountNumber").in(accountNumbers)), Customer.class);
+		mongoTemplate.remove(new Query(Criteria.where("id").in(keys)), IdempotencyRecord.class);
+	}
+
+	private String key(String scope) {
+		String key = UUID.randomUUID().toString();
+		keys.add(scope + ":" + key);
+		return key;
+	}
+
+	private String stockedBook(int stock) {
+		Book book = new Book(null, "Idempotency Test", "Tester", null, null, 100.0);
+		book.setStockQuantity(stock);
+		String id = bookService.save(book).getId();
+		bookIds.add(id);
+		return id;
+	}
+
+	private String orderJson(String bookId, int quantity) throws Exception {
+		Order order = new Order(bookId, "Idempotency Test", "Tester", "idempotent@example.com", quantity, 100.0 * quantity, null, null);
+		order.setPaymentMethod("cash");
+		return objectMapper.writeValueAsString(order);
+	}
+
+	private ResultActions postOrder(String body, String key) throws Exception {
+		return mockMvc.perform(post("/api/orders").contentType(MediaType.APPLICATION_JSON)
+			.header(IdempotentRequests.HEADER, key).content(body));
+	}
+
+	private long orders(String bookId) {
+		return mongoTemplate.count(new Query(Criteria.where("bookId").is(bookId)), Order.class);
+	}
+
+	@Test
+	void retriedOrderReturnsTheFirstResponse() throws Exception {
+		String bookId = stockedBook(5);
+		String key = key("orders");
+		String body = orderJson(bookId, 1);
+
+		String first = postOrder(body, key).andExpect(status().isOk())
+			.andReturn().getResponse().getContentAsString();
+		String orderId = (String) objectMapper.readValue(first, Map.class).get("orderId");
+
+		postOrder(body, key).andExpect(status().isOk())
+			.andExpect(header().string(IdempotentRequests.REPLAYED_HEADER, "true"))
+			.andExpect(jsonPath("$.orderId").value(orderId));
+
+		assertEquals(1, orders(bookId));
+		assertEquals(4, bookService.findById(bookId).getStockQuantity());
+		// Kept in Mongo as well, where the TTL index expires it
+		assertEquals(200, mongoTemplate.findById("orders:" + key, IdempotencyRecord.class).getStatus());
+	}
+
+	@Test
+	void keyReusedForADifferentOrderIsRejected() throws Exception {
+		String bookId = stockedBook(5);
+		String key = key("orders");
+		postOrder(orderJson(bookId, 1), key).andExpect(status().isOk());
+
+		postOrder(orderJson(bookId, 2), key).andExpect(status().isUnprocessableEntity())
+			.andExpect(jsonPath("$.success").value(false));
+		assertEquals(1, orders(bookId));
+	}
+
+	@Test
+	void requestsWithoutAKeyAreNotDeduplicated() throws Exception {
+		String bookId = stockedBook(5);
+		String body = orderJson(bookId, 1);
+		for (int i = 0; i < 2; i++) {
+			mockMvc.perform(post("/api/orders").contentType(MediaType.APPLICATION_JSON).content(body))
+				.andExpect(status().isOk());
+		}
+		assertEquals(2, orders(bookId));
+	}
+
+	@Test
+	void concurrentDuplicatesPlaceOneOrder() throws Exception {
+		String bookId = stockedBook(20);
+		String key = key("orders");
+		String body = orderJson(bookId, 1);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < 16; i++) {
+				results.add(pool.submit(() -> postOrder(body, key).andExpect(status().isOk())
+					.andReturn().getResponse().getContentAsString()));
+			}
+			List<Object> orderIds = new ArrayList<>();
+			for (Future<String> result : results) {
+				orderIds.add(objectMapper.readValue(result.get(30, TimeUnit.SECONDS), Map.class).get("orderId"));
+			}
+			assertEquals(1, orderIds.stream().distinct().count());
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(1, orders(bookId));
+		assertEquals(19, bookService.findById(bookId).getStockQuantity());
+	}
+
+	@Test
+	void duplicateWaitsForTheRequestInProgress() throws Exception {
+		String key = key("test");
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger executions = new AtomicInteger();
+		Map<String, Object> response = new HashMap<>();
+		response.put("success", true);
+		response.put("value", 42);
+
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			Future<ResponseEntity<Map<String, Object>>> first = pool.submit(() -> idempotentRequests.execute("test", key, "request", () -> {
+				executions.incrementAndGet();
+				running.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return ResponseEntity.ok(response);
+			}));
+			running.await();
+			Future<ResponseEntity<Map<String, Object>>> duplicate = pool.submit(() -> idempotentRequests.execute("test", key, "request", () -> {
+				executions.incrementAndGet();
+				return ResponseEntity.ok(new HashMap<>());
+			}));
+			Thread.sleep(200);
+			assertFalse(duplicate.isDone());
+
+			release.countDown();
+			assertSame(response, first.get(10, TimeUnit.SECONDS).getBody());
+			assertEquals(42, duplicate.get(10, TimeUnit.SECONDS).getBody().get("value"));
+			assertEquals(1, executions.get());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void serverErrorsAreNotKept() {
+		String key = key("test");
+		AtomicInteger executions = new AtomicInteger();
+		for (int i = 0; i < 2; i++) {
+			ResponseEntity<Map<String, Object>> response = idempotentRequests.execute("test", key, "request", () -> {
+				executions.incrementAndGet();
+				return ResponseEntity.internalServerError().body(new HashMap<>());
+			});
+			assertEquals(500, response.getStatusCode().value());
+		}
+		assertEquals(2, executions.get());
+	}
+
+	@Test
+	void keyStoredByAnotherInstanceIsReplayed() throws Exception {
+		String key = key("bills");
+		Customer customer = mongoTemplate.insert(new Customer("idempotent-billing", "Billing Tester", "secret",
+			LocalDate.of(1990, 1, 1), "billing-idempotent@example.com"));
+		accountNumbers.add(customer.getAccountNumber());
+		Map<String, Object> bill = new HashMap<>();
+		bill.put("customerAccountNumber", customer.getAccountNumber());
+		bill.put("items", List.of(Map.of("bookId", "book-1", "title", "Billed", "quantity", 1, "price", 100.0)));
+		bill.put("subtotal", 100.0);
+		bill.put("discount", 0.0);
+		bill.put("tax", 0.0);
+		bill.put("total", 100.0);
+		bill.put("paymentMethod", "CASH");
+		String body = objectMapper.writeValueAsString(bill);
+
+		String first = mockMvc.perform(post("/api/billing/generate").contentType(MediaType.APPLICATION_JSON)
+				.header(IdempotentRequests.HEADER, key).content(body))
+			.andExpect(status().isOk())
+			.andReturn().getResponse().getContentAsString();
+
+		// A response this instance has never seen, as if another instance had answered the key
+		IdempotencyRecord stored = mongoTemplate.findById("bills:" + key, IdempotencyRecord.class);
+		String otherKey = key("bills");
+		mongoTemplate.insert(new IdempotencyRecord("bills:" + otherKey, stored.getRequestHash(), 200, first, LocalDateTime.now()));
+
+		mockMvc.perform(post("/api/billing/generate").contentType(MediaType.APPLICATION_JSON)
+				.header(IdempotentRequests.HEADER, otherKey).content(body))
+			.andExpect(status().isOk())
+			.andExpect(header().string(IdempotentRequests.REPLAYED_HEADER, "true"));
+
+		assertEquals(1, mongoTemplate.count(new Query(Criteria.where("accountNumber").is(customer.getAccountNumber())), Bill.class));
+	}
+}
@@ -0,0 +1,85 @@
+package com.example.demo.controller;
+
+import com.example.demo.model.Book;
+import com.example.demo.service.BookService;
+import com.example.demo.service.InventorySummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+@AutoConfigureMockMvc
+class NdjsonStreamingTests {
+
+	@Autowired
+	MockMvc mockMvc;
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	InventorySummary inventorySummary;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	ObjectMapper objectMapper;
+
+	final List<String> bookIds = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("id").in(bookIds)), Book.class);
+		inventorySummary.reconcile();
+	}
+
+	@Test
+	void allBooksAreStreamedOnePerLine() throws Exception {
+		for (int i = 0; i < 1_200; i++) {
+			bookIds.add(bookService.save(new Book(null, "Streamed " + i, "Tester", null, null, 100.0)).getId());
+		}
+		long total = mongoTemplate.count(new Query(), Book.class);
+
+		MvcResult result = mockMvc.perform(get("/api/books/all").accept("application/x-ndjson"))
+			.andExpect(status().isOk())
+			.andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+			.andReturn();
+
+		String[] lines = result.getResponse().getContentAsString().split("\n");
+		assertEquals(total, lines.length);
+		List<Object> streamedIds = new ArrayList<>();
+		for (String line : lines) {
+			streamedIds.add(objectMapper.readValue(line, Map.class).get("id"));
+		}
+		assertTrue(streamedIds.containsAll(bookIds));
+	}
+
+	@Test
+	void jsonStaysTheDefault() throws Exception {
+		mockMvc.perform(get("/api/books/all").accept(MediaType.ALL))
+			.andExpect(status().isOk())
+			.andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+			.andExpect(jsonPath("$.success").value(true));
+	}
+}
@@ -0,0 +1,122 @@
+package com.example.demo.controller;
+
+import com.example.demo.model.Order;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+@AutoConfigureMockMvc
+class OrderHistoryPaginationTests {
+
+	static final String EMAIL = "paged-history@example.com";
+	static final LocalDateTime START = LocalDateTime.of(2025, 3, 1, 9, 0);
+
+	@Autowired
+	MockMvc mockMvc;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	ObjectMapper objectMapper;
+
+	@BeforeEach
+	void seed() {
+		List<Order> orders = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			// Every fifth order shares its timestamp with the previous one, so pages must break ties on _id
+			LocalDateTime orderDate = START.plusHours(i - (i % 5 == 0 && i > 0 ? 1 : 0));
+			orders.add(new Order("book-" + i, "Title " + i, "Customer", EMAIL, 1, 100,
+				orderDate, i % 2 == 0 ? "COMPLETED" : "PENDING"));
+		}
+		mongoTemplate.insertAll(orders);
+	}
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("email").is(EMAIL)), Order.class);
+	}
+
+	private List<String> expectedIds(Criteria criteria) {
+		Query query = new Query(criteria).with(Sort.by(Sort.Direction.DESC, "orderDate", "_id"));
+		return mongoTemplate.find(query, Order.class).stream().map(Order::getId).toList();
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<String> readAllPages(String filters, int size) throws Exception {
+		List<String> ids = new ArrayList<>();
+		String cursor = "";
+		do {
+			String body = mockMvc.perform(get("/api/orders/email/" + EMAIL + "?size=" + size + "&cursor=" + cursor + filters))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString();
+			Map<String, Object> page = objectMapper.readValue(body, Map.class);
+			List<Map<String, Object>> orders = (List<Map<String, Object>>) page.get("orders");
+			orders.forEach(order -> ids.add((String) order.get("id")));
+			cursor = (String) page.get("nextCursor");
+			if (cursor != null) {
+				assertEquals(size, orders.size());
+			}
+		} while (cursor != null);
+		return ids;
+	}
+
+	@Test
+	void cursorPagesWalkTheHistoryNewestFirst() throws Exception {
+		List<String> ids = readAllPages("", 10);
+
+		assertEquals(expectedIds(Criteria.where("email").is(EMAIL)), ids);
+	}
+
+	@Test
+	void statusAndDateRangeFiltersApplyToEveryPage() throws Exception {
+		LocalDateTime from = START.plusHours(4);
+		LocalDateTime to = START.plusHours(20);
+
+		List<String> ids = readAllPages("&status=COMPLETED&from=" + from + "&to=" + to, 3);
+
+		assertEquals(expectedIds(Criteria.where("email").is(EMAIL).and("status").is("COMPLETED")
+			.and("orderDate").gte(from).lt(to)), ids);
+	}
+
+	@Test
+	void withoutCursorTheWholeHistoryIsReturnedAsBefore() throws Exception {
+		String body = mockMvc.perform(get("/api/orders/email/" + EMAIL))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.length()").value(25))
+			.andReturn().getResponse().getContentAsString();
+
+		List<Map<String, Object>> orders = objectMapper.readValue(body, new TypeReference<List<Map<String, Object>>>() {});
+		assertEquals(expectedIds(Criteria.where("email").is(EMAIL)), orders.stream().map(order -> order.get("id")).toList());
+		assertNull(orders.get(0).get("bookImageUrl"));
+	}
+
+	@Test
+	void malformedCursorIsRejected() throws Exception {
+		mockMvc.perform(get("/api/orders/email/" + EMAIL + "?cursor=not-a-cursor"))
+			.andExpect(status().isBadRequest())
+			.andExpect(jsonPath("$.success").value(false));
+	}
+}
@@ -0,0 +1,152 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+class BookBulkUpdateTests {
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	InventorySummary inventorySummary;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	final List<String> bookIds = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("id").in(bookIds)), Book.class);
+		inventorySummary.reconcile();
+	}
+
+	private Book stockedBook(int stock) {
+		Book book = new Book(null, "Bulk Test", "Tester", null, null, 100.0);
+		book.setStockQuantity(stock);
+		Book saved = bookService.save(book);
+		bookIds.add(saved.getId());
+		return saved;
+	}
+
+	private static Map<String, Object> item(Object... keyValues) {
+		Map<String, Object> item = new HashMap<>();
+		for (int i = 0; i < keyValues.length; i += 2) {
+			item.put((String) keyValues[i], keyValues[i + 1]);
+		}
+		return item;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Map<String, Object>> results(Map<String, Object> response) {
+		return (List<Map<String, Object>>) response.get("results");
+	}
+
+	@Test
+	void appliesDeltasAbsolutesAndPricesWithPerItemResults() {
+		Book restock = stockedBook(2);
+		Book recount = stockedBook(40);
+		Book reprice = stockedBook(10);
+		Book sellOut = stockedBook(3);
+
+		Map<String, Object> response = bookService.bulkUpdateStock(List.of(
+			item("id", restock.getId(), "quantityDelta", 20),
+			item("id", recount.getId(), "stockQuantity", 4),
+			item("id", reprice.getId(), "price", 250.0),
+			item("id", sellOut.getId(), "quantityDelta", -3),
+			item("id", sellOut.getId(), "quantityDelta", -1),
+			item("id", restock.getId() + "x", "quantityDelta", 1),
+			item("id", reprice.getId(), "quantityDelta", 1, "stockQuantity", 1),
+			item("id", recount.getId(), "quantityDelta", -100)));
+
+		List<Object> statuses = results(response).stream().map(r -> r.get("status")).toList();
+		assertEquals(List.of("updated", "updated", "updated", "updated", "duplicate", "not_found", "invalid", "duplicate"), statuses);
+		assertEquals(4, response.get("updated"));
+		assertEquals(4, response.get("matched"));
+
+		Book restocked = bookService.findById(restock.getId());
+		assertEquals(22, restocked.getStockQuantity());
+		assertEquals("IN_STOCK", restocked.getStatus());
+		assertEquals("LOW_STOCK", bookService.findById(recount.getId()).getStatus());
+		assertEquals(250.0, bookService.findById(reprice.getId()).getPrice());
+		assertEquals(10, bookService.findById(reprice.getId()).getStockQuantity());
+		assertEquals("OUT_OF_STOCK", bookService.findById(sellOut.getId()).getStatus());
+	}
+
+	@Test
+	void rejectsDeltasBelowZeroAndKeepsStatisticsInStep() {
+		Book book = stockedBook(5);
+		Map<String, Object> before = inventorySummary.getStatistics(false);
+
+		Map<String, Object> response = bookService.bulkUpdateStock(List.of(
+			item("id", book.getId(), "quantityDelta", -6)));
+		assertEquals("insufficient_stock", results(response).get(0).get("status"));
+
+		bookService.bulkUpdateStock(List.of(item("id", book.getId(), "quantityDelta", 10)));
+		Map<String, Object> after = inventorySummary.getStatistics(false);
+		assertEquals((Long) before.get("lowStockBooks") - 1, after.get("lowStockBooks"));
+		assertEquals((Long) before.get("inStockQuantity") + 15, after.get("inStockQuantity"));
+	}
+
+	@Test
+	void reportsDecrementsThatLostARaceAsInsufficientStock() throws Exception {
+		Book book = stockedBook(10);
+		inventorySummary.reconcile();
+		Map<String, Object> before = inventorySummary.getStatistics(false);
+
+		// Most of these pass the check against the first read, then find the stock gone
+		ExecutorService pool = Executors.newFixedThreadPool(20);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Map<String, Object>>> futures = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			futures.add(pool.submit(() -> {
+				start.await();
+				return bookService.bulkUpdateStock(List.of(item("id", book.getId(), "quantityDelta", -1)));
+			}));
+		}
+		start.countDown();
+		int updated = 0;
+		int insufficient = 0;
+		for (Future<Map<String, Object>> future : futures) {
+			Map<String, Object> response = future.get(30, TimeUnit.SECONDS);
+			String status = (String) results(response).get(0).get("status");
+			if (status.equals("updated")) {
+				updated++;
+				assertEquals(1, response.get("updated"));
+			} else {
+				assertEquals("insufficient_stock", status);
+				assertEquals(0, response.get("updated"));
+				insufficient++;
+			}
+		}
+		pool.shutdown();
+
+		assertEquals(10, updated);
+		assertEquals(10, insufficient);
+		assertEquals(0, bookService.findById(book.getId()).getStockQuantity());
+		// Only the applied decrements reached the listeners
+		Map<String, Object> after = inventorySummary.getStatistics(false);
+		assertEquals((Long) before.get("inStockQuantity") - 10, after.get("inStockQuantity"));
+		assertEquals((Long) before.get("outOfStockBooks") + 1, after.get("outOfStockBooks"));
+	}
+}
@@ -0,0 +1,114 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookCacheTests {
+
+	final AtomicLong now = new AtomicLong();
+	final AtomicInteger loads = new AtomicInteger();
+	BookCache cache;
+
+	@BeforeEach
+	void setUp() {
+		cache = new BookCache();
+		cache.ticker = now::get;
+		cache.configure(100, TimeUnit.SECONDS.toNanos(60));
+	}
+
+	private final Function<String, Book> loader = id -> {
+		loads.incrementAndGet();
+		Book book = new Book(null, "Title " + id, "Author", null, null, 100.0);
+		book.setId(id);
+		return book;
+	};
+
+	@Test
+	void secondLookupIsAHitAndReturnsACopy() {
+		Book first = cache.get("b1", loader);
+		first.setTitle("changed by caller");
+		Book second = cache.get("b1", loader);
+
+		assertEquals(1, loads.get());
+		assertEquals("Title b1", second.getTitle());
+		Map<String, Object> stats = cache.getStatistics();
+		assertEquals(1L, stats.get("hits"));
+		assertEquals(1L, stats.get("misses"));
+	}
+
+	@Test
+	void missingBooksAreNotCached() {
+		cache.get("none", id -> null);
+		assertFalse(cache.contains("none"));
+	}
+
+	@Test
+	void entriesExpireAfterTheTtl() {
+		cache.get("b1", loader);
+		now.addAndGet(TimeUnit.SECONDS.toNanos(59));
+		cache.get("b1", loader);
+		assertEquals(1, loads.get());
+
+		now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+		cache.get("b1", loader);
+		assertEquals(2, loads.get());
+		assertEquals(1L, cache.getStatistics().get("expirations"));
+	}
+
+	@Test
+	void bookChangeEventsInvalidate() {
+		Book book = cache.get("b1", loader);
+		cache.onBookChanged(new BookChangeEvent(book, new Book(book)));
+		assertFalse(cache.contains("b1"));
+
+		cache.get("b1", loader);
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	void loadRacingAWriteIsNotCached() {
+		cache.get("b1", id -> {
+			Book stale = loader.apply(id);
+			// The book is written (and invalidated) after it was read from Mongo
+			cache.invalidate(id);
+			return stale;
+		});
+		assertFalse(cache.contains("b1"));
+	}
+
+	@Test
+	void frequentlyReadBooksSurviveAScan() {
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 60; i++) {
+				cache.get("hot" + i, loader);
+			}
+		}
+		// A crawler touching lots of books once each while the storefront keeps reading the hot ones
+		for (int i = 0; i < 2_000; i++) {
+			cache.get("cold" + i, loader);
+			cache.get("hot" + (i % 60), loader);
+		}
+
+		int hotCached = 0;
+		for (int i = 0; i < 60; i++) {
+			if (cache.contains("hot" + i)) {
+				hotCached++;
+			}
+		}
+		assertEquals(60, hotCached);
+		assertTrue((Integer) cache.getStatistics().get("size") <= 100);
+		assertTrue((Long) cache.getStatistics().get("evictions") >= 1_960);
+		assertEquals(60 + 2_000, loads.get());
+	}
+}
@@ -0,0 +1,100 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+class BookCategoryCacheTests {
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	BookCategoryCache categoryCache;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	final List<String> ids = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("id").in(ids)), Book.class);
+		categoryCache.invalidate();
+	}
+
+	private Book save(String title, String category) {
+		Book book = new Book(null, title, "Category Tester", null, null, 100.0);
+		book.setCategory(category);
+		Book saved = bookService.save(book);
+		ids.add(saved.getId());
+		return saved;
+	}
+
+	// What a fresh load counts, to compare the event-maintained counts against
+	private Map<String, Long> reloaded() {
+		categoryCache.invalidate();
+		return categoryCache.getCategoryCounts();
+	}
+
+	@Test
+	void followsInsertsRecategorizationsArchivingAndDeletes() {
+		categoryCache.getCategoryCounts();
+
+		Book first = save("First", "Cache-A");
+		Book second = save("Second", "Cache-A");
+		assertEquals(2L, categoryCache.getCategoryCounts().get("Cache-A"));
+
+		Book moved = new Book(first);
+		moved.setCategory("Cache-B");
+		bookService.updateBook(first.getId(), moved);
+		assertEquals(1L, categoryCache.getCategoryCounts().get("Cache-A"));
+		assertEquals(1L, categoryCache.getCategoryCounts().get("Cache-B"));
+
+		// An archived book is no longer listed under its category
+		bookService.archiveBook(first.getId());
+		assertNull(categoryCache.getCategoryCounts().get("Cache-B"));
+		assertFalse(categoryCache.getCategories().contains("Cache-B"));
+
+		bookService.deleteById(second.getId());
+		assertNull(categoryCache.getCategoryCounts().get("Cache-A"));
+
+		Map<String, Long> counted = categoryCache.getCategoryCounts();
+		assertEquals(reloaded(), counted);
+	}
+
+	@Test
+	void loadThatRacedWithAWriteIsRetried() {
+		categoryCache.invalidate();
+		int[] loads = {0};
+		Book book = new Book(null, "Raced", "Category Tester", null, null, 100.0);
+		book.setCategory("Cache-Raced");
+
+		Map<String, Long> counts = categoryCache.load(() -> {
+			if (loads[0]++ == 0) {
+				// Written while the first count ran, after it had passed the book
+				categoryCache.onBookChanged(new BookChangeEvent(null, book));
+				return Map.of();
+			}
+			return Map.of("Cache-Raced", 1L);
+		});
+
+		assertEquals(2, loads[0]);
+		assertEquals(Map.of("Cache-Raced", 1L), counts);
+		assertEquals(counts, categoryCache.getCategoryCounts());
+	}
+}
@@ -0,0 +1,193 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+class BookImportTests {
+
+	@Autowired
+	BookImportService bookImportService;
+
+	@Autowired
+	BookSearchIndex bookSearchIndex;
+
+	@Autowired
+	InventorySummary inventorySummary;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	final List<Map<String, Object>> reported = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("isbn").regex("^IMP-")), Book.class);
+		inventorySummary.reconcile();
+	}
+
+	private Map<String, Object> importCsv(String csv, int batchSize) throws Exception {
+		return bookImportService.importBooks(new StringReader(csv), BookImportService.Format.CSV, batchSize, reported::add);
+	}
+
+	private Book byIsbn(String isbn) {
+		return mongoTemplate.findOne(new Query(Criteria.where("isbn").is(isbn)), Book.class);
+	}
+
+	@Test
+	void csvRowsAreInsertedInBatchesWithDefaults() throws Exception {
+		StringBuilder csv = new StringBuilder("isbn,title,author,price,stock_quantity,category\n");
+		for (int i = 0; i < 25; i++) {
+			csv.append("IMP-").append(i).append(",\"Title, part ").append(i).append("\",Author,250.5,")
+				.append(i % 3 == 0 ? 0 : 20).append(",Novels\n");
+		}
+		long booksBefore = (Long) inventorySummary.getStatistics(false).get("totalBooks");
+
+		Map<String, Object> summary = importCsv(csv.toString(), 10);
+
+		assertEquals(25L, summary.get("inserted"));
+		assertEquals(0L, summary.get("failed"));
+		// 10 + 10 + 5
+		assertEquals(3, reported.stream().filter(line -> "progress".equals(line.get("type"))).count());
+		Book book = byIsbn("IMP-3");
+		assertEquals("Title, part 3", book.getTitle());
+		assertEquals(250.5, book.getPrice());
+		assertEquals("OUT_OF_STOCK", book.getStatus());
+		assertEquals("Paperback", book.getFormat());
+		assertEquals(false, book.isArchived());
+		assertEquals(booksBefore + 25, inventorySummary.getStatistics(false).get("totalBooks"));
+		assertEquals(List.of(book.getId()), bookSearchIndex.search("title part 3", 50).stream()
+			.filter(book.getId()::equals).toList());
+	}
+
+	@Test
+	void existingIsbnIsUpdatedOnlyInSuppliedColumns() throws Exception {
+		importCsv("isbn,title,author,price,stockQuantity,publisher\nIMP-U1,Old Title,Old Author,100,8,Press\n", 100);
+		String id = byIsbn("IMP-U1").getId();
+
+		Map<String, Object> summary = bookImportService.importBooks(
+			new StringReader("{\"isbn\":\"IMP-U1\",\"price\":120,\"stockQuantity\":2}\n"),
+			BookImportService.Format.NDJSON, 100, reported::add);
+
+		assertEquals(1L, summary.get("updated"));
+		assertEquals(0L, summary.get("inserted"));
+		Book book = byIsbn("IMP-U1");
+		assertEquals(id, book.getId());
+		assertEquals("Old Title", book.getTitle());
+		assertEquals("Press", book.getPublisher());
+		assertEquals(120.0, book.getPrice());
+		assertEquals("LOW_STOCK", book.getStatus());
+	}
+
+	@Test
+	void invalidRowsAreReportedAndSkipped() throws Exception {
+		String ndjson = String.join("\n",
+			"{\"isbn\":\"IMP-V1\",\"title\":\"Good\",\"author\":\"A\",\"price\":10}",
+			"{\"title\":\"No ISBN\",\"author\":\"A\",\"price\":10}",
+			"{\"isbn\":\"IMP-V2\",\"title\":\"Bad price\",\"author\":\"A\",\"price\":-1}",
+			"not json",
+			"{\"isbn\":\"IMP-V3\",\"price\":10}",
+			"{\"isbn\":\"IMP-V1\",\"stockQuantity\":3}");
+
+		Map<String, Object> summary = bookImportService.importBooks(
+			new StringReader(ndjson), BookImportService.Format.NDJSON, 100, reported::add);
+
+		assertEquals(6L, summary.get("processed"));
+		assertEquals(1L, summary.get("inserted"));
+		assertEquals(1L, summary.get("updated"));
+		assertEquals(4L, summary.get("failed"));
+		List<Object> errorLines = reported.stream()
+			.filter(line -> "error".equals(line.get("type")))
+			.map(line -> line.get("line"))
+			.toList();
+		assertEquals(List.of(2L, 3L, 4L, 5L), errorLines.stream().sorted().toList());
+		assertNull(byIsbn("IMP-V2"));
+		assertEquals(3, byIsbn("IMP-V1").getStockQuantity());
+	}
+
+	@Test
+	void racedImportsOfANewIsbnInsertItOnceAndPublishEveryChange() throws Exception {
+		inventorySummary.reconcile();
+		Map<String, Object> before = inventorySummary.getStatistics(false);
+
+		// Every import reads the ISBN as new; all but one then find it already inserted
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Map<String, Object>>> futures = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			String csv = "isbn,title,author,stockQuantity\nIMP-RACE,Raced Import,Author,10\n";
+			futures.add(pool.submit(() -> {
+				start.await();
+				return bookImportService.importBooks(new StringReader(csv), BookImportService.Format.CSV, 100, line -> {});
+			}));
+		}
+		start.countDown();
+		long inserted = 0;
+		long updated = 0;
+		for (Future<Map<String, Object>> future : futures) {
+			Map<String, Object> summary = future.get(30, TimeUnit.SECONDS);
+			inserted += (Long) summary.get("inserted");
+			updated += (Long) summary.get("updated");
+			assertEquals(0L, summary.get("failed"));
+		}
+		pool.shutdown();
+
+		assertEquals(1L, inserted);
+		assertEquals(7L, updated);
+		assertEquals(1, mongoTemplate.count(new Query(Criteria.where("isbn").is("IMP-RACE")), Book.class));
+		// The listeners saw one book with ten copies, whichever import won
+		Map<String, Object> after = inventorySummary.getStatistics(false);
+		assertEquals((Long) before.get("totalBooks") + 1, after.get("totalBooks"));
+		assertEquals((Long) before.get("inStockQuantity") + 10, after.get("inStockQuantity"));
+		assertEquals(List.of(byIsbn("IMP-RACE").getId()), bookSearchIndex.search("raced import", 50).stream()
+			.filter(byIsbn("IMP-RACE").getId()::equals).toList());
+	}
+
+	@Test
+	void isbnIsUniqueWhereSet() {
+		Book first = new Book(null, "Unique", "Tester", null, null, 10.0);
+		first.setIsbn("IMP-UNIQUE");
+		mongoTemplate.insert(first);
+		Book second = new Book(null, "Unique Again", "Tester", null, null, 10.0);
+		second.setIsbn("IMP-UNIQUE");
+		assertThrows(DuplicateKeyException.class, () -> mongoTemplate.insert(second));
+
+		// Books without an ISBN are not caught by the index
+		mongoTemplate.remove(first);
+		first.setId(null);
+		first.setIsbn(null);
+		second.setIsbn(" ");
+		mongoTemplate.insert(first);
+		mongoTemplate.insert(second);
+		mongoTemplate.remove(first);
+		mongoTemplate.remove(second);
+	}
+
+	@Test
+	void csvParsesQuotesAndMultiLineCells() {
+		assertEquals(List.of("a", "b \"c\"", ""), BookImportService.parseCsv("a,\"b \"\"c\"\"\","));
+		assertNull(BookImportService.parseCsv("a,\"unfinished"));
+		assertEquals(List.of("a", "line1\nline2"), BookImportService.parseCsv("a,\"line1\nline2\""));
+	}
+}
@@ -0,0 +1,141 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+class BookQueryTests {
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	BookSearchIndex bookSearchIndex;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	final List<String> ids = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("id").in(ids)), Book.class);
+		bookSearchIndex.rebuild();
+	}
+
+	// Inserted behind BookService's back, so the search index is reloaded rather than fed events
+	private void seed(List<Book> books) {
+		for (Book book : mongoTemplate.insert(books, Book.class)) {
+			ids.add(book.getId());
+		}
+		bookSearchIndex.rebuild();
+	}
+
+	private static Book book(String title, String category, double price, int stock) {
+		Book book = new Book(null, title, "Query Tester", null, null, price);
+		book.setCategory(category);
+		book.setStockQuantity(stock);
+		return book;
+	}
+
+	@Test
+	void searchesWithMoreThanAThousandHitsPageThroughAllOfThem() {
+		List<Book> books = new ArrayList<>();
+		for (int i = 0; i < 1005; i++) {
+			books.add(book("Overflow Zqxv " + i, "Query-Overflow", 100, 10));
+		}
+		seed(books);
+
+		assertEquals(1005, bookService.countBooksWithFilters("zqxv", null, null, null, null));
+		// Ranked by relevance, then sorted by title: the last page holds the last five either way
+		assertEquals(5, bookService.findBooksWithFilters("zqxv", null, null, null, null, null, null, 100, 10).size());
+		assertEquals(5, bookService.findBooksWithFilters("zqxv", null, null, null, null, "title", "asc", 100, 10).size());
+		assertEquals(1005L, bookService.findBooksWithFacets("zqxv", null, null, null, null, null, null, 0, 10)
+			.get("totalBooks"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void cursorPagesThroughFilteredSearchHitsInOrder() {
+		List<Book> books = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			books.add(book("Cursor Jvqx " + i, i % 3 == 0 ? "Cursor-Other" : "Cursor-Main", 100 + (i % 7), 10));
+		}
+		seed(books);
+
+		List<String> expected = mongoTemplate.find(new Query(Criteria.where("id").in(ids).and("category").is("Cursor-Main"))
+			.with(Sort.by(Sort.Direction.DESC, "price", "_id")), Book.class).stream().map(Book::getId).toList();
+		List<String> seen = new ArrayList<>();
+		String cursor = null;
+		do {
+			Map<String, Object> page = bookService.findBooksAfterCursor("jvqx", "Cursor-Main", null, null, null,
+				"price", "desc", cursor, 4);
+			for (Book book : (List<Book>) page.get("books")) {
+				seen.add(book.getId());
+			}
+			cursor = (String) page.get("nextCursor");
+		} while (cursor != null);
+
+		assertEquals(expected, seen);
+		assertEquals(expected.subList(4, 8), bookService.findBooksWithFilters("jvqx", "Cursor-Main", null, null, null,
+			"price", "desc", 1, 4).stream().map(Book::getId).toList());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<Object, Long> priceRanges(Map<String, Object> result) {
+		Map<Object, Long> counts = new LinkedHashMap<>();
+		for (Map<String, Object> range : (List<Map<String, Object>>) ((Map<String, Object>) result.get("facets")).get("priceRanges")) {
+			counts.put(range.get("max") == null ? "other" : range.get("min") + "-" + range.get("max"), (Long) range.get("count"));
+		}
+		return counts;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Long> facet(Map<String, Object> result, String name) {
+		return (Map<String, Long>) ((Map<String, Object>) result.get("facets")).get(name);
+	}
+
+	@Test
+	void facetCountsMatchTheSeededBooks() {
+		// Two books either side of every bucket boundary, and two past the last one
+		double[] prices = {0, 499.99, 500, 999.99, 1000, 1999.99, 2000, 4999.99, 5000, 12000};
+		List<Book> books = new ArrayList<>();
+		for (int i = 0; i < prices.length; i++) {
+			books.add(book("Facet Wqzk " + i, i % 2 == 0 ? "Facet-Even" : "Facet-Odd", prices[i], i < 3 ? 0 : 20));
+		}
+		seed(books);
+
+		Map<String, Object> all = bookService.findBooksWithFacets("wqzk", null, null, null, null, "price", "asc", 0, 4);
+		assertEquals(10L, all.get("totalBooks"));
+		assertEquals(4, ((List<?>) all.get("books")).size());
+		assertEquals(Map.of("Facet-Even", 5L, "Facet-Odd", 5L), facet(all, "categories"));
+		assertEquals(Map.of("OUT_OF_STOCK", 3L, "IN_STOCK", 7L), facet(all, "statuses"));
+		assertEquals(Map.of("0-500", 2L, "500-1000", 2L, "1000-2000", 2L, "2000-5000", 2L, "other", 2L), priceRanges(all));
+
+		// Every count, the total included, follows the filters
+		Map<String, Object> even = bookService.findBooksWithFacets("wqzk", "Facet-Even", null, 1000.0, null, null, null, 0, 10);
+		assertEquals(3L, even.get("totalBooks"));
+		assertEquals(Map.of("Facet-Even", 3L), facet(even, "categories"));
+		assertEquals(Map.of("IN_STOCK", 3L), facet(even, "statuses"));
+		assertEquals(Map.of("1000-2000", 1L, "2000-5000", 1L, "other", 1L), priceRanges(even));
+
+		Map<String, Object> none = bookService.findBooksWithFacets("wqzk", "Facet-Missing", null, null, null, null, null, 0, 10);
+		assertEquals(0L, none.get("totalBooks"));
+		assertTrue(priceRanges(none).isEmpty());
+	}
+}
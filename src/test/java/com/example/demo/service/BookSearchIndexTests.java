@@ -0,0 +1,167 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookSearchIndexTests {
+
+	private static Book book(String id, String title, String author) {
+		Book book = new Book(id, title, author, null, null, 10.0);
+		book.setIsbn("978-" + id);
+		return book;
+	}
+
+	@Test
+	void matchesPrefixesOfEveryQueryToken() {
+		BookSearchIndex index = new BookSearchIndex();
+		index.put(book("1", "The Great Gatsby", "F. Scott Fitzgerald"));
+		index.put(book("2", "Great Expectations", "Charles Dickens"));
+		index.put(book("3", "The Hobbit", "J.R.R. Tolkien"));
+
+		assertEquals(List.of("1", "2"), index.search("grea", 10));
+		assertEquals(List.of("1"), index.search("great fitz", 10));
+		assertEquals(List.of("3"), index.search("TOLKIEN", 10));
+		assertTrue(index.search("great tolkien", 10).isEmpty());
+	}
+
+	@Test
+	void ranksExactAndTitleMatchesFirst() {
+		BookSearchIndex index = new BookSearchIndex();
+		index.put(book("1", "Notes", "Rowling Jones"));
+		index.put(book("2", "Rowlings Diary", "Someone"));
+		index.put(book("3", "Rowling", "Someone"));
+
+		// exact title > exact author > prefix title
+		assertEquals(List.of("3", "1", "2"), index.search("rowling", 10));
+		assertEquals(List.of("3"), index.search("rowling", 1));
+	}
+
+	@Test
+	void findsIsbnWithOrWithoutHyphens() {
+		BookSearchIndex index = new BookSearchIndex();
+		Book book = book("1", "The Great Gatsby", "F. Scott Fitzgerald");
+		book.setIsbn("978-0743273565");
+		index.put(book);
+
+		assertEquals(List.of("1"), index.search("9780743273565", 10));
+		assertEquals(List.of("1"), index.search("978-0743273565", 10));
+	}
+
+	@Test
+	void keepsInSyncWithUpdatesArchivesAndDeletes() {
+		BookSearchIndex index = new BookSearchIndex();
+		Book book = book("1", "The Great Gatsby", "F. Scott Fitzgerald");
+		index.put(book);
+
+		Book renamed = new Book(book);
+		renamed.setTitle("Tender Is the Night");
+		index.onBookChanged(new BookChangeEvent(book, renamed));
+		assertTrue(index.search("gatsby", 10).isEmpty());
+		assertEquals(List.of("1"), index.search("tender", 10));
+
+		Book archived = new Book(renamed);
+		archived.setArchived(true);
+		index.onBookChanged(new BookChangeEvent(renamed, archived));
+		assertTrue(index.search("tender", 10).isEmpty());
+
+		index.onBookChanged(new BookChangeEvent(renamed, renamed));
+		index.onBookChanged(new BookChangeEvent(renamed, null));
+		assertTrue(index.search("tender", 10).isEmpty());
+		assertEquals(0, index.size());
+	}
+
+	@Test
+	void compactsAfterManyUpdates() {
+		BookSearchIndex index = new BookSearchIndex();
+		for (int i = 0; i < 5_000; i++) {
+			index.put(book(String.valueOf(i % 100), "Title " + (i % 100), "Author"));
+		}
+		assertEquals(100, index.size());
+		assertEquals(List.of("42"), index.search("title 42", 10));
+		assertEquals(100, index.search("author", 1_000).size());
+	}
+
+	@Test
+	void rebuildKeepsChangesMadeWhileItWasLoading() {
+		BookSearchIndex index = new BookSearchIndex();
+		Book kept = book("1", "Loaded Before", "Author");
+		Book deleted = book("2", "Deleted Meanwhile", "Author");
+		Book renamed = book("3", "Old Name", "Author");
+
+		index.rebuild(() -> {
+			// Written after the load read its snapshot
+			Book added = book("4", "Added Meanwhile", "Author");
+			Book renamedAfter = new Book(renamed);
+			renamedAfter.setTitle("New Name");
+			index.onBookChanged(new BookChangeEvent(null, added));
+			index.onBookChanged(new BookChangeEvent(deleted, null));
+			index.onBookChanged(new BookChangeEvent(renamed, renamedAfter));
+			return List.of(kept, deleted, renamed);
+		});
+
+		assertEquals(List.of("1"), index.search("loaded", 10));
+		assertEquals(List.of("4"), index.search("added", 10));
+		assertTrue(index.search("deleted", 10).isEmpty());
+		assertTrue(index.search("old", 10).isEmpty());
+		assertEquals(List.of("3"), index.search("new name", 10));
+		assertTrue(index.isReady());
+	}
+
+	@Test
+	void filtersOrdersAndPagesHitsInMemory() {
+		BookSearchIndex index = new BookSearchIndex();
+		for (int i = 0; i < 20; i++) {
+			Book book = book(String.format("%02d", i), "Paged Title " + i, "Author");
+			book.setCategory(i % 2 == 0 ? "Even" : "Odd");
+			book.setPrice(100 - i);
+			index.put(book);
+		}
+		Comparator<BookSearchIndex.Listing> byPrice = BookSearchIndex.order(BookSortField.PRICE, false);
+
+		// Even books by ascending price: 18, 16, ..., 0
+		assertEquals(List.of("14", "12"), index.findPage("paged", "Even", null, null, null, byPrice, null, 2, 2));
+		assertEquals(10, index.count("paged", "Even", null, null, null));
+		assertEquals(3, index.count("paged title", "Even", null, 90.0, 95.0));
+		assertEquals(0, index.count("paged", "Missing", null, null, null));
+
+		// Keyset: everything after book 14 in the same order
+		Book fourteen = book("14", "Paged Title 14", "Author");
+		fourteen.setPrice(86);
+		assertEquals(List.of("12", "10", "08"), index.findPage("paged", "Even", null, null, null, byPrice,
+			BookSearchIndex.Listing.of(fourteen), 0, 3));
+
+		// A price change moves the book without touching its postings
+		Book cheaper = book("00", "Paged Title 0", "Author");
+		cheaper.setCategory("Even");
+		cheaper.setPrice(1);
+		Book before = book("00", "Paged Title 0", "Author");
+		before.setCategory("Even");
+		before.setPrice(100);
+		index.onBookChanged(new BookChangeEvent(before, cheaper));
+		assertEquals(List.of("00"), index.findPage("paged", "Even", null, null, null, byPrice, null, 0, 1));
+	}
+
+	@Test
+	void shortPrefixKeepsOnlyTheBestHits() {
+		BookSearchIndex index = new BookSearchIndex();
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 3_000; i++) {
+			// Every title starts with t; only a few are an exact title match for "t"
+			String title = i % 1000 == 7 ? "T" : "Tome " + i;
+			index.put(book(String.valueOf(i), title, "Writer"));
+			if (title.equals("T")) {
+				expected.add(String.valueOf(i));
+			}
+		}
+		assertEquals(expected, index.search("t", 3));
+		assertEquals(3_000, index.count("t", null, null, null, null));
+		assertEquals(List.of("7", "1007", "2007", "0"), index.search("t", 4));
+	}
+}
@@ -0,0 +1,144 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookSuggestionIndexTests {
+
+	private static Book book(String id, String title, String author, String category) {
+		Book book = new Book(id, title, author, null, null, 10.0);
+		book.setCategory(category);
+		return book;
+	}
+
+	private static List<Object> texts(List<Map<String, Object>> suggestions) {
+		return suggestions.stream().map(s -> s.get("text")).toList();
+	}
+
+	@Test
+	void ranksSuggestionsByOrderedQuantity() {
+		BookSuggestionIndex index = new BookSuggestionIndex();
+		index.load(List.of(
+			book("1", "The Hobbit", "J.R.R. Tolkien", "Novels"),
+			book("2", "Harry Potter and the Sorcerer's Stone", "J.K. Rowling", "Children"),
+			book("3", "Hamlet", "William Shakespeare", "Drama")), Map.of("3", 5L, "2", 9L));
+
+		assertEquals(List.of("Harry Potter and the Sorcerer's Stone", "Hamlet"), texts(index.suggest("ha", 8)));
+
+		index.recordOrder("3", 10);
+		assertEquals(List.of("Hamlet", "Harry Potter and the Sorcerer's Stone"), texts(index.suggest("ha", 8)));
+		assertEquals(15L, index.suggest("haml", 1).get(0).get("popularity"));
+	}
+
+	@Test
+	void matchesAtWordStartsAcrossTitlesAuthorsAndCategories() {
+		BookSuggestionIndex index = new BookSuggestionIndex();
+		index.load(List.of(book("2", "Harry Potter and the Sorcerer's Stone", "J.K. Rowling", "Children")), Map.of());
+
+		assertEquals(List.of("Harry Potter and the Sorcerer's Stone"), texts(index.suggest("potter", 8)));
+		assertEquals(List.of("J.K. Rowling"), texts(index.suggest("rowl", 8)));
+		assertEquals("category", index.suggest("child", 8).get(0).get("type"));
+		assertTrue(index.suggest("xyz", 8).isEmpty());
+	}
+
+	@Test
+	void followsBookChanges() {
+		BookSuggestionIndex index = new BookSuggestionIndex();
+		Book hobbit = book("1", "The Hobbit", "J.R.R. Tolkien", "Novels");
+		index.load(List.of(hobbit), Map.of("1", 3L));
+
+		Book renamed = new Book(hobbit);
+		renamed.setTitle("The Silmarillion");
+		index.onBookChanged(new BookChangeEvent(hobbit, renamed));
+		assertTrue(index.suggest("hob", 8).isEmpty());
+		assertEquals(3L, index.suggest("silm", 8).get(0).get("popularity"));
+
+		index.onBookChanged(new BookChangeEvent(renamed, null));
+		assertTrue(index.suggest("silm", 8).isEmpty());
+		assertTrue(index.suggest("nov", 8).isEmpty());
+	}
+
+	@Test
+	void rebuildKeepsChangesMadeWhileItWasLoading() {
+		BookSuggestionIndex index = new BookSuggestionIndex();
+		Book hobbit = book("1", "The Hobbit", "J.R.R. Tolkien", "Novels");
+		Book hamlet = book("3", "Hamlet", "William Shakespeare", "Drama");
+
+		index.rebuild(() -> Map.of("1", 3L), () -> {
+			// Written after the load read its snapshot
+			Book renamed = new Book(hobbit);
+			renamed.setTitle("The Silmarillion");
+			index.onBookChanged(new BookChangeEvent(hobbit, renamed));
+			index.onBookChanged(new BookChangeEvent(null, book("4", "Beowulf", "Anonymous", "Epics")));
+			index.onBookChanged(new BookChangeEvent(hamlet, null));
+			return List.of(hobbit, hamlet);
+		});
+
+		assertTrue(index.suggest("hob", 8).isEmpty());
+		assertEquals(3L, index.suggest("silm", 8).get(0).get("popularity"));
+		assertEquals(List.of("Beowulf"), texts(index.suggest("beo", 8)));
+		assertTrue(index.suggest("haml", 8).isEmpty());
+	}
+
+	@Test
+	void ordersRecordedWhileRebuildingAreCountedOnce() {
+		BookSuggestionIndex index = new BookSuggestionIndex();
+		List<Book> books = List.of(book("1", "The Hobbit", "J.R.R. Tolkien", "Novels"));
+		int[] loads = {0};
+
+		// The first aggregate ran before the order was written, the retry sees it
+		index.rebuild(() -> {
+			if (loads[0]++ == 0) {
+				index.recordOrder("1", 4);
+				return Map.of("1", 3L);
+			}
+			return Map.of("1", 7L);
+		}, () -> books);
+		assertEquals(2, loads[0]);
+		assertEquals(7L, index.suggest("hob", 1).get(0).get("popularity"));
+
+		// Orders that keep arriving are counted on top of the last aggregate rather than lost
+		loads[0] = 0;
+		index.rebuild(() -> {
+			loads[0]++;
+			index.recordOrder("1", 1);
+			return Map.of("1", 7L);
+		}, () -> books);
+		assertEquals(3, loads[0]);
+		assertEquals(8L, index.suggest("hob", 1).get(0).get("popularity"));
+	}
+
+	@Test
+	void lookupsStayWellUnderTwoMillisecondsAtHundredThousandBooks() {
+		Random random = new Random(7);
+		String[] words = {"river", "shadow", "garden", "empire", "silent", "winter", "golden", "house",
+			"night", "stone", "secret", "ocean", "forest", "child", "queen", "letters"};
+		List<Book> books = new ArrayList<>();
+		for (int i = 0; i < 100_000; i++) {
+			String title = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)] + " " + i;
+			books.add(book(String.valueOf(i), title, "Author " + (i % 3_000), "Category " + (i % 20)));
+		}
+		BookSuggestionIndex index = new BookSuggestionIndex();
+		index.load(books, Map.of());
+
+		String[] queries = {"r", "ri", "sha", "golden h", "author 12", "category 1", "9999", "queen"};
+		long[] nanos = new long[20_000];
+		for (int i = 0; i < nanos.length; i++) {
+			long start = System.nanoTime();
+			index.suggest(queries[i % queries.length], 8);
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		long p99 = nanos[nanos.length * 99 / 100];
+		assertTrue(p99 < 2_000_000, "p99 was " + p99 / 1e6 + "ms");
+	}
+}
@@ -0,0 +1,201 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+	"spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test",
+	"catalog.columnar.enabled=true"
+})
+class ColumnarCatalogTests {
+
+	static final String[] CATEGORIES = {"Columnar-A", "Columnar-B", "Columnar-C"};
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	ColumnarCatalog columnarCatalog;
+
+	@Autowired
+	InventorySummary inventorySummary;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	final List<String> ids = new ArrayList<>();
+
+	@BeforeEach
+	void seed() {
+		Random random = new Random(7);
+		List<Book> books = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			Book book = new Book();
+			book.setTitle("Columnar " + (char) ('A' + random.nextInt(26)) + i);
+			book.setAuthor("Author");
+			book.setCategory(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+			// Few distinct prices and ratings, so ties have to break on id the way Mongo does
+			book.setPrice(100 * (1 + random.nextInt(20)));
+			book.setRating(random.nextInt(5));
+			book.setPublishedYear(1990 + random.nextInt(30));
+			book.setStockQuantity(random.nextInt(12));
+			book.setStatus(Book.statusForStock(book.getStockQuantity()));
+			book.setCreatedAt(LocalDateTime.of(2024, 1, 1, 0, 0).plusMinutes(random.nextInt(10_000)));
+			books.add(book);
+		}
+		for (Book book : mongoTemplate.insert(books, Book.class)) {
+			ids.add(book.getId());
+		}
+		// Inserted behind BookService's back, so reload rather than rely on change events
+		columnarCatalog.load();
+	}
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("id").in(ids)), Book.class);
+		inventorySummary.reconcile();
+		columnarCatalog.load();
+	}
+
+	// What Mongo returns for the same filters, restricted to the seeded books
+	private List<String> mongoIds(String category, String status, Double minPrice, Double maxPrice,
+								  String sortField, Sort.Direction direction) {
+		Criteria criteria = Criteria.where("category").in((Object[]) CATEGORIES);
+		if (category != null) {
+			criteria = Criteria.where("category").is(category);
+		}
+		if (status != null) {
+			criteria.and("status").is(status);
+		}
+		if (minPrice != null || maxPrice != null) {
+			Criteria price = criteria.and("price");
+			if (minPrice != null) {
+				price.gte(minPrice);
+			}
+			if (maxPrice != null) {
+				price.lte(maxPrice);
+			}
+		}
+		Query query = new Query(criteria).with(Sort.by(direction, sortField).and(Sort.by(direction, "_id")));
+		return mongoTemplate.find(query, Book.class).stream().map(Book::getId).toList();
+	}
+
+	private List<String> engineIds(String category, String status, Double minPrice, Double maxPrice,
+								   String sortBy, String sortOrder, int page, int size) {
+		return bookService.findBooksWithFilters(null, category, status, minPrice, maxPrice, sortBy, sortOrder, page, size)
+			.stream().map(Book::getId).toList();
+	}
+
+	@Test
+	void pagesMatchMongoForEverySortAndFilter() {
+		assertTrue(columnarCatalog.isReady());
+		String[] sorts = {"price", "rating", "publishedYear", "title", "createdAt"};
+		for (String category : CATEGORIES) {
+			for (String sort : sorts) {
+				for (String order : new String[] {"asc", "desc"}) {
+					Sort.Direction direction = "desc".equals(order) ? Sort.Direction.DESC : Sort.Direction.ASC;
+					List<String> expected = mongoIds(category, "IN_STOCK", 300.0, 1500.0, sort, direction);
+					List<String> actual = new ArrayList<>();
+					for (int page = 0; page * 7 < expected.size(); page++) {
+						actual.addAll(engineIds(category, "IN_STOCK", 300.0, 1500.0, sort, order, page, 7));
+					}
+					assertEquals(expected, actual, category + " by " + sort + " " + order);
+					assertEquals(expected.size(), bookService.countBooksWithFilters(null, category, "IN_STOCK", 300.0, 1500.0));
+				}
+			}
+		}
+	}
+
+	@Test
+	void missingFilterValuesMatchNothing() {
+		assertEquals(0, bookService.countBooksWithFilters(null, "No Such Category", null, null, null));
+		assertTrue(engineIds("Columnar-A", "No Such Status", null, null, "price", "asc", 0, 10).isEmpty());
+	}
+
+	@Test
+	void missingCategoryIsNotTheCategoryNamedNull() {
+		ColumnarCatalog catalog = new ColumnarCatalog(true);
+		Book uncategorized = mongoTemplate.findById(ids.get(0), Book.class);
+		uncategorized.setCategory(null);
+		catalog.load(Stream.of(uncategorized));
+
+		assertEquals(0, catalog.count("null", null, null, null));
+		assertEquals(1, catalog.count(null, null, null, null));
+
+		Book categorized = new Book(uncategorized);
+		categorized.setCategory("null");
+		catalog.onBookChanged(new BookChangeEvent(uncategorized, categorized));
+		assertEquals(1, catalog.count("null", null, null, null));
+	}
+
+	@Test
+	void writesThroughBookServiceAreVisibleImmediately() {
+		String id = ids.get(0);
+		Book book = mongoTemplate.findById(id, Book.class);
+		String category = book.getCategory();
+		long inStock = bookService.countBooksWithFilters(null, category, "IN_STOCK", null, null);
+		long outOfStock = bookService.countBooksWithFilters(null, category, "OUT_OF_STOCK", null, null);
+
+		bookService.updateBookDetails(id, 0, null, 1.0, null);
+		assertEquals(book.getStatus().equals("IN_STOCK") ? inStock - 1 : inStock,
+			bookService.countBooksWithFilters(null, category, "IN_STOCK", null, null));
+		assertEquals(book.getStatus().equals("OUT_OF_STOCK") ? outOfStock : outOfStock + 1,
+			bookService.countBooksWithFilters(null, category, "OUT_OF_STOCK", null, null));
+		assertEquals(List.of(id), engineIds(category, null, null, null, "price", "asc", 0, 1));
+
+		bookService.deleteById(id);
+		assertEquals(mongoIds(category, null, null, null, "price", Sort.Direction.ASC),
+			engineIds(category, null, null, null, "price", "asc", 0, 1000));
+	}
+
+	@Test
+	void changesPublishedDuringTheFirstLoadAreApplied() throws Exception {
+		ColumnarCatalog catalog = new ColumnarCatalog(true);
+		List<Book> books = mongoTemplate.find(new Query(Criteria.where("id").in(ids)), Book.class);
+		Book first = books.get(0);
+		Book repriced = new Book(first);
+		repriced.setPrice(1.0);
+		Thread writer = new Thread(() -> catalog.onBookChanged(new BookChangeEvent(first, repriced)));
+
+		// The change lands after the stream has already read the book, and is not held up by the load
+		catalog.load(books.stream().peek(book -> {
+			if (book == books.get(1)) {
+				writer.start();
+				try {
+					writer.join(10_000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				assertFalse(writer.isAlive());
+			}
+		}));
+
+		assertEquals(List.of(first.getId()), catalog.findPage(first.getCategory(), null, null, 1.0,
+			null, false, 0, 10));
+	}
+
+	@Test
+	void disabledCatalogIgnoresChanges() {
+		ColumnarCatalog disabled = new ColumnarCatalog(false);
+		disabled.onBookChanged(new BookChangeEvent(null, mongoTemplate.findById(ids.get(0), Book.class)));
+		assertEquals(0, disabled.size());
+	}
+}
@@ -0,0 +1,251 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import com.example.demo.model.Order;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+	"spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test",
+	"flashsale.journal-path=target/flash-sale-test.journal",
+	"flashsale.flush-interval-ms=3600000"
+})
+class FlashSaleInventoryTests {
+
+	@Autowired
+	FlashSaleInventory flashSaleInventory;
+
+	@Autowired
+	OrderService orderService;
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	BookImportService bookImportService;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	AutowireCapableBeanFactory beanFactory;
+
+	final List<String> bookIds = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		for (String bookId : bookIds) {
+			if (flashSaleInventory.isOnSale(bookId)) {
+				flashSaleInventory.endSale(bookId);
+			}
+		}
+		mongoTemplate.remove(new Query(Criteria.where("bookId").in(bookIds)), Order.class);
+		mongoTemplate.remove(new Query(Criteria.where("id").in(bookIds)), Book.class);
+	}
+
+	private Book stockedBook(int stock) {
+		Book book = new Book(null, "Flash Sale Test", "Tester", null, null, 100.0);
+		book.setStockQuantity(stock);
+		Book saved = bookService.save(book);
+		bookIds.add(saved.getId());
+		return saved;
+	}
+
+	private static Order order(String bookId) {
+		Order order = new Order(bookId, "Flash Sale Test", "Tester", "tester@example.com", 1, 100.0, null, null);
+		order.setPaymentMethod("cash");
+		return order;
+	}
+
+	// Place single-copy orders from many threads; returns how many were accepted
+	private int placeInParallel(String bookId, int orders, int threads) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger accepted = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < orders; i++) {
+			futures.add(pool.submit(() -> {
+				start.await();
+				try {
+					orderService.placeOrder(order(bookId));
+					accepted.incrementAndGet();
+				} catch (OutOfStockException e) {
+					// Sold out
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get(120, TimeUnit.SECONDS);
+		}
+		pool.shutdown();
+		return accepted.get();
+	}
+
+	@Test
+	void stripedStockNeverOversells() throws Exception {
+		FlashSaleInventory.Sale sale = new FlashSaleInventory.Sale(1_000, 8);
+		ExecutorService pool = Executors.newFixedThreadPool(16);
+		AtomicInteger taken = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 16; t++) {
+			futures.add(pool.submit(() -> {
+				for (int i = 0; i < 1_000; i++) {
+					if (sale.take(3)) {
+						taken.addAndGet(3);
+					}
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		pool.shutdown();
+		assertEquals(1_000, taken.get() + sale.available());
+		assertTrue(sale.available() < 3);
+	}
+
+	@Test
+	void gathersStockSpreadOverSeveralStripes() {
+		FlashSaleInventory.Sale sale = new FlashSaleInventory.Sale(4, 4);
+		assertTrue(sale.take(3));
+		assertFalse(sale.take(2));
+		assertEquals(1, sale.available());
+		sale.put(2);
+		assertTrue(sale.take(3));
+		assertEquals(0, sale.available());
+	}
+
+	@Test
+	void sellsExactlyTheStockAndFlushesItOnEnd() throws Exception {
+		Book book = stockedBook(100);
+		assertEquals(100, flashSaleInventory.startSale(book.getId()));
+
+		assertEquals(100, placeInParallel(book.getId(), 300, 32));
+		assertThrows(OutOfStockException.class, () -> orderService.placeOrder(order(book.getId())));
+		assertThrows(IllegalStateException.class, () -> bookService.updateStock(book.getId(), 50, null));
+		// Mongo is only written by the flush
+		assertEquals(100, bookService.findById(book.getId()).getStockQuantity());
+
+		assertEquals(0, flashSaleInventory.endSale(book.getId()));
+		Book after = bookService.findById(book.getId());
+		assertEquals(0, after.getStockQuantity());
+		assertEquals("OUT_OF_STOCK", after.getStatus());
+	}
+
+	@Test
+	void stockWritesMissTheBookFromTheMomentItsSaleStarts() {
+		Book book = stockedBook(10);
+		assertEquals(10, flashSaleInventory.startSale(book.getId()));
+		assertTrue(mongoTemplate.findById(book.getId(), Book.class).isFlashSale());
+
+		// The Mongo reservation path no longer matches, so it cannot sell copies the sale also counts
+		assertNull(bookService.reserveStock(book.getId(), 1));
+		assertTrue(flashSaleInventory.reserve(book.getId(), 4));
+		assertTrue(flashSaleInventory.release(book.getId(), 1));
+
+		assertEquals(7, flashSaleInventory.endSale(book.getId()));
+		assertFalse(mongoTemplate.findById(book.getId(), Book.class).isFlashSale());
+		assertFalse(flashSaleInventory.release(book.getId(), 1));
+		assertEquals(6, bookService.reserveStock(book.getId(), 1).getStockQuantity());
+	}
+
+	@Test
+	void editsAndImportsCannotTouchABookOnSale() throws Exception {
+		Book book = stockedBook(10);
+		book.setIsbn("FLASH-" + book.getId());
+		bookService.save(book);
+		flashSaleInventory.startSale(book.getId());
+
+		Book edit = new Book(book);
+		edit.setTitle("Edited During Sale");
+		assertThrows(IllegalStateException.class, () -> bookService.updateBook(book.getId(), edit));
+
+		List<Map<String, Object>> reported = new ArrayList<>();
+		Map<String, Object> summary = bookImportService.importBooks(
+			new StringReader("isbn,title,stockQuantity\n" + book.getIsbn() + ",Imported During Sale,500\n"),
+			BookImportService.Format.CSV, 100, reported::add);
+		assertEquals(1L, summary.get("failed"));
+		assertEquals(book.getIsbn(), reported.stream().filter(line -> "error".equals(line.get("type")))
+			.findFirst().get().get("isbn"));
+
+		// Neither write reached the book
+		assertEquals(10, flashSaleInventory.endSale(book.getId()));
+		Book after = bookService.findById(book.getId());
+		assertEquals("Flash Sale Test", after.getTitle());
+		assertEquals(10, after.getStockQuantity());
+	}
+
+	@Test
+	void replaysJournaledReservationsAfterACrash() throws Exception {
+		Book book = stockedBook(50);
+		flashSaleInventory.startSale(book.getId());
+		for (int i = 0; i < 10; i++) {
+			orderService.placeOrder(order(book.getId()));
+		}
+		assertEquals(50, bookService.findById(book.getId()).getStockQuantity());
+
+		// A fresh instance reads the journal on startup, as after a crash before the flush
+		beanFactory.createBean(FlashSaleInventory.class);
+		Book recovered = bookService.findById(book.getId());
+		assertEquals(40, recovered.getStockQuantity());
+
+		// The original node's own flush of the same records is skipped by flashSaleSeq
+		flashSaleInventory.endSale(book.getId());
+		assertEquals(40, bookService.findById(book.getId()).getStockQuantity());
+		assertTrue(bookService.findById(book.getId()).getFlashSaleSeq() > 0);
+	}
+
+	/**
+	 * Orders per second on one hot book, with and without flash-sale mode.
+	 * Run with {@code mvn test -Dtest=FlashSaleInventoryTests -Dbenchmarks=true} against a real MongoDB.
+	 */
+	@Test
+	@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+	void hotBookOrderThroughput() throws Exception {
+		int orders = 20_000;
+		int threads = 64;
+
+		Book regular = stockedBook(orders);
+		long start = System.nanoTime();
+		placeInParallel(regular.getId(), orders, threads);
+		double regularRate = orders / ((System.nanoTime() - start) / 1e9);
+
+		Book hot = stockedBook(orders);
+		flashSaleInventory.startSale(hot.getId());
+		start = System.nanoTime();
+		placeInParallel(hot.getId(), orders, threads);
+		double flashRate = orders / ((System.nanoTime() - start) / 1e9);
+		flashSaleInventory.endSale(hot.getId());
+
+		System.out.printf("%-40s %.0f orders/s%n", "hot book, findAndModify per order", regularRate);
+		System.out.printf("%-40s %.0f orders/s%n", "hot book, flash sale mode", flashRate);
+		assertEquals(0, bookService.findById(hot.getId()).getStockQuantity());
+		assertEquals(0, bookService.findById(regular.getId()).getStockQuantity());
+	}
+}
@@ -0,0 +1,63 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class InventorySummaryTests {
+
+	private static Book book(String id, String category, int stock) {
+		Book book = new Book(id, "Title " + id, "Author", null, null, 10.0);
+		book.setCategory(category);
+		book.setStockQuantity(stock);
+		return book;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> category(Map<String, Object> stats, String name) {
+		return ((Map<String, Map<String, Object>>) stats.get("byCategory")).get(name);
+	}
+
+	@Test
+	void appliesBookChangesAsDeltas() {
+		InventorySummary summary = new InventorySummary();
+		Book novel = book("1", "Novels", 20);
+		Book poems = book("2", "Poetry", 3);
+		summary.load(List.of(novel, poems, book("3", null, 0)));
+
+		Map<String, Object> stats = summary.getStatistics(true);
+		assertEquals(3L, stats.get("totalBooks"));
+		assertEquals(20L, stats.get("inStockQuantity"));
+		assertEquals(1L, stats.get("lowStockBooks"));
+		assertEquals(1L, stats.get("outOfStockBooks"));
+		assertEquals(1L, category(stats, InventorySummary.UNCATEGORIZED).get("totalBooks"));
+
+		// Restock drops the book from LOW_STOCK into IN_STOCK
+		Book restocked = new Book(poems);
+		restocked.setStockQuantity(12);
+		summary.onBookChanged(new BookChangeEvent(poems, restocked));
+		stats = summary.getStatistics(true);
+		assertEquals(2L, stats.get("inStockBooks"));
+		assertEquals(32L, stats.get("inStockQuantity"));
+		assertEquals(0L, stats.get("lowStockBooks"));
+		assertEquals(12L, category(stats, "Poetry").get("inStockQuantity"));
+
+		// Archived books still count, but their stock is no longer on sale
+		Book archived = new Book(novel);
+		archived.setArchived(true);
+		summary.onBookChanged(new BookChangeEvent(novel, archived));
+		assertEquals(2L, summary.getStatistics(false).get("inStockBooks"));
+		assertEquals(12L, summary.getStatistics(false).get("inStockQuantity"));
+
+		summary.onBookChanged(new BookChangeEvent(archived, null));
+		summary.onBookChanged(new BookChangeEvent(restocked, null));
+		stats = summary.getStatistics(true);
+		assertEquals(1L, stats.get("totalBooks"));
+		assertFalse(((Map<?, ?>) stats.get("byCategory")).containsKey("Novels"));
+	}
+}
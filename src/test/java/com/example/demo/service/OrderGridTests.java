@@ -0,0 +1,134 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Order;
+import com.example.demo.util.FieldSelection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+class OrderGridTests {
+
+	static final String DOMAIN = "@grid-orders.example.com";
+	static final LocalDateTime START = LocalDateTime.of(2025, 5, 1, 8, 0);
+	static final String[] PAYMENT_METHODS = {"CARD", "CASH"};
+
+	@Autowired
+	OrderService orderService;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@BeforeEach
+	void seed() {
+		List<Order> orders = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			// Few distinct totals, so the totalPrice sort has to break ties on _id
+			Order order = new Order("book-" + i, i % 4 == 0 ? "Gardening Basics" : "Other Title",
+				"Customer " + i, "customer" + i + DOMAIN, 1, 100 * (i % 6), START.plusHours(i), i % 3 == 0 ? "COMPLETED" : "PENDING");
+			order.setPaymentMethod(PAYMENT_METHODS[i % 2]);
+			orders.add(order);
+		}
+		mongoTemplate.insertAll(orders);
+	}
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("email").regex(DOMAIN + "$")), Order.class);
+	}
+
+	private Criteria seeded() {
+		return Criteria.where("email").regex(DOMAIN + "$");
+	}
+
+	private List<String> expectedIds(Criteria criteria, Sort sort) {
+		return mongoTemplate.find(new Query(criteria).with(sort), Order.class).stream().map(Order::getId).toList();
+	}
+
+	// Every page of the grid, keeping only the seeded orders (the collection may hold others)
+	@SuppressWarnings("unchecked")
+	private List<String> readAllPages(String status, String paymentMethod, LocalDateTime from, LocalDateTime to,
+									  String search, String sortBy, String sortOrder, int size) {
+		List<String> ids = new ArrayList<>();
+		String cursor = "";
+		do {
+			Map<String, Object> page = orderService.getOrderGridPage(status, paymentMethod, from, to, search,
+				sortBy, sortOrder, cursor, size, false, FieldSelection.ALL);
+			for (Order order : (List<Order>) page.get("orders")) {
+				if (order.getEmail() != null && order.getEmail().endsWith(DOMAIN)) {
+					ids.add(order.getId());
+				}
+			}
+			cursor = (String) page.get("nextCursor");
+		} while (cursor != null);
+		return ids;
+	}
+
+	@Test
+	void pagesFollowTheRequestedSortWithoutGapsOrRepeats() {
+		LocalDateTime from = START;
+		LocalDateTime to = START.plusHours(40);
+
+		assertEquals(expectedIds(seeded(), Sort.by(Sort.Direction.DESC, "orderDate", "_id")),
+			readAllPages(null, null, from, to, null, null, null, 7));
+		assertEquals(expectedIds(seeded(), Sort.by(Sort.Direction.ASC, "totalPrice", "_id")),
+			readAllPages(null, null, from, to, null, "totalPrice", "asc", 7));
+		assertEquals(expectedIds(seeded(), Sort.by(Sort.Direction.DESC, "totalPrice", "_id")),
+			readAllPages(null, null, from, to, null, "totalPrice", "desc", 7));
+	}
+
+	@Test
+	void filtersCombineAndTheTotalIsOptional() {
+		Criteria expected = seeded().and("status").is("COMPLETED").and("paymentMethod").is("CARD")
+			.and("bookTitle").is("Gardening Basics");
+
+		assertEquals(expectedIds(expected, Sort.by(Sort.Direction.DESC, "orderDate", "_id")),
+			readAllPages("COMPLETED", "CARD", START, START.plusHours(40), "gardening", null, null, 2));
+
+		Map<String, Object> withTotal = orderService.getOrderGridPage(null, "CASH", START, START.plusHours(10),
+			"customer", null, null, "", 3, true, FieldSelection.ALL);
+		assertEquals(5L, withTotal.get("totalOrders"));
+		assertEquals(3, ((List<?>) withTotal.get("orders")).size());
+		assertFalse(orderService.getOrderGridPage(null, null, null, null, null, null, null, "", 3, false, FieldSelection.ALL)
+			.containsKey("totalOrders"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void cursorKeepsItsOwnSort() {
+		Map<String, Object> first = orderService.getOrderGridPage(null, null, START, START.plusHours(40), null,
+			"totalPrice", "asc", "", 5, false, FieldSelection.ALL);
+		// Same cursor read with a different sortBy still continues the totalPrice ordering
+		Map<String, Object> second = orderService.getOrderGridPage(null, null, START, START.plusHours(40), null,
+			"orderDate", "desc", (String) first.get("nextCursor"), 5, false, FieldSelection.ALL);
+
+		List<String> expected = expectedIds(seeded(), Sort.by(Sort.Direction.ASC, "totalPrice", "_id"));
+		assertEquals(expected.subList(5, 10), ((List<Order>) second.get("orders")).stream().map(Order::getId).toList());
+	}
+
+	@Test
+	void badParametersAreRejected() {
+		assertThrows(IllegalArgumentException.class, () -> orderService.getOrderGridPage(
+			null, null, null, null, null, "customerName", null, "", 5, false, FieldSelection.ALL));
+		assertThrows(IllegalArgumentException.class, () -> orderService.getOrderGridPage(
+			null, null, null, null, null, null, null, "garbage", 5, false, FieldSelection.ALL));
+		assertNull(orderService.getOrderGridPage(null, null, START.plusHours(100), null, null, null, null, "", 5,
+			false, FieldSelection.ALL).get("nextCursor"));
+	}
+}
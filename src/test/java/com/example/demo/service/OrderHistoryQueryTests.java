@@ -0,0 +1,136 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import com.example.demo.model.Order;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import org.bson.BsonValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+class OrderHistoryQueryTests {
+
+	static final String EMAIL = "history-queries@example.com";
+
+	// Commands sent by the test thread, as "command collection"
+	static final ConcurrentLinkedQueue<String> commands = new ConcurrentLinkedQueue<>();
+	static volatile Thread recorded;
+
+	@TestConfiguration
+	static class CommandCounting {
+		@Bean
+		MongoClientSettingsBuilderCustomizer commandCounter() {
+			return builder -> builder.addCommandListener(new CommandListener() {
+				@Override
+				public void commandStarted(CommandStartedEvent event) {
+					if (Thread.currentThread() == recorded) {
+						BsonValue collection = event.getCommand().get(event.getCommandName());
+						commands.add(event.getCommandName() + " " + (collection != null && collection.isString()
+							? collection.asString().getValue() : ""));
+					}
+				}
+			});
+		}
+	}
+
+	@Autowired
+	OrderService orderService;
+
+	@Autowired
+	BookCache bookCache;
+
+	@Autowired
+	InventorySummary inventorySummary;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	final List<String> bookIds = new ArrayList<>();
+
+	@BeforeEach
+	void seed() {
+		for (int i = 0; i < 3; i++) {
+			Book book = new Book();
+			book.setTitle("History Book " + i);
+			book.setAuthor("Author");
+			book.setImageUrl("/images/history-" + i + ".jpg");
+			book.setPrice(100 + i);
+			book.setStockQuantity(10);
+			bookIds.add(mongoTemplate.insert(book).getId());
+		}
+		List<Order> orders = new ArrayList<>();
+		for (int i = 0; i < 60; i++) {
+			orders.add(new Order(bookIds.get(i % 3), "Old Title", "Customer", EMAIL, 1, 100, LocalDateTime.now(), "PENDING"));
+		}
+		mongoTemplate.insertAll(orders);
+		bookCache.invalidateAll();
+	}
+
+	@AfterEach
+	void cleanUp() {
+		recorded = null;
+		mongoTemplate.remove(new Query(Criteria.where("email").is(EMAIL)), Order.class);
+		mongoTemplate.remove(new Query(Criteria.where("id").in(bookIds)), Book.class);
+		inventorySummary.reconcile();
+	}
+
+	private List<String> recordCommands(Runnable work) {
+		commands.clear();
+		recorded = Thread.currentThread();
+		try {
+			work.run();
+		} finally {
+			recorded = null;
+		}
+		return new ArrayList<>(commands);
+	}
+
+	@Test
+	void historyReadsAllBooksInOneQuery() {
+		List<Map<String, Object>> history = new ArrayList<>();
+
+		List<String> sent = recordCommands(() -> history.addAll(orderService.getOrderHistory(EMAIL)));
+
+		// One query for the orders and one for their three distinct books, not one per order
+		assertEquals(List.of("find orders", "find books"), sent);
+		assertEquals(60, history.size());
+		Map<String, Object> first = history.get(0);
+		int book = bookIds.indexOf((String) first.get("bookId"));
+		assertEquals("History Book " + book, first.get("bookTitle"));
+		assertEquals("/images/history-" + book + ".jpg", first.get("bookImageUrl"));
+		assertEquals(100.0 + book, first.get("bookPrice"));
+
+		// The books are now in the near-cache
+		assertEquals(List.of("find orders"), recordCommands(() -> orderService.getOrderHistory(EMAIL)));
+	}
+
+	@Test
+	void ordersByEmailRefreshTitlesInOneQuery() {
+		List<Order> orders = new ArrayList<>();
+
+		List<String> sent = recordCommands(() -> orders.addAll(orderService.getOrdersByEmail(EMAIL)));
+
+		assertEquals(List.of("find orders", "find books"), sent);
+		for (Order order : orders) {
+			assertEquals("History Book " + bookIds.indexOf(order.getBookId()), order.getBookTitle());
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import com.example.demo.model.Order;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+	"spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test",
+	"orders.ingestion.enabled=true",
+	"orders.ingestion.journal-path=target/order-ingestion-test.journal",
+	"orders.ingestion.dead-letter-path=target/order-ingestion-test.dead-letter",
+	"orders.ingestion.batch-size=50",
+	"orders.ingestion.compact-every=20"
+})
+class OrderIngestionTests {
+
+	static final int ORDERS = 200;
+
+	@Autowired
+	OrderService orderService;
+
+	@Autowired
+	OrderIngestion orderIngestion;
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	BookSuggestionIndex suggestionIndex;
+
+	@Autowired
+	OrderTotals orderTotals;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	final List<String> bookIds = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("bookId").in(bookIds)), Order.class);
+		mongoTemplate.remove(new Query(Criteria.where("id").in(bookIds)), Book.class);
+		orderTotals.reconcile();
+	}
+
+	private Book stockedBook(int stock) {
+		Book book = new Book(null, "Ingestion Test", "Tester", null, null, 100.0);
+		book.setStockQuantity(stock);
+		Book saved = bookService.save(book);
+		bookIds.add(saved.getId());
+		return saved;
+	}
+
+	private static Order order(String bookId) {
+		Order order = new Order(bookId, "Ingestion Test", "Tester", "ingestion@example.com", 1, 100.0, null, null);
+		order.setPaymentMethod("cash");
+		return order;
+	}
+
+	private long storedOrders(String bookId) {
+		return mongoTemplate.count(new Query(Criteria.where("bookId").is(bookId)), Order.class);
+	}
+
+	private Order queuedOrder(String bookId, String company) {
+		Order order = order(bookId);
+		order.setId(new ObjectId().toHexString());
+		order.setStatus("PENDING");
+		order.setOrderDate(LocalDateTime.now());
+		order.setCompany(company);
+		orderIngestion.enqueue(order);
+		return order;
+	}
+
+	private void awaitStored(String bookId, long expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+		while (storedOrders(bookId) < expected && System.nanoTime() < deadline) {
+			Thread.sleep(50);
+		}
+		assertEquals(expected, storedOrders(bookId));
+	}
+
+	@Test
+	void acceptedOrdersAreInsertedWithTheirIds() throws Exception {
+		Book book = stockedBook(ORDERS + 10);
+		ExecutorService pool = Executors.newFixedThreadPool(16);
+		List<Future<Order>> results = new ArrayList<>();
+		try {
+			for (int i = 0; i < ORDERS; i++) {
+				results.add(pool.submit(() -> orderService.submitOrder(order(book.getId()))));
+			}
+			List<String> ids = new ArrayList<>();
+			for (Future<Order> result : results) {
+				Order accepted = result.get(30, TimeUnit.SECONDS);
+				String status = orderService.getOrderStatus(accepted.getId());
+				assertTrue(OrderIngestion.QUEUED.equals(status) || "PENDING".equals(status), status);
+				ids.add(accepted.getId());
+			}
+
+			awaitStored(book.getId(), ORDERS);
+			// Stock was taken as each order was accepted
+			assertEquals(10, bookService.findById(book.getId()).getStockQuantity());
+			for (String id : ids) {
+				assertEquals("PENDING", orderService.getOrderStatus(id));
+			}
+			assertFalse(orderIngestion.isQueued(ids.get(0)));
+
+			// Nothing left to insert, so the journal is compacted down to nothing
+			Path journal = Paths.get("target/order-ingestion-test.journal");
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+			while (Files.size(journal) > 0 && System.nanoTime() < deadline) {
+				Thread.sleep(50);
+			}
+			assertEquals(0, Files.size(journal));
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void rejectedOrdersKeepTheirStock() {
+		Book book = stockedBook(1);
+		orderService.submitOrder(order(book.getId()));
+		assertThrows(OutOfStockException.class, () -> orderService.submitOrder(order(book.getId())));
+		assertEquals(0, bookService.findById(book.getId()).getStockQuantity());
+		assertEquals(null, orderService.getOrderStatus(new ObjectId().toHexString()));
+	}
+
+	@Test
+	void recoveryInsertsJournaledOrdersOnce() throws Exception {
+		String title = "Recovered " + new ObjectId().toHexString();
+		Book book = bookService.save(new Book(null, title, "Tester", null, null, 100.0));
+		bookIds.add(book.getId());
+		List<String> documents = new ArrayList<>();
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			Order order = order(book.getId());
+			order.setId(new ObjectId().toHexString());
+			order.setStatus("PENDING");
+			order.setOrderDate(LocalDateTime.now());
+			Document stored = new Document();
+			mongoTemplate.getConverter().write(order, stored);
+			documents.add(stored.toJson());
+			lines.add((i + 1) + " " + stored.toJson());
+		}
+		// The first order already made it to Mongo before the crash
+		mongoTemplate.insert(mongoTemplate.getConverter().read(Order.class, Document.parse(documents.get(0))));
+		// A record cut off halfway through by the crash
+		lines.add(lines.get(2).substring(0, 40));
+
+		orderTotals.reconcile();
+		long pending = orderTotals.getOrdersByStatus().getOrDefault("PENDING", 0L);
+
+		Path journal = Paths.get("target/order-ingestion-recover-test.journal");
+		Files.write(journal, lines, StandardCharsets.UTF_8);
+		orderIngestion.recover(journal);
+
+		assertEquals(3, storedOrders(book.getId()));
+		assertFalse(Files.exists(journal));
+		// Only the two orders recovery wrote are published
+		assertEquals(2L, suggestionIndex.suggest(title, 1).get(0).get("popularity"));
+		assertEquals(pending + 2, orderTotals.getOrdersByStatus().get("PENDING"));
+	}
+
+	@Test
+	void refusedOrderIsDeadLetteredWithoutHoldingUpTheRest() throws Exception {
+		Book book = stockedBook(10);
+		Path deadLetter = Paths.get("target/order-ingestion-test.dead-letter");
+		Files.deleteIfExists(deadLetter);
+		String company = "Refused " + new ObjectId().toHexString();
+		// Makes Mongo refuse the second order for a reason of its own
+		Index unique = new Index("company", Sort.Direction.ASC).unique().sparse().named("ingestion_test_company");
+		String index = mongoTemplate.indexOps(Order.class).createIndex(unique);
+		try {
+			Order first = queuedOrder(book.getId(), company);
+			Order refused = queuedOrder(book.getId(), company);
+			Order other = queuedOrder(book.getId(), null);
+			awaitStored(book.getId(), 2);
+
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+			while (orderIngestion.isQueued(refused.getId()) && System.nanoTime() < deadline) {
+				Thread.sleep(50);
+			}
+			assertFalse(orderIngestion.isQueued(refused.getId()));
+			assertEquals("PENDING", orderService.getOrderStatus(first.getId()));
+			assertEquals("PENDING", orderService.getOrderStatus(other.getId()));
+			assertEquals(null, orderService.getOrderStatus(refused.getId()));
+			// Its journal record is kept in the dead-letter file
+			List<String> records = Files.readAllLines(deadLetter, StandardCharsets.UTF_8);
+			assertEquals(1, records.size());
+			assertTrue(records.get(0).contains(refused.getId()));
+
+			// Later orders are not held up
+			queuedOrder(book.getId(), null);
+			awaitStored(book.getId(), 3);
+		} finally {
+			mongoTemplate.indexOps(Order.class).dropIndex(index);
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import com.example.demo.model.Order;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+class OrderServiceConcurrencyTests {
+
+	static final int ORDERS = 300;
+
+	@Autowired
+	OrderService orderService;
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	final List<String> bookIds = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("bookId").in(bookIds)), Order.class);
+		mongoTemplate.remove(new Query(Criteria.where("id").in(bookIds)), Book.class);
+	}
+
+	private Book stockedBook(int stock) {
+		Book book = new Book(null, "Concurrency Test", "Tester", null, null, 100.0);
+		book.setStockQuantity(stock);
+		Book saved = bookService.save(book);
+		bookIds.add(saved.getId());
+		return saved;
+	}
+
+	private static Order order(String bookId) {
+		Order order = new Order(bookId, "Concurrency Test", "Tester", "tester@example.com", 1, 100.0, null, null);
+		order.setPaymentMethod("cash");
+		return order;
+	}
+
+	// Place ORDERS single-copy orders from many threads at once; returns how many were accepted
+	private int placeInParallel(String bookId) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(32);
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger accepted = new AtomicInteger();
+		AtomicInteger rejected = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < ORDERS; i++) {
+			futures.add(pool.submit(() -> {
+				start.await();
+				try {
+					orderService.placeOrder(order(bookId));
+					accepted.incrementAndGet();
+				} catch (OutOfStockException e) {
+					rejected.incrementAndGet();
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get(60, TimeUnit.SECONDS);
+		}
+		pool.shutdown();
+		assertEquals(ORDERS, accepted.get() + rejected.get());
+		return accepted.get();
+	}
+
+	// A two-copy open order as stored before reservedQuantity existed
+	private Order legacyOrder(String bookId) {
+		Order order = order(bookId);
+		order.setStatus("PENDING");
+		order.setQuantity(2);
+		order = mongoTemplate.insert(order);
+		mongoTemplate.updateFirst(new Query(Criteria.where("id").is(order.getId())),
+			new Update().unset("reservedQuantity"), Order.class);
+		return order;
+	}
+
+	private long ordersFor(String bookId) {
+		return mongoTemplate.count(new Query(Criteria.where("bookId").is(bookId)), Order.class);
+	}
+
+	@Test
+	void neverOversellsUnderConcurrentOrders() throws Exception {
+		Book book = stockedBook(100);
+
+		assertEquals(100, placeInParallel(book.getId()));
+
+		Book after = bookService.findById(book.getId());
+		assertEquals(0, after.getStockQuantity());
+		assertEquals("OUT_OF_STOCK", after.getStatus());
+		assertEquals(100, ordersFor(book.getId()));
+		assertThrows(OutOfStockException.class, () -> orderService.placeOrder(order(book.getId())));
+	}
+
+	@Test
+	void losesNoUpdatesWhenStockIsPlenty() throws Exception {
+		Book book = stockedBook(ORDERS + 3);
+
+		assertEquals(ORDERS, placeInParallel(book.getId()));
+
+		Book after = bookService.findById(book.getId());
+		assertEquals(3, after.getStockQuantity());
+		assertEquals("LOW_STOCK", after.getStatus());
+		assertEquals(ORDERS, ordersFor(book.getId()));
+	}
+
+	@Test
+	void releasedStockCanBeOrderedAgain() {
+		Book book = stockedBook(1);
+		orderService.placeOrder(order(book.getId()));
+		assertThrows(OutOfStockException.class, () -> orderService.placeOrder(order(book.getId())));
+
+		bookService.releaseStock(book.getId(), 1);
+		assertEquals("LOW_STOCK", bookService.findById(book.getId()).getStatus());
+		orderService.placeOrder(order(book.getId()));
+		assertEquals(0, bookService.findById(book.getId()).getStockQuantity());
+	}
+
+	@Test
+	void cancellingOrDeletingAnOpenOrderGivesItsCopiesBack() {
+		Book book = stockedBook(10);
+		Order cancelled = orderService.placeOrder(order(book.getId()));
+		Order deleted = orderService.placeOrder(order(book.getId()));
+		Order completed = orderService.placeOrder(order(book.getId()));
+		assertEquals(7, bookService.findById(book.getId()).getStockQuantity());
+
+		orderService.updateOrderStatus(cancelled.getId(), "CANCELLED");
+		assertEquals(8, bookService.findById(book.getId()).getStockQuantity());
+		// Cancelling again or deleting it afterwards does not give the copy back twice
+		orderService.updateOrderStatus(cancelled.getId(), "CANCELLED");
+		orderService.deleteOrder(cancelled.getId());
+		assertEquals(8, bookService.findById(book.getId()).getStockQuantity());
+
+		orderService.deleteOrder(deleted.getId());
+		assertEquals(9, bookService.findById(book.getId()).getStockQuantity());
+
+		// A completed order's copies have been sold
+		orderService.updateOrderStatus(completed.getId(), "COMPLETED");
+		orderService.deleteOrder(completed.getId());
+		assertEquals(9, bookService.findById(book.getId()).getStockQuantity());
+	}
+
+	@Test
+	void editingTheQuantityMovesTheDifference() {
+		Book book = stockedBook(5);
+		Order order = orderService.placeOrder(order(book.getId()));
+
+		orderService.updateOrder(order.getId(), "Tester", 3, 300.0, "PENDING");
+		assertEquals(2, bookService.findById(book.getId()).getStockQuantity());
+
+		// More than is left: nothing changes
+		assertThrows(OutOfStockException.class, () -> orderService.updateOrder(order.getId(), "Tester", 6, 600.0, "PENDING"));
+		assertEquals(2, bookService.findById(book.getId()).getStockQuantity());
+		assertEquals(3, mongoTemplate.findById(order.getId(), Order.class).getQuantity());
+
+		orderService.updateOrder(order.getId(), "Tester", 2, 200.0, "PROCESSING");
+		assertEquals(3, bookService.findById(book.getId()).getStockQuantity());
+
+		orderService.updateOrder(order.getId(), "Tester", 2, 200.0, "CANCELLED");
+		assertEquals(5, bookService.findById(book.getId()).getStockQuantity());
+	}
+
+	@Test
+	void ordersThatNeverReservedStockGiveNoneBack() {
+		Book book = stockedBook(5);
+		// Saved before orders recorded what they reserved, so they hold no copies
+		Order legacy = legacyOrder(book.getId());
+		Order shrunk = legacyOrder(book.getId());
+
+		orderService.updateOrderStatus(legacy.getId(), "CANCELLED");
+		assertEquals(5, bookService.findById(book.getId()).getStockQuantity());
+
+		orderService.updateOrder(shrunk.getId(), "Tester", 1, 100.0, "PENDING");
+		assertEquals(5, bookService.findById(book.getId()).getStockQuantity());
+		// Growing it reserves the difference, and only that is given back
+		orderService.updateOrder(shrunk.getId(), "Tester", 3, 300.0, "PENDING");
+		assertEquals(3, bookService.findById(book.getId()).getStockQuantity());
+		orderService.deleteOrder(shrunk.getId());
+		assertEquals(5, bookService.findById(book.getId()).getStockQuantity());
+	}
+
+	@Test
+	void concurrentCancelsReleaseOnce() throws Exception {
+		Book book = stockedBook(10);
+		Order order = orderService.placeOrder(order(book.getId()));
+		ExecutorService pool = Executors.newFixedThreadPool(16);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			futures.add(pool.submit(() -> {
+				start.await();
+				return orderService.updateOrderStatus(order.getId(), "CANCELLED");
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get(30, TimeUnit.SECONDS);
+		}
+		pool.shutdown();
+		assertEquals(10, bookService.findById(book.getId()).getStockQuantity());
+	}
+
+	@Test
+	void editingABookKeepsStockReservedMeanwhile() {
+		Book book = stockedBook(5);
+		Book edit = new Book(book);
+		edit.setTitle("Edited Title");
+		// The form was loaded while the stock was still 5
+		edit.setStockQuantity(5);
+		orderService.placeOrder(order(book.getId()));
+
+		Book updated = bookService.updateBook(book.getId(), edit);
+
+		assertEquals("Edited Title", updated.getTitle());
+		assertEquals(4, updated.getStockQuantity());
+		assertEquals(4, bookService.findById(book.getId()).getStockQuantity());
+	}
+}
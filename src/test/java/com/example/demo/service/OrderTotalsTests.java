@@ -0,0 +1,101 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Book;
+import com.example.demo.model.Order;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+class OrderTotalsTests {
+
+	@Autowired
+	OrderService orderService;
+
+	@Autowired
+	OrderTotals orderTotals;
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	InventorySummary inventorySummary;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	final List<String> bookIds = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("bookId").in(bookIds)), Order.class);
+		mongoTemplate.remove(new Query(Criteria.where("id").in(bookIds)), Book.class);
+		inventorySummary.reconcile();
+		orderTotals.reconcile();
+	}
+
+	private Order placeOrder(double totalPrice) {
+		Book book = new Book(null, "Totals Test", "Tester", null, null, totalPrice);
+		book.setStockQuantity(5);
+		bookIds.add(bookService.save(book).getId());
+		Order order = new Order(book.getId(), "Totals Test", "Tester", "totals@example.com", 1, totalPrice, null, null);
+		order.setPaymentMethod("cash");
+		return orderService.placeOrder(order);
+	}
+
+	private long count(String status) {
+		return orderTotals.getOrdersByStatus().getOrDefault(status, 0L);
+	}
+
+	@Test
+	void revenueFollowsEveryOrderWrite() {
+		orderTotals.reconcile();
+		double revenue = orderTotals.getRevenue();
+		long pending = count("PENDING");
+
+		Order order = placeOrder(250.10);
+		assertEquals(revenue, orderTotals.getRevenue(), 0.001);
+		assertEquals(pending + 1, count("PENDING"));
+
+		orderService.updateOrderStatus(order.getId(), "COMPLETED");
+		assertEquals(revenue + 250.10, orderTotals.getRevenue(), 0.001);
+		assertEquals(pending, count("PENDING"));
+
+		orderService.updateOrder(order.getId(), "Tester", 2, 500.20, "COMPLETED");
+		assertEquals(revenue + 500.20, orderTotals.getRevenue(), 0.001);
+
+		// The running totals agree with a recount
+		double running = orderTotals.getRevenue();
+		orderTotals.reconcile();
+		assertEquals(running, orderTotals.getRevenue(), 0.001);
+
+		orderService.deleteOrder(order.getId());
+		assertEquals(revenue, orderTotals.getRevenue(), 0.001);
+	}
+
+	@Test
+	void recentOrdersAreTheNewestByOrderDate() {
+		List<Order> newest = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			bookIds.add("recent-book-" + i);
+			newest.add(0, mongoTemplate.insert(new Order("recent-book-" + i, "Recent", "Tester", "recent@example.com",
+				1, 10, LocalDateTime.now().plusYears(50).plusMinutes(i), "PENDING")));
+		}
+
+		List<Order> recent = orderService.getRecentOrders(10);
+
+		assertEquals(Math.min(10, mongoTemplate.count(new Query(), Order.class)), recent.size());
+		assertEquals(newest.stream().map(Order::getId).toList(), recent.subList(0, 3).stream().map(Order::getId).toList());
+		assertEquals(mongoTemplate.count(new Query(), Order.class), orderService.countOrders());
+	}
+}
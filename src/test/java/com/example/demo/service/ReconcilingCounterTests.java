@@ -0,0 +1,76 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReconcilingCounterTests {
+
+	// Stands in for the collection the aggregate counts
+	final AtomicLong stored = new AtomicLong();
+	// Run once by the next aggregate, after it has read the collection
+	Runnable meanwhile;
+	int aggregates;
+	final ReconcilingCounter<LongAdder> counter = new ReconcilingCounter<>(() -> {
+		aggregates++;
+		LongAdder fresh = new LongAdder();
+		fresh.add(stored.get());
+		if (meanwhile != null) {
+			Runnable write = meanwhile;
+			meanwhile = null;
+			write.run();
+		}
+		return fresh;
+	}, (current, fresh) -> { }, 3);
+
+	private void insert() {
+		counter.write(() -> {
+			stored.incrementAndGet();
+			counter.apply(LongAdder::increment);
+			return null;
+		});
+	}
+
+	@Test
+	void writeCountedByTheAggregateIsNotAppliedAgain() {
+		assertTrue(counter.reconcile());
+		insert();
+		assertEquals(1, counter.get().sum());
+
+		// Committed before the aggregate read it, with its event still to come after the reconcile
+		boolean swapped = counter.write(() -> {
+			stored.incrementAndGet();
+			boolean reconciled = counter.reconcile();
+			counter.apply(LongAdder::increment);
+			return reconciled;
+		});
+
+		assertFalse(swapped);
+		assertEquals(2, counter.get().sum());
+		assertTrue(counter.reconcile());
+		assertEquals(2, counter.get().sum());
+	}
+
+	@Test
+	void writeMissedByTheAggregateRetriesIt() {
+		assertTrue(counter.reconcile());
+		aggregates = 0;
+		meanwhile = this::insert;
+
+		assertTrue(counter.reconcile());
+		assertEquals(2, aggregates);
+		assertEquals(1, counter.get().sum());
+	}
+
+	@Test
+	void firstLoadKeepsTheLastCountWhenWritesNeverStop() {
+		boolean loaded = counter.write(counter::reconcile);
+		assertFalse(loaded);
+		assertEquals(0, counter.get().sum());
+	}
+}
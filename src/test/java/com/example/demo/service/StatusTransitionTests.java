@@ -0,0 +1,210 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Bill;
+import com.example.demo.model.Book;
+import com.example.demo.model.Order;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest(properties = "spring.data.mongodb.uri=mongodb://localhost:27017/pahandb_test")
+class StatusTransitionTests {
+
+	static final int THREADS = 16;
+
+	@Autowired
+	OrderService orderService;
+
+	@Autowired
+	BillingService billingService;
+
+	@Autowired
+	OrderTotals orderTotals;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	final List<String> orderIds = new ArrayList<>();
+	final List<String> billIds = new ArrayList<>();
+
+	@AfterEach
+	void cleanUp() {
+		mongoTemplate.remove(new Query(Criteria.where("id").in(orderIds)), Order.class);
+		mongoTemplate.remove(new Query(Criteria.where("id").in(billIds)), Bill.class);
+		mongoTemplate.remove(new Query(Criteria.where("id").is("transition-book")), Book.class);
+		orderTotals.reconcile();
+	}
+
+	private Order order(String status) {
+		Order order = mongoTemplate.insert(new Order("transition-book", "Transitions", "Tester", "transitions@example.com",
+			1, 100, LocalDateTime.now(), status));
+		orderIds.add(order.getId());
+		return order;
+	}
+
+	private Bill bill(String status) {
+		Bill bill = new Bill("TRANSITION-1", "Tester", 1, 100);
+		bill.setBillNumber("TRANSITION-" + System.nanoTime());
+		bill.setStatus(status);
+		bill = mongoTemplate.insert(bill);
+		billIds.add(bill.getId());
+		return bill;
+	}
+
+	private String storedStatus(Order order) {
+		return mongoTemplate.findById(order.getId(), Order.class).getStatus();
+	}
+
+	// Runs every task at once and returns, per task, the status it set or "CONFLICT"
+	private List<String> race(List<Callable<String>> tasks) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(tasks.size());
+		CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (Callable<String> task : tasks) {
+				results.add(pool.submit(() -> {
+					start.await();
+					try {
+						return task.call();
+					} catch (StatusConflictException e) {
+						return "CONFLICT";
+					}
+				}));
+			}
+			start.countDown();
+			List<String> outcomes = new ArrayList<>();
+			for (Future<String> result : results) {
+				outcomes.add(result.get(30, TimeUnit.SECONDS));
+			}
+			return outcomes;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void ordersFollowTheStateMachine() {
+		Order order = order("PENDING");
+
+		assertEquals("PROCESSING", orderService.updateOrderStatus(order.getId(), "PROCESSING").getStatus());
+		StatusConflictException conflict = assertThrows(StatusConflictException.class,
+			() -> orderService.updateOrderStatus(order.getId(), "PENDING"));
+		assertEquals("PROCESSING", conflict.getCurrentStatus());
+
+		assertEquals("COMPLETED", orderService.updateOrderStatus(order.getId(), "COMPLETED").getStatus());
+		assertThrows(StatusConflictException.class, () -> orderService.updateOrderStatus(order.getId(), "CANCELLED"));
+		// Setting the status it already has changes nothing and is not a conflict
+		assertEquals("COMPLETED", orderService.updateOrderStatus(order.getId(), "COMPLETED").getStatus());
+		assertEquals("COMPLETED", storedStatus(order));
+
+		assertThrows(IllegalArgumentException.class, () -> orderService.updateOrderStatus(order.getId(), "SHIPPED"));
+		RuntimeException missing = assertThrows(RuntimeException.class,
+			() -> orderService.updateOrderStatus("000000000000000000000000", "COMPLETED"));
+		assertEquals("Order not found", missing.getMessage());
+	}
+
+	@Test
+	void editsOnlyWriteTheirFields() {
+		// The extra copy the edit asks for has to come from somewhere
+		Book book = new Book("transition-book", "Transitions", "Tester", null, null, 100.0);
+		book.setStockQuantity(5);
+		mongoTemplate.insert(book);
+		Order order = order("PENDING");
+		mongoTemplate.updateFirst(new Query(Criteria.where("id").is(order.getId())),
+			new Update().set("city", "Colombo"), Order.class);
+
+		Order edited = orderService.updateOrder(order.getId(), "Edited", 2, 200.0, "PENDING");
+
+		Order stored = mongoTemplate.findById(order.getId(), Order.class);
+		assertEquals("Edited", stored.getCustomerName());
+		assertEquals(2, stored.getQuantity());
+		assertEquals("Colombo", stored.getCity());
+		assertEquals("Edited", edited.getCustomerName());
+
+		orderService.updateOrderStatus(order.getId(), "CANCELLED");
+		assertThrows(StatusConflictException.class,
+			() -> orderService.updateOrder(order.getId(), "Edited", 2, 200.0, "COMPLETED"));
+	}
+
+	@Test
+	void concurrentAdminsCannotOverwriteEachOther() throws Exception {
+		orderTotals.reconcile();
+		double revenue = orderTotals.getRevenue();
+		Order order = order("PROCESSING");
+
+		List<Callable<String>> tasks = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			String target = i % 2 == 0 ? "COMPLETED" : "CANCELLED";
+			tasks.add(() -> orderService.updateOrderStatus(order.getId(), target).getStatus());
+		}
+		List<String> outcomes = race(tasks);
+
+		// Whichever status won first, every request for the other one was refused
+		String winner = storedStatus(order);
+		String loser = winner.equals("COMPLETED") ? "CANCELLED" : "COMPLETED";
+		for (int i = 0; i < THREADS; i++) {
+			String target = i % 2 == 0 ? "COMPLETED" : "CANCELLED";
+			assertEquals(target.equals(winner) ? winner : "CONFLICT", outcomes.get(i));
+		}
+		assertEquals(0, outcomes.stream().filter(loser::equals).count());
+		// The change events agree with the stored order
+		assertEquals(revenue + (winner.equals("COMPLETED") ? 100 : 0), orderTotals.getRevenue(), 0.001);
+	}
+
+	@Test
+	void expectedStatusLetsOnlyOneAdminMoveTheOrder() throws Exception {
+		Order order = order("PENDING");
+
+		List<Callable<String>> tasks = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			String target = i % 2 == 0 ? "PROCESSING" : "CANCELLED";
+			tasks.add(() -> orderService.updateOrderStatus(order.getId(), target, "PENDING").getStatus());
+		}
+		List<String> outcomes = race(tasks);
+
+		assertEquals(THREADS - 1, outcomes.stream().filter("CONFLICT"::equals).count());
+		assertEquals(storedStatus(order), outcomes.stream().filter(outcome -> !outcome.equals("CONFLICT")).findFirst().get());
+	}
+
+	@Test
+	void billsFollowTheStateMachine() throws Exception {
+		Bill bill = bill("PENDING");
+
+		assertEquals("SAVED", billingService.updateBillStatusByBillNumber(bill.getBillNumber(), "SAVED").getStatus());
+		assertEquals("SAVED", billingService.updateBillStatusByBillNumber(bill.getBillNumber(), "SAVED").getStatus());
+		assertThrows(StatusConflictException.class, () -> billingService.updateBillStatus(bill.getId(), "PENDING"));
+		assertThrows(IllegalArgumentException.class, () -> billingService.updateBillStatus(bill.getId(), "REFUNDED"));
+		assertThrows(RuntimeException.class, () -> billingService.updateBillStatusByBillNumber("NO-SUCH-BILL", "PAID"));
+
+		List<Callable<String>> tasks = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			String target = i % 2 == 0 ? "PAID" : "FAILED";
+			tasks.add(() -> billingService.updateBillStatus(bill.getId(), target).getStatus());
+		}
+		List<String> outcomes = race(tasks);
+
+		String winner = mongoTemplate.findById(bill.getId(), Bill.class).getStatus();
+		for (int i = 0; i < THREADS; i++) {
+			String target = i % 2 == 0 ? "PAID" : "FAILED";
+			assertEquals(target.equals(winner) ? winner : "CONFLICT", outcomes.get(i));
+		}
+	}
+}